@@ -0,0 +1,104 @@
+package ru.poplavkov.cluster;
+
+import lombok.val;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of lookups of {@link ClusterServer}: indexes synthetic
+ * clusters, starts the server and sends lookups of raw queries (a tenth
+ * of them are not in any cluster) from every benchmark thread over
+ * keep-alive connections. JMH reports percentiles of latency. A thread
+ * sends its next request only after the response, so the load is closed:
+ * a stalled server slows down clients instead of adding to latency.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(8)
+public class ClusterServerBenchmark {
+    @Param("100000")
+    public int clusters;
+
+    private final List<String> raw = new ArrayList<>();
+    private ClusterIndex index;
+    private ClusterServer server;
+    private String url;
+
+    @Setup
+    public void setUp() throws IOException {
+        val random = new Random(42);
+        val analyzer = new QueryAnalyzer();
+        val members = new ArrayList<List<String>>();
+        for (int c = 0; c < clusters; c++) {
+            val cluster = new ArrayList<String>();
+            for (int i = 2 + random.nextInt(5); i > 0; i--) {
+                val query = "Word" + random.nextInt(10_000) + " the term" + c + "s " + i;
+                raw.add(query);
+                cluster.add(analyzer.analyze(query));
+            }
+            members.add(cluster);
+        }
+        index = ClusterIndex.of(members);
+        server = new ClusterServer(index, () -> new QueryAnalyzer()::analyze, 0,
+                Math.max(2, Runtime.getRuntime().availableProcessors()));
+        server.start();
+        url = "http://localhost:" + server.getPort() + "/cluster?q=";
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.close();
+    }
+
+    @State(Scope.Thread)
+    public static class Client {
+        private final byte[] buffer = new byte[4096];
+        private Random random;
+
+        @Setup
+        public void setUp(ThreadParams params) {
+            random = new Random(params.getThreadIndex());
+        }
+    }
+
+    /**
+     * @return status of the response, 200 or 404
+     */
+    @Benchmark
+    public int lookup(Client client) throws IOException {
+        val query = client.random.nextInt(10) == 0
+                ? "missing " + client.random.nextInt()
+                : raw.get(client.random.nextInt(raw.size()));
+        val connection = (HttpURLConnection) new URL(url + URLEncoder.encode(query, "UTF-8")).openConnection();
+        val code = connection.getResponseCode();
+        //the body is read to the end, so that the connection is reused
+        try (InputStream in = code < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            while (in.read(client.buffer) > 0) {
+            }
+        }
+        if (code != 200 && code != 404) {
+            throw new IllegalStateException("Unexpected status " + code);
+        }
+        return code;
+    }
+}
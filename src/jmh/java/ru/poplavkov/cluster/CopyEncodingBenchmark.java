@@ -0,0 +1,98 @@
+package ru.poplavkov.cluster;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.util.ByteStreamWriter;
+
+import java.sql.SQLException;
+
+/**
+ * Throughput of building a batch of links for database by
+ * {@link CopyLoader}, as {@link Store#load} does: rows of an aggregated
+ * map are encoded in {@code format} and streamed to a {@code COPY}, which
+ * discards them here, so the database is not measured. One operation is
+ * one row.
+ */
+@State(Scope.Thread)
+public class CopyEncodingBenchmark {
+    private static final int ROWS = 100_000;
+
+    @Param({"TEXT", "BINARY"})
+    public String format;
+
+    private CopyLoader loader;
+    private LongIntHashMap links;
+    private final DiscardingCopy copy = new DiscardingCopy();
+
+    @Setup
+    public void setUp() {
+        loader = new CopyLoader(CopyLoader.Format.valueOf(format));
+        links = Workload.of(4 * ROWS, 42).links(ROWS);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public long encode() throws SQLException {
+        return loader.load(copy, links);
+    }
+
+    /**
+     * {@code COPY}, which only counts bytes written to it.
+     */
+    private static class DiscardingCopy implements CopyIn {
+        private long bytes;
+
+        @Override
+        public void writeToCopy(byte[] buf, int off, int siz) {
+            bytes += siz;
+        }
+
+        @Override
+        public void writeToCopy(ByteStreamWriter from) {
+            bytes += from.getLength();
+        }
+
+        @Override
+        public void flushCopy() {
+        }
+
+        @Override
+        public long endCopy() {
+            return bytes;
+        }
+
+        @Override
+        public int getFieldCount() {
+            return 3;
+        }
+
+        @Override
+        public int getFormat() {
+            return 0;
+        }
+
+        @Override
+        public int getFieldFormat(int field) {
+            return 0;
+        }
+
+        @Override
+        public boolean isActive() {
+            return false;
+        }
+
+        @Override
+        public void cancelCopy() {
+        }
+
+        @Override
+        public long getHandledRowCount() {
+            return 0;
+        }
+    }
+}
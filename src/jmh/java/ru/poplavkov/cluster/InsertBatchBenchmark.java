@@ -0,0 +1,82 @@
+package ru.poplavkov.cluster;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+/**
+ * Throughput of building a batch of links for database by
+ * {@link Store#insertAll(LongIntHashMap)}, the loader without
+ * {@code COPY}: parameters of every row are set and added to the batch
+ * of a statement, which only keeps them in an array here, so neither the
+ * driver nor the database is measured. The stub is a proxy, its dispatch
+ * boxes arguments, so allocation per row is an upper bound of the loop's
+ * own. One operation is one row.
+ *
+ * @see CopyEncodingBenchmark
+ */
+@State(Scope.Thread)
+public class InsertBatchBenchmark {
+    private static final int ROWS = 100_000;
+
+    private LongIntHashMap links;
+    private Batch batch;
+    private PreparedStatement statement;
+
+    @Setup
+    public void setUp() {
+        links = Workload.of(4 * ROWS, 42).links(ROWS);
+        batch = new Batch();
+        statement = (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{PreparedStatement.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "setInt":
+                            batch.set((Integer) args[0], (Integer) args[1]);
+                            return null;
+                        case "addBatch":
+                            batch.add();
+                            return null;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public int addBatch() throws SQLException {
+        batch.clear();
+        Store.addBatch(statement, links);
+        return batch.size;
+    }
+
+    /**
+     * Parameters of added rows, three ints per row.
+     */
+    private static class Batch {
+        private int[] values = new int[3 * 1024];
+        private int size;
+
+        void set(int parameter, int value) {
+            if (size + 3 > values.length) {
+                values = Arrays.copyOf(values, values.length * 2);
+            }
+            values[size + parameter - 1] = value;
+        }
+
+        void add() {
+            size += 3;
+        }
+
+        void clear() {
+            size = 0;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package ru.poplavkov.cluster;
+
+import lombok.val;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.FileInputStream;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.Random;
+
+/**
+ * Throughput of loading one aggregated batch to database by every
+ * {@code loader}: the per-row {@code insert_line} batch of
+ * {@link Store#insertAll}, {@code COPY} in text and binary formats to
+ * {@code links}, and binary {@code COPY} to an unlogged staging table as
+ * ingestion does. Tables are emptied before every load. One operation is
+ * one row. Needs the database from {@code src/main/resources/db}, its
+ * tables are recreated.
+ *
+ * @see CopyEncodingBenchmark
+ */
+@State(Scope.Benchmark)
+public class LoaderBenchmark {
+    private static final String CONFIG = "src/main/resources/db";
+    private static final int ROWS = 200_000;
+
+    @Param({"insert", "copyText", "copyBinary", "staging"})
+    public String loader;
+
+    private LongIntHashMap links;
+    private Store store;
+    private Connection connection;
+    private int round;
+
+    @Setup
+    public void setUp() throws Exception {
+        links = new LongIntHashMap(ROWS);
+        val random = new Random(42);
+        while (links.size() < ROWS) {
+            links.add(Links.link(random.nextInt(ROWS / 4) + 1, random.nextInt(ROWS / 20) + 1),
+                    random.nextInt(10) + 1);
+        }
+        store = new Store(CONFIG);
+        store.createDB();
+        store.createTables();
+        connection = connect();
+    }
+
+    @Setup(Level.Invocation)
+    public void empty() throws SQLException {
+        try (val statement = connection.createStatement()) {
+            statement.execute("TRUNCATE links");
+            statement.execute("SELECT drop_links_stages()");
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void load() throws SQLException {
+        switch (loader) {
+            case "insert":
+                store.insertAll(links);
+                break;
+            case "copyText":
+                new CopyLoader(CopyLoader.Format.TEXT).load(connection, "links", links);
+                break;
+            case "copyBinary":
+                new CopyLoader(CopyLoader.Format.BINARY).load(connection, "links", links);
+                break;
+            default:
+                //a new staging table for every load
+                store.copyAll(links, round++);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        connection.close();
+        store.dropTables();
+        store.dropDB();
+        store.close();
+    }
+
+    private static Connection connect() throws Exception {
+        val properties = new Properties();
+        try (val in = new FileInputStream(CONFIG + "/db.properties")) {
+            properties.load(in);
+        }
+        return DriverManager.getConnection(properties.getProperty("url"),
+                properties.getProperty("user"), properties.getProperty("password"));
+    }
+}
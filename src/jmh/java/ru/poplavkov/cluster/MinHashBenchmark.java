@@ -0,0 +1,88 @@
+package ru.poplavkov.cluster;
+
+import lombok.val;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time of computing pairs of a generated component exactly and with
+ * {@link CandidatePruning.Mode#MINHASH} for every {@code parameters}
+ * ({@code bands/rows/bucket}), and quality of the result against exact
+ * pairs: share of pairs not less than {@code threshold}, which are
+ * found, count of pairs and share of exact clusters, which are formed the
+ * same. They are printed at the end of every trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MinHashBenchmark {
+    @Param({"exact", "5/1/100", "10/1/100", "20/1/100", "20/1/1000", "20/2/1000", "40/2/1000", "80/2/1000"})
+    public String parameters;
+
+    @Param("5000")
+    public int queries;
+
+    @Param("0.2")
+    public float threshold;
+
+    private LinkGraph graph;
+    private CandidatePruning pruning;
+    private double recall;
+    private double sameClusters;
+    private int pairs;
+
+    @Setup
+    public void setUp() {
+        graph = LinkGraph.of(PairSimilaritiesTest.topicLinks(queries, 42));
+        if (!"exact".equals(parameters)) {
+            val values = Arrays.stream(parameters.split("/")).mapToInt(Integer::parseInt).toArray();
+            pruning = new CandidatePruning(CandidatePruning.Mode.MINHASH, 0, values[0], values[1], 0, values[2]);
+        }
+        val exact = PairSimilarities.compute(graph);
+        val found = compute();
+        val exactClusters = clusters(exact, threshold);
+        val foundClusters = clusters(found, threshold);
+        foundClusters.retainAll(exactClusters);
+        recall = PairSimilaritiesTest.recall(exact, found, threshold);
+        sameClusters = exactClusters.isEmpty() ? 1 : (double) foundClusters.size() / exactClusters.size();
+        pairs = found.size();
+    }
+
+    @Benchmark
+    public PairSimilarities compute() {
+        return pruning == null ? PairSimilarities.compute(graph) : PairSimilarities.compute(graph, threshold, pruning);
+    }
+
+    @TearDown
+    public void report() {
+        System.out.printf("%n%s: %d pairs, recall %.3f, same clusters %.3f%n",
+                parameters, pairs, recall, sameClusters);
+    }
+
+    /**
+     * @return clusters formed from pairs, queries of a cluster are sorted
+     */
+    private static Set<String> clusters(PairSimilarities pairs, float threshold) {
+        val clustering = new AgglomerativeClustering(threshold);
+        pairs.addTo(clustering);
+        clustering.run();
+        val result = new HashSet<String>();
+        for (val cluster : clustering.clusters()) {
+            Arrays.sort(cluster);
+            result.add(Arrays.toString(cluster));
+        }
+        return result;
+    }
+}
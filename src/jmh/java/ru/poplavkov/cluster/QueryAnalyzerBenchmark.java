@@ -0,0 +1,59 @@
+package ru.poplavkov.cluster;
+
+import lombok.val;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.function.Function;
+
+/**
+ * Throughput of preparing raw queries as {@link Preprocessor} does:
+ * normalization, stemming and removal of stop words in one pass of
+ * {@link QueryAnalyzer}, one operation is one query. {@code cache} is
+ * {@code none}, {@code stem} for the shared stem cache or {@code query}
+ * for the query cache in front of the stem cache, as configured by
+ * default.
+ */
+@State(Scope.Thread)
+public class QueryAnalyzerBenchmark {
+    private static final int BATCH = 1024;
+
+    @Param({"none", "stem", "query"})
+    public String cache;
+
+    private Function<String, String> analyzer;
+    private String[] queries;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        queries = Workload.of(200_000, 42).queries();
+        if ("none".equals(cache)) {
+            analyzer = new QueryAnalyzer()::analyze;
+            return;
+        }
+        val stemming = new QueryAnalyzer(new BoundedCache<>(100_000));
+        if ("stem".equals(cache)) {
+            analyzer = stemming::analyze;
+        } else {
+            val queryCache = new QueryCache(200_000);
+            analyzer = query -> queryCache.analyze(query, stemming::analyze);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void analyze(Blackhole blackhole) {
+        for (int i = 0; i < BATCH; i++) {
+            if (next == queries.length) {
+                next = 0;
+            }
+            blackhole.consume(analyzer.apply(queries[next++]));
+        }
+    }
+}
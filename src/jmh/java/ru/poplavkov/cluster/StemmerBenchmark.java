@@ -0,0 +1,53 @@
+package ru.poplavkov.cluster;
+
+import lombok.val;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Throughput of {@link Stemmer} on words of queries, one operation is one
+ * word: the allocation free {@code stem(CharSequence, int, int)}, which
+ * {@link QueryAnalyzer} uses, and {@code stem(String)}, which allocates
+ * the result.
+ */
+@State(Scope.Thread)
+public class StemmerBenchmark {
+    private static final int BATCH = 1024;
+
+    private final Stemmer stemmer = new Stemmer();
+    private String[] words;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        words = Workload.of(200_000, 42).words();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void stemInPlace(Blackhole blackhole) {
+        for (int i = 0; i < BATCH; i++) {
+            val word = nextWord();
+            blackhole.consume(stemmer.stem(word, 0, word.length()));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void stemToString(Blackhole blackhole) {
+        for (int i = 0; i < BATCH; i++) {
+            blackhole.consume(stemmer.stem(nextWord()));
+        }
+    }
+
+    private String nextWord() {
+        if (next == words.length) {
+            next = 0;
+        }
+        return words[next++];
+    }
+}
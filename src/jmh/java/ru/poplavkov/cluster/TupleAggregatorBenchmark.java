@@ -0,0 +1,138 @@
+package ru.poplavkov.cluster;
+
+import io.vavr.Tuple2;
+import lombok.val;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Throughput of the aggregation step of {@link Preprocessor#readAndStore}
+ * after analysis, shared by all benchmark threads: {@code partitioned}
+ * encodes prepared queries and documents to ids by {@link Dictionary} and
+ * counts them by {@link TupleAggregator}, {@code locked} is the previous
+ * aggregation of string tuples under one lock. Full maps are discarded.
+ * One operation is one tuple. Nested classes run the same benchmarks with
+ * 1 to 8 threads, so the report shows how both scale.
+ */
+@State(Scope.Benchmark)
+public abstract class TupleAggregatorBenchmark {
+    private static final int BATCH = 1024;
+    private static final int COUNT_TO_FLUSH = 100_000;
+
+    private final LongAdder flushed = new LongAdder();
+    private final Dictionary queryDictionary = new Dictionary(1);
+    private final Dictionary documentDictionary = new Dictionary(1);
+    private final TupleAggregator aggregator =
+            new TupleAggregator(COUNT_TO_FLUSH, map -> flushed.add(map.size()));
+    private final LockedAggregation lockedAggregation = new LockedAggregation();
+    private String[] queries;
+    private String[] documents;
+
+    @Setup
+    public void setUp() {
+        val workload = Workload.of(500_000, 42);
+        val analyzer = new QueryAnalyzer();
+        queries = new String[workload.queries().length];
+        for (int i = 0; i < queries.length; i++) {
+            queries[i] = analyzer.analyze(workload.queries()[i]);
+        }
+        documents = workload.documents();
+    }
+
+    /**
+     * Position of a thread in the tuples, threads start at different
+     * slices of them.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int thread;
+        private int threads;
+        private int next = -1;
+
+        @Setup
+        public void setUp(ThreadParams params) {
+            thread = params.getThreadIndex();
+            threads = params.getThreadCount();
+        }
+
+        int next(int length) {
+            if (next < 0) {
+                next = (int) ((long) length * thread / threads);
+            }
+            if (next == length) {
+                next = 0;
+            }
+            return next++;
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void partitioned(Cursor cursor) {
+        for (int i = 0; i < BATCH; i++) {
+            val tuple = cursor.next(queries.length);
+            aggregator.add(queryDictionary.idOf(queries[tuple]), documentDictionary.idOf(documents[tuple]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void locked(Cursor cursor) {
+        for (int i = 0; i < BATCH; i++) {
+            val tuple = cursor.next(queries.length);
+            lockedAggregation.add(queries[tuple], documents[tuple]);
+        }
+    }
+
+    @Threads(1)
+    public static class Threads1 extends TupleAggregatorBenchmark {
+    }
+
+    @Threads(2)
+    public static class Threads2 extends TupleAggregatorBenchmark {
+    }
+
+    @Threads(4)
+    public static class Threads4 extends TupleAggregatorBenchmark {
+    }
+
+    @Threads(8)
+    public static class Threads8 extends TupleAggregatorBenchmark {
+    }
+
+    /**
+     * Aggregation as it was done by {@code Preprocessor} before
+     * {@link TupleAggregator}: one map, one lock and a copy on flush.
+     */
+    private static class LockedAggregation {
+        private final Map<Tuple2<String, String>, Integer> map = new HashMap<>(COUNT_TO_FLUSH);
+        private final Lock lock = new ReentrantLock();
+        private long flushed;
+
+        void add(String query, String document) {
+            val tuple = new Tuple2<>(query, document);
+            lock.lock();
+            try {
+                if (map.size() >= COUNT_TO_FLUSH) {
+                    Map<Tuple2<String, String>, Integer> newMap = new HashMap<>(map);
+                    map.clear();
+                    flushed += newMap.size();
+                }
+                map.put(tuple, map.getOrDefault(tuple, 0) + 1);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package ru.poplavkov.cluster;
+
+import lombok.SneakyThrows;
+import lombok.val;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Raw queries and clicked documents for benchmarks. With system property
+ * {@code benchmark.log} set to a click log in the AOL format they are
+ * taken from its lines with clicks, otherwise they are generated: words
+ * of queries, queries themselves and documents are drawn from Zipf
+ * distributions, as in search logs, where a few are very frequent and most
+ * are rare.
+ * The head of the vocabulary is real frequent words of queries, stop
+ * words included, the tail is made up words with common English
+ * suffixes, so stemming has work to do.
+ */
+class Workload {
+    private static final String LOG_PROPERTY = "benchmark.log";
+
+    private static final String[] FREQUENT_WORDS = {
+            "the", "of", "and", "for", "in", "free", "to", "com", "a", "county",
+            "new", "www", "pictures", "lyrics", "school", "how", "sale", "florida", "bank", "home",
+            "state", "games", "on", "city", "music", "is", "online", "high", "my", "texas",
+            "york", "university", "best", "recipes", "cars", "map", "hotels", "jobs", "real", "estate",
+            "car", "used", "dogs", "cheap", "what", "church", "center", "insurance", "movies", "women",
+            "news", "public", "john", "photos", "houses", "restaurants", "wedding", "dresses", "puppies", "loans",
+            "department", "airlines", "flights", "tickets", "weather", "girls", "schools", "shopping", "stores", "parts",
+            "running", "cooking", "dating", "learning", "building", "selling", "camping", "fishing", "painting", "training",
+            "national", "international", "association", "education", "information", "community", "hospitality", "relationships", "happiness", "management"
+    };
+
+    private static final String[] SUFFIXES = {
+            "", "", "", "", "s", "s", "es", "ing", "ed", "er", "ers", "ation", "ations", "ness", "ly",
+            "ies", "ment", "ments", "ful", "ive", "ity", "able", "ism", "ist", "ize", "ized"
+    };
+
+    private static final String CONSONANTS = "bcdfghjklmnprstvwz";
+    private static final String VOWELS = "aeiou";
+
+    private final String[] queries;
+    private final String[] documents;
+
+    private Workload(String[] queries, String[] documents) {
+        this.queries = queries;
+        this.documents = documents;
+    }
+
+    /**
+     * @param size count of (query, document) tuples
+     */
+    static Workload of(int size, long seed) {
+        val log = System.getProperty(LOG_PROPERTY);
+        return log != null ? read(log, size) : generate(size, seed);
+    }
+
+    @SneakyThrows
+    private static Workload read(String fileName, int size) {
+        val queries = new ArrayList<String>();
+        val documents = new ArrayList<String>();
+        try (val reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(fileName), StandardCharsets.UTF_8))) {
+            String line;
+            while (queries.size() < size && (line = reader.readLine()) != null) {
+                val columns = line.split("\t");
+                //AnonID, Query, QueryTime, ItemRank, ClickURL
+                if (columns.length > 4 && !columns[4].isEmpty()) {
+                    queries.add(columns[1]);
+                    documents.add(columns[4]);
+                }
+            }
+        }
+        if (queries.isEmpty()) {
+            throw new IllegalArgumentException("No clicks in " + fileName);
+        }
+        return new Workload(queries.toArray(new String[0]), documents.toArray(new String[0]));
+    }
+
+    private static Workload generate(int size, long seed) {
+        val random = new Random(seed);
+        val words = new Zipf(vocabulary(50_000, random), 1.0);
+        val distinct = new String[Math.max(1, size / 4)];
+        val query = new StringBuilder();
+        for (int i = 0; i < distinct.length; i++) {
+            query.setLength(0);
+            //1 to 6 words, 2 or 3 mostly
+            val length = 1 + Math.min(5, (int) Math.abs(random.nextGaussian() * 1.2 + 1.4));
+            for (int w = 0; w < length; w++) {
+                if (w > 0) {
+                    query.append(' ');
+                }
+                val word = words.next(random);
+                //a few queries are typed capitalized or with punctuation
+                if (random.nextInt(20) == 0) {
+                    query.append(Character.toUpperCase(word.charAt(0))).append(word, 1, word.length());
+                } else {
+                    query.append(word);
+                }
+                if (random.nextInt(30) == 0) {
+                    query.append(random.nextBoolean() ? "." : "'s");
+                }
+            }
+            distinct[i] = query.toString();
+        }
+        //queries repeat, the frequent ones many times
+        val pool = new Zipf(distinct, 0.8);
+        val sites = new Zipf(sites(20_000), 1.1);
+        val queries = new String[size];
+        val documents = new String[size];
+        for (int i = 0; i < size; i++) {
+            queries[i] = pool.next(random);
+            documents[i] = sites.next(random);
+        }
+        return new Workload(queries, documents);
+    }
+
+    private static String[] vocabulary(int size, Random random) {
+        val words = new ArrayList<String>(Arrays.asList(FREQUENT_WORDS));
+        while (words.size() < size) {
+            val word = new StringBuilder();
+            for (int syllables = 1 + random.nextInt(3); syllables > 0; syllables--) {
+                word.append(CONSONANTS.charAt(random.nextInt(CONSONANTS.length())))
+                        .append(VOWELS.charAt(random.nextInt(VOWELS.length())));
+            }
+            if (random.nextBoolean()) {
+                word.append(CONSONANTS.charAt(random.nextInt(CONSONANTS.length())));
+            }
+            words.add(word.append(SUFFIXES[random.nextInt(SUFFIXES.length)]).toString());
+        }
+        return words.toArray(new String[0]);
+    }
+
+    private static String[] sites(int size) {
+        val sites = new String[size];
+        for (int i = 0; i < size; i++) {
+            sites[i] = "http://www.site" + i + ".com";
+        }
+        return sites;
+    }
+
+    String[] queries() {
+        return queries;
+    }
+
+    String[] documents() {
+        return documents;
+    }
+
+    /**
+     * @return lower cased words of all queries in order, so every word is
+     * as frequent as in queries
+     */
+    String[] words() {
+        val words = new ArrayList<String>();
+        for (val query : queries) {
+            for (val word : query.toLowerCase().split("[^a-z]+")) {
+                if (!word.isEmpty()) {
+                    words.add(word);
+                }
+            }
+        }
+        return words.toArray(new String[0]);
+    }
+
+    /**
+     * @return aggregated links of prepared queries and documents, each
+     * counted once, as written by a writer of the pipeline
+     */
+    LongIntHashMap links(int rows) {
+        val analyzer = new QueryAnalyzer();
+        val queryIds = new Dictionary(1);
+        val documentIds = new Dictionary(1);
+        val links = new LongIntHashMap(rows);
+        for (int i = 0; i < queries.length && links.size() < rows; i++) {
+            links.add(Links.link(queryIds.idOf(analyzer.analyze(queries[i])),
+                    documentIds.idOf(documents[i])), 1);
+        }
+        //a log with fewer distinct links is topped up with rows of new documents
+        for (int document = 0; links.size() < rows; document++) {
+            links.add(Links.link(1, documentIds.idOf("extra " + document)), 1);
+        }
+        return links;
+    }
+
+    /**
+     * Zipf distribution over values: the value of rank {@code r} has
+     * probability proportional to {@code 1 / r^s}.
+     */
+    private static class Zipf {
+        private final String[] values;
+        private final double[] cumulative;
+
+        Zipf(String[] values, double s) {
+            this.values = values;
+            cumulative = new double[values.length];
+            double sum = 0;
+            for (int rank = 0; rank < values.length; rank++) {
+                sum += 1 / Math.pow(rank + 1, s);
+                cumulative[rank] = sum;
+            }
+            for (int rank = 0; rank < values.length; rank++) {
+                cumulative[rank] /= sum;
+            }
+        }
+
+        String next(Random random) {
+            val index = Arrays.binarySearch(cumulative, random.nextDouble());
+            return values[Math.min(values.length - 1, index < 0 ? -index - 1 : index)];
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package ru.poplavkov.cluster;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Size of batches sent to {@code Store}. It is adjusted after every write
+ * so that one write takes about {@code targetMillis}: the size is moved
+ * halfway towards the rate observed in the last write multiplied by the
+ * target latency.
+ *
+ * @see Store#insertAll
+ */
+@Log4j2
+class AdaptiveBatchSize {
+    private final int min;
+    private final int max;
+    private final long targetNanos;
+
+    /**
+     * Current size. Readers do not need the most recent value, so no
+     * synchronization except volatile is used.
+     */
+    private volatile int size;
+
+    /**
+     * @param initial      initial size
+     * @param min          size is never less than this value
+     * @param max          size is never greater than this value
+     * @param targetMillis desired latency of one write
+     */
+    AdaptiveBatchSize(int initial, int min, int max, long targetMillis) {
+        this.min = min;
+        this.max = max;
+        this.targetNanos = targetMillis * 1_000_000;
+        this.size = Math.max(min, Math.min(max, initial));
+    }
+
+    int get() {
+        return size;
+    }
+
+    /**
+     * Takes into account the latency of one write.
+     *
+     * @param rows  count of written rows
+     * @param nanos time the write took
+     */
+    void record(int rows, long nanos) {
+        if (rows == 0 || nanos <= 0) {
+            return;
+        }
+        long proposed = (long) ((double) rows * targetNanos / nanos);
+        long next = (size + proposed) / 2;
+        int updated = (int) Math.max(min, Math.min(max, next));
+        if (updated != size) {
+            log.debug(String.format("Batch size changed from %d to %d", size, updated));
+            size = updated;
+        }
+    }
+}
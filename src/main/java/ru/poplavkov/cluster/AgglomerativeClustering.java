@@ -0,0 +1,417 @@
+package ru.poplavkov.cluster;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import lombok.val;
+
+/**
+ * Clusters one component in memory the same way as SQL function
+ * {@code combine_all}: the most similar pair of clusters is merged while
+ * its similarity is not less than threshold, similarities of the merged
+ * cluster are weighted averages of similarities of its parts.
+ *
+ * <p>Pairs are kept in a priority queue with lazy deletion: pairs of
+ * merged clusters are marked dead and skipped when polled, so a merge
+ * costs {@code O(d log p)}, where {@code d} is the count of neighbours
+ * of merged clusters and {@code p} the count of pairs, instead of a scan
+ * of all pairs.
+ *
+ * <p>To get the same clusters as {@code combine_all}, values are computed
+ * with the same types: similarities are {@code float} ({@code REAL}),
+ * weighted sums are {@code double}. The best pair is chosen by the same
+ * order: similarity, count of the first cluster and count of the second
+ * one, all descending. Where {@code combine_all} leaves exact ties to the
+ * physical order of rows, pairs are taken in order of their creation,
+ * which is the order of loaded rows for initial pairs.
+ *
+ * <p>Clusters are identified by ids of queries, not by names. Members
+ * of clusters are kept in a {@link UnionFind}, so a merge updates them
+ * in almost constant time, and lists of members are built only by
+ * {@link #clusters()}.
+ *
+ * <p>{@link #runRounds()} merges in rounds of reciprocal nearest
+ * neighbours instead: every pair of clusters, which are the best pair of
+ * each other, is merged in the same round, so there are much fewer
+ * rounds than merges, and each round is computed in parallel. See the
+ * method for where its clusters differ.
+ *
+ * <p>Not thread safe, parallel rounds use the common fork/join pool.
+ *
+ * @see Store#combineInMemory(PairSimilarities, float)
+ */
+class AgglomerativeClustering {
+    private static final Comparator<Pair> ORDER = (a, b) -> {
+        int result = Float.compare(b.res, a.res);
+        if (result == 0) {
+            result = Integer.compare(b.cou1, a.cou1);
+        }
+        if (result == 0) {
+            result = Integer.compare(b.cou2, a.cou2);
+        }
+        return result != 0 ? result : Long.compare(a.sequence, b.sequence);
+    };
+
+    /**
+     * Count of clusters to look at, below which a round is not split
+     * between threads.
+     */
+    private static final int PARALLEL_CLUSTERS = 1024;
+
+    private final float threshold;
+
+    /**
+     * Counts and pairs of clusters by index. Initial clusters come first,
+     * a merge adds a new cluster and drops pairs of both parts.
+     */
+    private final List<Integer> counts = new ArrayList<>();
+    private final List<Map<Integer, Pair>> pairs = new ArrayList<>();
+
+    /**
+     * Ids of initial clusters by index.
+     */
+    private final List<Integer> ids = new ArrayList<>();
+
+    /**
+     * Sets of indexes of clusters, a merged cluster is united with both
+     * its parts.
+     */
+    private final UnionFind members = new UnionFind();
+
+    private final Map<Integer, Integer> indexes = new HashMap<>();
+    private final PriorityQueue<Pair> queue = new PriorityQueue<>(ORDER);
+
+    private int initialCount = -1;
+    private long sequence;
+    private int rounds;
+
+    AgglomerativeClustering(float threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * Adds an initial pair, that is a row of {@code links_cluster}. All
+     * pairs must be added before {@link #run()}.
+     *
+     * @param q1   id of the first cluster
+     * @param q2   id of the second cluster
+     * @param cou1 count of links of the first cluster
+     * @param cou2 count of links of the second cluster
+     * @param res  similarity of clusters
+     */
+    void add(int q1, int q2, int cou1, int cou2, float res) {
+        val first = indexOf(q1, cou1);
+        val second = indexOf(q2, cou2);
+        link(new Pair(first, second, cou1, cou2, res, sequence++));
+    }
+
+    private int indexOf(int id, int count) {
+        val index = indexes.get(id);
+        if (index != null) {
+            return index;
+        }
+        val added = addCluster(count);
+        ids.add(id);
+        indexes.put(id, added);
+        return added;
+    }
+
+    private int addCluster(int count) {
+        counts.add(count);
+        pairs.add(new LinkedHashMap<>());
+        return members.add();
+    }
+
+    private void link(Pair pair) {
+        connect(pair);
+        queue.add(pair);
+    }
+
+    private void connect(Pair pair) {
+        pairs.get(pair.first).put(pair.second, pair);
+        pairs.get(pair.second).put(pair.first, pair);
+    }
+
+    /**
+     * Merges clusters until the best similarity is less than threshold.
+     *
+     * @return count of merges
+     */
+    int run() {
+        initialCount = counts.size();
+        indexes.clear();
+        int merges = 0;
+        Pair best;
+        while ((best = queue.poll()) != null) {
+            if (!best.alive) {
+                continue;
+            }
+            if (best.res < threshold) {
+                break;
+            }
+            merge(best);
+            merges++;
+        }
+        queue.clear();
+        return merges;
+    }
+
+    /**
+     * Merges clusters of specified pair as {@code combine_all} does: the
+     * new cluster is united with both parts, its similarity to every
+     * neighbour {@code o} of parts is
+     * {@code SUM((cou1 + cou2) * res) / (allCount + count(o))} over pairs
+     * of parts with {@code o}.
+     */
+    private void merge(Pair best) {
+        val allCount = best.cou1 + best.cou2;
+        val cluster = addCluster(allCount);
+        members.union(cluster, best.first);
+        members.union(cluster, best.second);
+        val sums = new LinkedHashMap<Integer, Double>();
+        for (val part : new int[]{best.first, best.second}) {
+            for (val pair : pairs.get(part).values()) {
+                pair.alive = false;
+                val other = pair.other(part);
+                if (other != best.first && other != best.second) {
+                    sums.merge(other, (double) (pair.cou1 + pair.cou2) * pair.res, Double::sum);
+                    pairs.get(other).remove(part);
+                }
+            }
+            pairs.set(part, null);
+        }
+        sums.forEach((other, sum) -> {
+            val count = counts.get(other);
+            link(new Pair(cluster, other, allCount, count,
+                    (float) (sum / (allCount + count)), sequence++));
+        });
+    }
+
+    /**
+     * Merges clusters in rounds of reciprocal nearest neighbours until no
+     * pair reaches threshold. The best pair of a cluster is chosen by the
+     * same order as in {@link #run()}, a round merges every pair, which is
+     * the best pair of both its clusters, and computes similarities of
+     * all merged clusters at once. Best pairs are found and similarities
+     * are summed in parallel, only linking of new pairs is sequential.
+     * The best pair of a cluster is kept between rounds unless a neighbour
+     * of the cluster is merged.
+     *
+     * <p>The best pair of all is always reciprocal, so every round merges
+     * at least one pair, and a round merges the same pairs as a sequence
+     * of greedy merges would if merges did not affect each other. They
+     * do: a merged cluster gets a weighted sum of similarities of its
+     * parts, which may be greater than both of them, so a greedy merge may
+     * make a cluster more similar to a third one than to its own
+     * reciprocal neighbour. Greedy order then merges the cluster with the
+     * third one, while a round has already merged it with its neighbour.
+     * Clusters are the same as with {@link #run()} when no merge of a
+     * round changes the best pair of a cluster merged in the same round,
+     * for example when pairs merged in a round are not linked. Also
+     * similarities of a cluster merged several times in one round are
+     * rounded to {@code float} once, not after every merge.
+     *
+     * @return count of merges
+     */
+    int runRounds() {
+        initialCount = counts.size();
+        indexes.clear();
+        queue.clear();
+        int merges = 0;
+        Pair[] best = new Pair[counts.size()];
+        int[] dirty = IntStream.range(0, counts.size()).toArray();
+        while (true) {
+            val candidates = dirty;
+            val bestPairs = best;
+            parallel(candidates.length).forEach(i -> bestPairs[candidates[i]] = bestPair(candidates[i]));
+            val isDirty = new boolean[counts.size()];
+            for (val cluster : candidates) {
+                isDirty[cluster] = true;
+            }
+            //a pair of two dirty clusters is taken from its first one
+            val round = parallel(candidates.length)
+                    .mapToObj(i -> {
+                        val cluster = candidates[i];
+                        val pair = bestPairs[cluster];
+                        if (pair == null) {
+                            return null;
+                        }
+                        val other = pair.other(cluster);
+                        return bestPairs[other] == pair && (cluster == pair.first || !isDirty[other])
+                                ? pair : null;
+                    })
+                    .filter(pair -> pair != null)
+                    .sorted(ORDER)
+                    .toArray(Pair[]::new);
+            if (round.length == 0) {
+                break;
+            }
+            rounds++;
+            merges += round.length;
+            dirty = mergeRound(round);
+            best = Arrays.copyOf(best, counts.size());
+        }
+        return merges;
+    }
+
+    /**
+     * @return stream of indexes, parallel if there are enough of them
+     */
+    private static IntStream parallel(int count) {
+        val indexes = IntStream.range(0, count);
+        return count < PARALLEL_CLUSTERS ? indexes : indexes.parallel();
+    }
+
+    /**
+     * @return the best pair of specified cluster not less than threshold,
+     * null if there is none or the cluster is merged
+     */
+    private Pair bestPair(int cluster) {
+        val neighbours = pairs.get(cluster);
+        if (neighbours == null) {
+            return null;
+        }
+        Pair best = null;
+        for (val pair : neighbours.values()) {
+            if (pair.res >= threshold && (best == null || ORDER.compare(pair, best) < 0)) {
+                best = pair;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Merges pairs of a round. Similarity of a new cluster to a neighbour
+     * is computed as in {@link #merge(Pair)}, a neighbour merged in the
+     * same round is replaced by its new cluster, which sums weighted
+     * similarities of all pairs of their parts, the same as two greedy
+     * merges do.
+     *
+     * @return clusters, whose best pair may have changed: new clusters
+     * and neighbours of merged ones
+     */
+    private int[] mergeRound(Pair[] round) {
+        val owners = new HashMap<Integer, Integer>();
+        val firstNew = counts.size();
+        for (val best : round) {
+            val cluster = addCluster(best.cou1 + best.cou2);
+            members.union(cluster, best.first);
+            members.union(cluster, best.second);
+            owners.put(best.first, cluster);
+            owners.put(best.second, cluster);
+        }
+        val sums = parallel(round.length)
+                .mapToObj(i -> sums(round[i], owners))
+                .collect(Collectors.toList());
+
+        val dirty = new LinkedHashMap<Integer, Boolean>();
+        for (val best : round) {
+            for (val part : new int[]{best.first, best.second}) {
+                for (val pair : pairs.get(part).values()) {
+                    pair.alive = false;
+                    val other = pair.other(part);
+                    if (!owners.containsKey(other)) {
+                        pairs.get(other).remove(part);
+                        dirty.put(other, true);
+                    }
+                }
+                pairs.set(part, null);
+            }
+        }
+        for (int i = 0; i < round.length; i++) {
+            val cluster = firstNew + i;
+            val allCount = counts.get(cluster);
+            dirty.put(cluster, true);
+            //a pair of two new clusters is linked by the earlier one
+            sums.get(i).forEach((other, sum) -> {
+                if (other < firstNew || other > cluster) {
+                    val count = counts.get(other);
+                    connect(new Pair(cluster, other, allCount, count,
+                            (float) (sum / (allCount + count)), sequence++));
+                }
+            });
+        }
+        return dirty.keySet().stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * @return sums of {@code (cou1 + cou2) * res} of pairs of parts of
+     * specified pair by neighbour, merged neighbours are replaced by
+     * their owners
+     */
+    private Map<Integer, Double> sums(Pair best, Map<Integer, Integer> owners) {
+        val sums = new LinkedHashMap<Integer, Double>();
+        for (val part : new int[]{best.first, best.second}) {
+            for (val pair : pairs.get(part).values()) {
+                val other = pair.other(part);
+                if (other != best.first && other != best.second) {
+                    sums.merge(owners.getOrDefault(other, other),
+                            (double) (pair.cou1 + pair.cou2) * pair.res, Double::sum);
+                }
+            }
+        }
+        return sums;
+    }
+
+    /**
+     * @return count of rounds of {@link #runRounds()}
+     */
+    int rounds() {
+        return rounds;
+    }
+
+    /**
+     * @return ids of initial clusters, which form every cluster formed by
+     * {@link #run()} or {@link #runRounds()}, in order of adding
+     */
+    List<int[]> clusters() {
+        val clusters = new LinkedHashMap<Integer, List<Integer>>();
+        for (int i = Math.max(initialCount, 0); i < pairs.size(); i++) {
+            if (pairs.get(i) != null) {
+                clusters.put(members.find(i), new ArrayList<>());
+            }
+        }
+        for (int i = 0; i < initialCount; i++) {
+            val cluster = clusters.get(members.find(i));
+            if (cluster != null) {
+                cluster.add(ids.get(i));
+            }
+        }
+        return clusters.values().stream()
+                .map(cluster -> cluster.stream().mapToInt(Integer::intValue).toArray())
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Pair of clusters, a row of {@code links_cluster}.
+     */
+    private static class Pair {
+        private final int first;
+        private final int second;
+        private final int cou1;
+        private final int cou2;
+        private final float res;
+        private final long sequence;
+        private boolean alive = true;
+
+        Pair(int first, int second, int cou1, int cou2, float res, long sequence) {
+            this.first = first;
+            this.second = second;
+            this.cou1 = cou1;
+            this.cou2 = cou2;
+            this.res = res;
+            this.sequence = sequence;
+        }
+
+        int other(int cluster) {
+            return cluster == first ? second : first;
+        }
+    }
+}
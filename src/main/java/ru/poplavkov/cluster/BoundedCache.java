@@ -0,0 +1,170 @@
+package ru.poplavkov.cluster;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import lombok.val;
+
+/**
+ * Size-bounded concurrent cache. Entries are spread over segments by key
+ * hash. Every segment is a {@code LinkedHashMap} in access order guarded
+ * by its own lock, so threads rarely wait for each other and the least
+ * recently used entry of a full segment is evicted first.
+ *
+ * @param <K> type of keys
+ * @param <V> type of values
+ */
+class BoundedCache<K, V> {
+    private static final int MAX_SEGMENTS = 16;
+
+    private final Segment[] segments;
+    private final int mask;
+    private final int maximumSize;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maximumSize maximum count of entries, must be positive
+     */
+    @SuppressWarnings("unchecked")
+    BoundedCache(int maximumSize) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("Cache size must be positive");
+        }
+        this.maximumSize = maximumSize;
+        int count = Math.min(MAX_SEGMENTS, Integer.highestOneBit(maximumSize));
+        segments = (Segment[]) new BoundedCache<?, ?>.Segment[count];
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment((maximumSize + count - 1) / count);
+        }
+        mask = count - 1;
+    }
+
+    private Segment segment(Object key) {
+        val h = key.hashCode();
+        return segments[(h ^ (h >>> 16)) & mask];
+    }
+
+    /**
+     * @return value mapped to specified key or {@code null}
+     */
+    V get(K key) {
+        val segment = segment(key);
+        V value;
+        segment.lock.lock();
+        try {
+            value = segment.map.get(key);
+        } finally {
+            segment.lock.unlock();
+        }
+        (value == null ? misses : hits).increment();
+        return value;
+    }
+
+    /**
+     * Maps specified key to specified value, possibly evicting the least
+     * recently used entry of the same segment.
+     */
+    void put(K key, V value) {
+        val segment = segment(key);
+        segment.lock.lock();
+        try {
+            segment.map.put(key, value);
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    /**
+     * Removes all entries. Statistics are kept.
+     */
+    void clear() {
+        for (val segment : segments) {
+            segment.lock.lock();
+            try {
+                segment.map.clear();
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Passes every entry to specified action, one segment at a time. The
+     * action must not access this cache.
+     */
+    void forEach(BiConsumer<? super K, ? super V> action) {
+        for (val segment : segments) {
+            segment.lock.lock();
+            try {
+                segment.map.forEach(action);
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+    }
+
+    int size() {
+        int size = 0;
+        for (val segment : segments) {
+            segment.lock.lock();
+            try {
+                size += segment.map.size();
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+        return size;
+    }
+
+    long hits() {
+        return hits.sum();
+    }
+
+    long misses() {
+        return misses.sum();
+    }
+
+    long evictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return share of {@link #get} calls that found a value, 0 if there
+     * were none
+     */
+    double hitRate() {
+        val hits = hits();
+        val total = hits + misses();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("size=%d/%d, hits=%d, misses=%d, hit rate=%.3f, evictions=%d",
+                size(), maximumSize, hits(), misses(), hitRate(), evictions());
+    }
+
+    private class Segment {
+        private final Lock lock = new ReentrantLock();
+        private final Map<K, V> map;
+
+        Segment(int capacity) {
+            map = new LinkedHashMap<K, V>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                    if (size() > capacity) {
+                        evictions.increment();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package ru.poplavkov.cluster;
+
+import java.util.Properties;
+
+/**
+ * Pruning of pairs computed by {@link PairSimilarities}, configured by
+ * {@code pruning} ({@code none}, {@code prefix} or {@code minhash}) and
+ * {@code topNeighbours} properties of {@code db.properties}.
+ *
+ * <p>With {@code prefix} pruning only pairs, which reach threshold, are
+ * computed, and most of the others are not even looked at. With
+ * {@code topNeighbours} set to {@code k > 0} a pair is kept only if it is
+ * among {@code k} best pairs of one of its queries.
+ *
+ * <p>{@code minhash} is an approximate mode for giant components: sets of
+ * documents of queries are sketched by MinHash, candidate pairs are those
+ * with an equal band of {@code minHashRows} hashes in one of
+ * {@code minHashBands} bands, only candidates are computed exactly. Two
+ * queries with Jaccard similarity {@code j} of their documents become
+ * candidates with probability {@code 1 - (1 - j^rows)^bands}, so more
+ * bands mean better recall and fewer rows mean more candidates. Buckets
+ * of more than {@code minHashBucket} queries are skipped, they are mostly
+ * queries of one popular document, so a query has at most
+ * {@code minHashBands * minHashBucket} candidates. Components of fewer
+ * than {@code minHashQueries} queries are computed exactly.
+ * {@code MinHashBenchmark} measures recall of these parameters.
+ *
+ * <p>All of these may change clusters. A merged cluster gets a weighted
+ * sum of similarities of its parts, so pairs below threshold still add to
+ * similarities of merged clusters and a merged pair may reach threshold
+ * through them, which never happens without these pairs. Clusters are the
+ * same as without pruning when no merged pair depends on a dropped one.
+ * MinHash may also miss pairs above threshold.
+ */
+class CandidatePruning {
+    /**
+     * How candidate pairs are found.
+     */
+    enum Mode {
+        /**
+         * All pairs with shared documents.
+         */
+        NONE,
+        /**
+         * Pairs, which reach threshold, found by prefix filtering.
+         */
+        PREFIX,
+        /**
+         * Pairs with an equal band of MinHash signatures.
+         */
+        MINHASH
+    }
+
+    static final CandidatePruning NONE = new CandidatePruning(Mode.NONE, 0);
+
+    private static final int MIN_HASH_BANDS = 20;
+    private static final int MIN_HASH_ROWS = 1;
+    private static final int MIN_HASH_QUERIES = 10_000;
+    private static final int MIN_HASH_BUCKET = 1_000;
+
+    private final Mode mode;
+    private final int topNeighbours;
+    private final int minHashBands;
+    private final int minHashRows;
+    private final int minHashQueries;
+    private final int minHashBucket;
+
+    CandidatePruning(Mode mode, int topNeighbours, int minHashBands, int minHashRows,
+                     int minHashQueries, int minHashBucket) {
+        this.mode = mode;
+        this.topNeighbours = topNeighbours;
+        this.minHashBands = minHashBands;
+        this.minHashRows = minHashRows;
+        this.minHashQueries = minHashQueries;
+        this.minHashBucket = minHashBucket;
+    }
+
+    CandidatePruning(Mode mode, int topNeighbours) {
+        this(mode, topNeighbours, MIN_HASH_BANDS, MIN_HASH_ROWS, MIN_HASH_QUERIES, MIN_HASH_BUCKET);
+    }
+
+    /**
+     * Reads pruning from properties, missing properties mean no pruning
+     * and default MinHash parameters.
+     */
+    static CandidatePruning of(Properties properties) {
+        return new CandidatePruning(
+                Mode.valueOf(properties.getProperty("pruning", "none").toUpperCase()),
+                intProperty(properties, "topNeighbours", 0),
+                intProperty(properties, "minHashBands", MIN_HASH_BANDS, 1),
+                intProperty(properties, "minHashRows", MIN_HASH_ROWS, 1),
+                intProperty(properties, "minHashQueries", MIN_HASH_QUERIES),
+                intProperty(properties, "minHashBucket", MIN_HASH_BUCKET));
+    }
+
+    private static int intProperty(Properties properties, String name, int defaultValue) {
+        return intProperty(properties, name, defaultValue, 0);
+    }
+
+    /**
+     * @param min the least allowed value, smaller values are raised to it
+     */
+    private static int intProperty(Properties properties, String name, int defaultValue, int min) {
+        try {
+            return Math.max(min, Integer.parseInt(properties.getProperty(name)));
+        } catch (Exception e) {
+            return defaultValue;
+        }
+    }
+
+    Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * @return count of best pairs kept for every query, 0 if there is no
+     * limit
+     */
+    int getTopNeighbours() {
+        return topNeighbours;
+    }
+
+    int getMinHashBands() {
+        return minHashBands;
+    }
+
+    int getMinHashRows() {
+        return minHashRows;
+    }
+
+    /**
+     * @return size of the smallest component, which is sketched by
+     * MinHash
+     */
+    int getMinHashQueries() {
+        return minHashQueries;
+    }
+
+    /**
+     * @return size of the largest bucket of a band, which gives candidates
+     */
+    int getMinHashBucket() {
+        return minHashBucket;
+    }
+}
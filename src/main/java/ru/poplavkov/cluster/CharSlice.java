@@ -0,0 +1,70 @@
+package ru.poplavkov.cluster;
+
+import java.util.Arrays;
+
+/**
+ * Range of chars usable as a map key. A mutable instance can be pointed
+ * at a buffer with {@link #set} and used to look up without allocating;
+ * keys that are stored in a map must be made with {@link #copy()}.
+ */
+final class CharSlice {
+    private char[] buf;
+    private int off;
+    private int len;
+    private int hash;
+
+    CharSlice() {
+        buf = new char[0];
+    }
+
+    /**
+     * Points this slice at {@code len} chars of {@code buf} starting at
+     * {@code off}. Chars are not copied.
+     *
+     * @return this slice
+     */
+    CharSlice set(char[] buf, int off, int len) {
+        this.buf = buf;
+        this.off = off;
+        this.len = len;
+        this.hash = CharSliceSet.hash(buf, off, len);
+        return this;
+    }
+
+    /**
+     * @return slice that owns a copy of the chars of this one
+     */
+    CharSlice copy() {
+        return new CharSlice().set(Arrays.copyOfRange(buf, off, off + len), 0, len);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CharSlice)) {
+            return false;
+        }
+        CharSlice other = (CharSlice) o;
+        if (len != other.len || hash != other.hash) {
+            return false;
+        }
+        for (int i = 0; i < len; i++) {
+            if (buf[off + i] != other.buf[other.off + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return new String(buf, off, len);
+    }
+}
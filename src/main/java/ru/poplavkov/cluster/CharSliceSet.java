@@ -0,0 +1,78 @@
+package ru.poplavkov.cluster;
+
+import java.util.Collection;
+import lombok.val;
+
+/**
+ * Immutable set of strings that can be checked for a range of chars
+ * without creating a {@code String}. It is an open addressing hash table
+ * with linear probing.
+ */
+class CharSliceSet {
+    private final char[][] table;
+    private final int mask;
+    private final int size;
+
+    CharSliceSet(Collection<String> words) {
+        int capacity = Integer.highestOneBit(Math.max(words.size(), 1) * 4 - 1) << 1;
+        table = new char[capacity][];
+        mask = capacity - 1;
+        int count = 0;
+        for (val word : words) {
+            val chars = word.toCharArray();
+            if (!contains(chars, 0, chars.length)) {
+                int index = hash(chars, 0, chars.length) & mask;
+                while (table[index] != null) {
+                    index = (index + 1) & mask;
+                }
+                table[index] = chars;
+                count++;
+            }
+        }
+        size = count;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return true if the set contains a word equal to {@code len} chars
+     * of {@code buf} starting at {@code off}
+     */
+    boolean contains(char[] buf, int off, int len) {
+        int index = hash(buf, off, len) & mask;
+        char[] word;
+        while ((word = table[index]) != null) {
+            if (equals(word, buf, off, len)) {
+                return true;
+            }
+            index = (index + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * Same as {@code String.hashCode()} of the range, with bits of the
+     * higher half spread to the lower one.
+     */
+    static int hash(char[] buf, int off, int len) {
+        int h = 0;
+        for (int i = off; i < off + len; i++) {
+            h = 31 * h + buf[i];
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean equals(char[] word, char[] buf, int off, int len) {
+        if (word.length != len) {
+            return false;
+        }
+        for (int i = 0; i < len; i++) {
+            if (word[i] != buf[off + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,195 @@
+package ru.poplavkov.cluster;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+import lombok.extern.log4j.Log4j2;
+import lombok.val;
+
+/**
+ * Reads tab separated click log file. The file is memory-mapped and cut
+ * into newline-aligned byte ranges (chunks), so that every chunk can be
+ * parsed by its own worker.
+ *
+ * @see LogColumns
+ * @see Preprocessor
+ */
+@Log4j2
+class ChunkedLogReader implements LogReader {
+    /**
+     * Chunk size bounds. Upper bound is needed because a single mapping
+     * can not exceed {@code Integer.MAX_VALUE} bytes.
+     */
+    private static final int MIN_CHUNK_SIZE = 1 << 20;
+    private static final int MAX_CHUNK_SIZE = 256 << 20;
+
+    /**
+     * How many chunks per available processor to produce. More than one
+     * chunk per core smooths out chunks with unequal parsing cost.
+     */
+    private static final int CHUNKS_PER_PROCESSOR = 4;
+
+    private static final byte LF = '\n';
+
+    private FileChannel channel;
+
+    /**
+     * Size of chunks in bytes, 0 if it is derived from size of the file.
+     */
+    private final int chunkSize;
+
+    /**
+     * Positions of {@code query} and {@code clickURL} columns, {@code null}
+     * if the file is empty.
+     */
+    private LogColumns columns;
+
+    /**
+     * Offset of the first byte after the headers line.
+     */
+    private long dataStart;
+
+    /**
+     * Opens specified file and reads its headers.
+     *
+     * @param path                      path to file with necessarily two headers:
+     *                                  <ul>
+     *                                      <li>query</li>
+     *                                      <li>clickURL</li>
+     *                                  </ul>
+     *                                  The comparison is ignored case
+     * @throws FileNotFoundException    if specified file not found
+     * @throws IllegalArgumentException if file does not contain correct headers
+     */
+    ChunkedLogReader(Path path) throws IOException {
+        this(path, 0);
+    }
+
+    /**
+     * Opens specified file and reads its headers. Chunks are cut at the
+     * first line feed after every {@code chunkSize} bytes.
+     *
+     * @param chunkSize size of chunks in bytes, 0 to derive it from size
+     *                  of the file and count of processors
+     * @see #ChunkedLogReader(Path)
+     */
+    ChunkedLogReader(Path path, int chunkSize) throws IOException {
+        this.chunkSize = chunkSize;
+        if (!Files.isRegularFile(path)) {
+            throw new FileNotFoundException(path.toString());
+        }
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            readHeaders();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private void readHeaders() throws IOException {
+        long end = lineEnd(0);
+        if (end == 0) {
+            dataStart = 0;
+            return;
+        }
+        val bytes = ByteBuffer.allocate((int) Math.min(end, MIN_CHUNK_SIZE));
+        channel.read(bytes, 0);
+        columns = LogColumns.fromHeaders(
+                new String(bytes.array(), 0, bytes.position(), StandardCharsets.UTF_8));
+        dataStart = end;
+    }
+
+    /**
+     * Cuts the data part of the file into newline-aligned chunks.
+     *
+     * @return list of mapped chunks, empty if file has no data
+     */
+    List<ByteBuffer> split() throws IOException {
+        val size = channel.size();
+        val chunks = new ArrayList<ByteBuffer>();
+        if (size <= dataStart) {
+            return chunks;
+        }
+        val chunkSize = this.chunkSize > 0 ? this.chunkSize : chunkSize(size - dataStart);
+        long start = dataStart;
+        while (start < size) {
+            long end = start + chunkSize >= size ? size : lineEnd(start + chunkSize - 1);
+            if (end - start > Integer.MAX_VALUE) {
+                throw new IOException(String.format("Line at %d is too long", start));
+            }
+            chunks.add(channel.map(FileChannel.MapMode.READ_ONLY, start, end - start));
+            start = end;
+        }
+        log.info(String.format("File of %d bytes split into %d chunks", size, chunks.size()));
+        return chunks;
+    }
+
+    private static long chunkSize(long dataSize) {
+        val parts = (long) Runtime.getRuntime().availableProcessors() * CHUNKS_PER_PROCESSOR;
+        return Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, dataSize / parts + 1));
+    }
+
+    /**
+     * Finds the end of the line containing specified position.
+     *
+     * @return position after the nearest line feed at or after
+     *         {@code position}, or size of the file if there is none
+     */
+    private long lineEnd(long position) throws IOException {
+        val buffer = ByteBuffer.allocate(8192);
+        val size = channel.size();
+        while (position < size) {
+            buffer.clear();
+            val read = channel.read(buffer, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == LF) {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    /**
+     * Parses every line of specified chunk and passes its query and
+     * document to {@code consumer}. Lines without those columns or with
+     * empty document (that is, without click) are skipped.
+     *
+     * @param chunk    one of the chunks returned by {@link #split()}
+     * @param consumer accepts query and document of every line
+     * @see LogColumns#parse
+     */
+    void parse(ByteBuffer chunk, BiConsumer<String, String> consumer) {
+        columns.parse(chunk, consumer);
+    }
+
+    /**
+     * @return one source per chunk returned by {@link #split()}
+     */
+    @Override
+    public List<IngestPipeline.Source> sources() throws IOException {
+        val sources = new ArrayList<IngestPipeline.Source>();
+        for (val chunk : split()) {
+            sources.add(consumer -> parse(chunk, consumer));
+        }
+        return sources;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,120 @@
+package ru.poplavkov.cluster;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import lombok.val;
+
+/**
+ * Immutable index from prepared query to its cluster. Names of members of
+ * all clusters are kept in one array, cluster by cluster, and found by an
+ * open addressing table of their positions, so there is no object per
+ * entry besides the name itself.
+ *
+ * <p>Thread safe.
+ *
+ * @see ClusterServer
+ */
+class ClusterIndex {
+    private static final float LOAD_FACTOR = 0.6f;
+
+    /**
+     * Names of queries of cluster {@code c} are
+     * {@code names[offsets[c] .. offsets[c + 1] - 1]}.
+     */
+    private final String[] names;
+    private final int[] offsets;
+
+    /**
+     * Position of a name in {@code names} plus one, 0 marks a free slot.
+     */
+    private final int[] table;
+    private final int mask;
+
+    private ClusterIndex(String[] names, int[] offsets) {
+        this.names = names;
+        this.offsets = offsets;
+        int capacity = Integer.highestOneBit(Math.max(4, (int) (names.length / LOAD_FACTOR)) - 1) << 1;
+        table = new int[capacity];
+        mask = capacity - 1;
+        for (int position = 0; position < names.length; position++) {
+            int i = index(names[position]) & mask;
+            while (table[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            table[i] = position + 1;
+        }
+    }
+
+    /**
+     * Indexes clusters, ids of clusters are their positions in the list. A
+     * query should be a member of one cluster at most, otherwise it is
+     * found in the first of them.
+     *
+     * @param clusters names of queries of every cluster
+     */
+    static ClusterIndex of(List<List<String>> clusters) {
+        val offsets = new int[clusters.size() + 1];
+        for (int c = 0; c < clusters.size(); c++) {
+            offsets[c + 1] = offsets[c] + clusters.get(c).size();
+        }
+        val names = new String[offsets[clusters.size()]];
+        for (int c = 0; c < clusters.size(); c++) {
+            int position = offsets[c];
+            for (val name : clusters.get(c)) {
+                names[position++] = name;
+            }
+        }
+        return new ClusterIndex(names, offsets);
+    }
+
+    private static int index(String name) {
+        int h = name.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return id of the cluster of specified prepared query, -1 if it is
+     * not in any cluster
+     */
+    int cluster(String query) {
+        int i = index(query) & mask;
+        while (table[i] != 0) {
+            int position = table[i] - 1;
+            if (names[position].equals(query)) {
+                int c = Arrays.binarySearch(offsets, position);
+                //empty clusters share offsets, the one, which holds the name, is the last
+                while (c >= 0 && c + 1 < offsets.length && offsets[c + 1] == position) {
+                    c++;
+                }
+                return c >= 0 ? c : -c - 2;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * @param cluster id of cluster from {@link #cluster(String)}
+     * @return names of queries of the cluster
+     */
+    List<String> members(int cluster) {
+        return Collections.unmodifiableList(
+                Arrays.asList(names).subList(offsets[cluster], offsets[cluster + 1]));
+    }
+
+    /**
+     * @return count of clusters
+     */
+    int size() {
+        return offsets.length - 1;
+    }
+
+    /**
+     * @return count of indexed queries
+     */
+    int queries() {
+        return names.length;
+    }
+}
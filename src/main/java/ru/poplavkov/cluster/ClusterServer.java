@@ -0,0 +1,194 @@
+package ru.poplavkov.cluster;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import lombok.SneakyThrows;
+import lombok.extern.log4j.Log4j2;
+import lombok.val;
+
+/**
+ * Serves lookups of clusters of queries over HTTP on the loopback
+ * interface, built on the JDK server. {@code GET /cluster?q=<raw query>}
+ * prepares the query the same way as {@link Preprocessor} does and
+ * answers {@code {"query":..., "cluster":..., "members":[...]}}, or
+ * {@code 404} with only the prepared query if it is not in any cluster.
+ *
+ * <p>Lookups never block: the index is immutable and every handler
+ * thread has its own analyzer, caches of analyzers are shared.
+ *
+ * @see ClusterIndex
+ */
+@SuppressWarnings("WeakerAccess")
+@Log4j2
+public class ClusterServer implements AutoCloseable {
+    private static final int DEFAULT_PORT = 8080;
+
+    /**
+     * Maximum count of connections, which wait to be accepted.
+     */
+    private static final int BACKLOG = 1024;
+
+    static {
+        //headers and body are written separately, without TCP_NODELAY the
+        //body waits for a delayed ACK of the client, about 40 ms; the
+        //property is read once, when the JDK server is first created
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private final ClusterIndex index;
+    private final ThreadLocal<Function<String, String>> analyzers;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * @param analyzers supplier of preparing functions, one is created for
+     *                  every handler thread
+     * @param port      port to listen on, 0 for any free one
+     * @param threads   count of handler threads
+     */
+    ClusterServer(ClusterIndex index, Supplier<Function<String, String>> analyzers,
+                  int port, int threads) throws IOException {
+        this.index = index;
+        this.analyzers = ThreadLocal.withInitial(analyzers);
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), BACKLOG);
+        server.createContext("/cluster", this::lookup);
+        executor = Executors.newFixedThreadPool(threads);
+        server.setExecutor(executor);
+    }
+
+    /**
+     * Reads, prepares and clusters the log like {@link Main} does, then
+     * serves clusters until the process is stopped.
+     *
+     * @param args input file, directory or glob pattern of file names,
+     *             port and directory with database config, all are
+     *             optional
+     */
+    public static void main(String[] args) {
+        serve(args.length > 2 ? args[2] : "src/main/resources/db",
+                args.length > 0 ? args[0] : "data/user-ct-test-collection-01.txt",
+                args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_PORT);
+    }
+
+    @SneakyThrows
+    private static void serve(String dbConfig, String input, int port) {
+        Preprocessor preprocessor;
+        ClusterIndex index;
+        try (val store = LinkStore.open(dbConfig)) {
+            store.createDB();
+            store.createTables();
+
+            preprocessor = new Preprocessor(store, 100000);
+            preprocessor.readAndStore(input);
+
+            val clusterizator = new Clusterizator(store, 0.001f);
+            clusterizator.cluster();
+            index = ClusterIndex.of(clusterizator.getClusters());
+
+            store.dropTables();
+            store.dropDB();
+        }
+        val server = new ClusterServer(index, preprocessor::createAnalyzer, port,
+                Math.max(2, Runtime.getRuntime().availableProcessors()));
+        Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+        server.start();
+    }
+
+    void start() {
+        server.start();
+        log.info(String.format("Serving %d clusters of %d queries on port %d",
+                index.size(), index.queries(), getPort()));
+    }
+
+    int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void lookup(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                respond(exchange, 405, "{\"error\":\"only GET is allowed\"}");
+                return;
+            }
+            String query;
+            try {
+                query = parameter(exchange.getRequestURI().getRawQuery(), "q");
+            } catch (IllegalArgumentException e) {
+                query = null;
+            }
+            if (query == null) {
+                respond(exchange, 400, "{\"error\":\"parameter q is required\"}");
+                return;
+            }
+            val prepared = analyzers.get().apply(query);
+            val cluster = index.cluster(prepared);
+            val json = new StringBuilder("{\"query\":");
+            ClusterWriter.appendJson(json, prepared);
+            if (cluster >= 0) {
+                json.append(",\"cluster\":").append(cluster).append(",\"members\":[");
+                val members = index.members(cluster);
+                for (int i = 0; i < members.size(); i++) {
+                    if (i > 0) {
+                        json.append(',');
+                    }
+                    ClusterWriter.appendJson(json, members.get(i));
+                }
+                json.append(']');
+            }
+            json.append('}');
+            respond(exchange, cluster >= 0 ? 200 : 404, json.toString());
+        } catch (RuntimeException e) {
+            log.error(String.format("Error with lookup of %s: %s", exchange.getRequestURI(), e));
+            respond(exchange, 500, "{\"error\":\"internal error\"}");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * @return decoded value of the first parameter with specified name,
+     * {@code null} if there is none
+     */
+    static String parameter(String rawQuery, String name) throws UnsupportedEncodingException {
+        if (rawQuery == null) {
+            return null;
+        }
+        for (val pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            if ((eq < 0 ? pair : pair.substring(0, eq)).equals(name)) {
+                return URLDecoder.decode(eq < 0 ? "" : pair.substring(eq + 1), "UTF-8");
+            }
+        }
+        return null;
+    }
+
+    private static void respond(HttpExchange exchange, int code, String json) throws IOException {
+        val body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(code, body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    /**
+     * Stops accepting connections and waits for running lookups.
+     */
+    @Override
+    public void close() {
+        server.stop(1);
+        executor.shutdown();
+    }
+}
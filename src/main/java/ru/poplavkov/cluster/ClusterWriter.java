@@ -0,0 +1,135 @@
+package ru.poplavkov.cluster;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import lombok.SneakyThrows;
+import lombok.val;
+
+/**
+ * Writes clusters one by one through a buffer, so that a cluster is out
+ * as soon as its component is clustered and clusters are never collected
+ * in memory. Writing is thread safe.
+ */
+class ClusterWriter implements Closeable {
+    /**
+     * Format of output file.
+     */
+    enum Format {
+        /**
+         * Names in braces separated by commas, clusters separated by blank
+         * lines.
+         */
+        BRACES,
+        /**
+         * A JSON array of names on every line.
+         */
+        JSONL,
+        /**
+         * Count of names followed by every name as its length in bytes and
+         * UTF-8 bytes, all numbers are big-endian ints.
+         */
+        BINARY;
+
+        /**
+         * @return {@link #JSONL} for {@code .jsonl} files, {@link #BINARY}
+         * for {@code .bin} files, {@link #BRACES} for any other
+         */
+        static Format of(String fileName) {
+            if (fileName.endsWith(".jsonl")) {
+                return JSONL;
+            }
+            return fileName.endsWith(".bin") ? BINARY : BRACES;
+        }
+    }
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Format format;
+    private final DataOutputStream data;
+    private final Writer text;
+
+    ClusterWriter(OutputStream out, Format format) {
+        this.format = format;
+        val buffered = new BufferedOutputStream(out, BUFFER_SIZE);
+        if (format == Format.BINARY) {
+            data = new DataOutputStream(buffered);
+            text = null;
+        } else {
+            data = null;
+            text = new OutputStreamWriter(buffered, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Opens file, format is chosen by its extension.
+     */
+    static ClusterWriter open(String fileName) throws IOException {
+        return new ClusterWriter(new FileOutputStream(fileName), Format.of(fileName));
+    }
+
+    @SneakyThrows(IOException.class)
+    synchronized void write(List<String> cluster) {
+        switch (format) {
+            case BRACES:
+                text.write('{');
+                text.write(String.join(", ", cluster));
+                text.write("}\n\n");
+                text.write(System.lineSeparator());
+                break;
+            case JSONL:
+                text.write('[');
+                for (int i = 0; i < cluster.size(); i++) {
+                    if (i > 0) {
+                        text.write(',');
+                    }
+                    appendJson(text, cluster.get(i));
+                }
+                text.write("]\n");
+                break;
+            case BINARY:
+                data.writeInt(cluster.size());
+                for (val name : cluster) {
+                    val bytes = name.getBytes(StandardCharsets.UTF_8);
+                    data.writeInt(bytes.length);
+                    data.write(bytes);
+                }
+                break;
+        }
+    }
+
+    /**
+     * Appends {@code s} as a JSON string literal.
+     */
+    static void appendJson(Appendable out, String s) throws IOException {
+        out.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            val c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            } else if (c < ' ') {
+                out.append(String.format("\\u%04x", (int) c));
+            } else {
+                out.append(c);
+            }
+        }
+        out.append('"');
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (format == Format.BINARY) {
+            data.close();
+        } else {
+            text.close();
+        }
+    }
+}
@@ -1,17 +1,54 @@
 package ru.poplavkov.cluster;
 
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import lombok.SneakyThrows;
 import lombok.extern.log4j.Log4j2;
+import lombok.val;
 
 @SuppressWarnings("WeakerAccess")
 @Log4j2
 public class Clusterizator {
+    /**
+     * Engine, which merges clusters of a component.
+     */
+    public enum Engine {
+        /**
+         * Stored procedure {@code combine_all}, every merge scans all pairs
+         * of the component.
+         *
+         * @see Store#combineAll(float)
+         */
+        SQL,
+        /**
+         * Pairs of the component are loaded to a priority queue, clusters
+         * are the same as with {@link #SQL}.
+         *
+         * @see Store#combineInMemory(PairSimilarities, float)
+         */
+        MEMORY,
+        /**
+         * Pairs of the component are loaded to memory and clusters, which
+         * are reciprocal nearest neighbours, are merged in parallel
+         * rounds. Much fewer sequential steps, but clusters may differ
+         * from {@link #SQL}.
+         *
+         * @see AgglomerativeClustering#runRounds()
+         */
+        RNN
+    }
+
     /**
      * Ready to cluster store.
      *
-     * @see Store
+     * @see LinkStore
      */
-    private Store store;
+    private LinkStore store;
 
     /**
      * Threshold to similarity function, happened to differ similar and
@@ -19,33 +56,134 @@ public class Clusterizator {
      */
     private float threshold;
 
-    public Clusterizator(Store store, float threshold) {
+    /**
+     * Count of components clustered concurrently, each on its own
+     * session of {@code store}. With one worker components are clustered
+     * without sessions, in the shared tables of {@code store}.
+     */
+    private int workers;
+
+    private Engine engine;
+
+    public Clusterizator(LinkStore store, float threshold, int workers, Engine engine) {
         this.store = store;
         this.threshold = threshold;
+        this.workers = Math.max(1, Math.min(workers, store.getMaxPoolSize()));
+        this.engine = engine;
         log.info(String.format(
-                "Created Clusterizator object with threshold=%3.5f", threshold));
+                "Created Clusterizator object with threshold=%3.5f, %d workers, %s engine",
+                threshold, this.workers, engine));
+    }
+
+    /**
+     * Constructs Clusterizator with the engine configured in
+     * {@code store}.
+     */
+    public Clusterizator(LinkStore store, float threshold, int workers) {
+        this(store, threshold, workers, store.getEngine());
+    }
+
+    /**
+     * Constructs Clusterizator with a worker per connection of the pool
+     * of {@code store}.
+     */
+    public Clusterizator(LinkStore store, float threshold) {
+        this(store, threshold, store.getMaxPoolSize());
     }
 
     @SuppressWarnings("unused")
-    public Clusterizator(Store store) {
+    public Clusterizator(LinkStore store) {
         this (store, 0.001f);
     }
 
     /**
-     * Creates all necessary tables and cluster.
+     * Creates all necessary tables and cluster. Queries are split to
+     * connected components first, then components are clustered, the
+     * largest first, so that the longest ones do not end up at the tail
+     * when there are several workers.
      */
     public void cluster() {
-        while (store.createPreCluster() > 0) {
-            store.createClusterTables();
-            log.info("Cluster tables created");
-            log.info("Start clustering");
-            store.combineAll(threshold);
-            log.info("Clustering complete");
+        cluster(null);
+    }
+
+    /**
+     * Clusters like {@link #cluster()} and passes names of queries of every
+     * cluster of a component to {@code consumer} as soon as the component
+     * is clustered, so that clusters may be written out before the largest
+     * components are over. Queries, which are not in any component, are
+     * passed first. With several workers {@code consumer} is called by one
+     * worker at a time.
+     *
+     * @param consumer consumer of clusters, {@code null} if clusters are
+     *                 selected later by {@link #getClusters()}
+     */
+    public void cluster(Consumer<List<String>> consumer) {
+        val components = store.labelComponents();
+        if (consumer != null) {
+            store.selectUnlabelledClusters(consumer);
+        }
+        if (workers == 1) {
+            for (int component : components) {
+                store.cluster(component, threshold, engine);
+                if (consumer != null) {
+                    store.selectClusters(component, consumer);
+                }
+            }
+        } else {
+            clusterConcurrently(components, consumer == null ? null : cluster -> {
+                synchronized (consumer) {
+                    consumer.accept(cluster);
+                }
+            });
         }
         log.info("Clustering is over");
     }
 
-    public Set<String> getClusters() {
+    /**
+     * Every worker opens a {@link LinkStore.Session} and takes the next
+     * component until there are none. If a worker fails, the others finish
+     * their current components and stop.
+     */
+    @SneakyThrows(InterruptedException.class)
+    private void clusterConcurrently(int[] components, Consumer<List<String>> consumer) {
+        val next = new AtomicInteger();
+        val executor = Executors.newFixedThreadPool(workers);
+        try {
+            val futures = new ArrayList<Future<?>>();
+            for (int i = 0; i < Math.min(workers, components.length); i++) {
+                futures.add(executor.submit(() -> {
+                    try (val session = store.openSession()) {
+                        int index;
+                        while ((index = next.getAndIncrement()) < components.length) {
+                            session.cluster(components[index], threshold, engine);
+                            if (consumer != null) {
+                                session.selectClusters(components[index], consumer);
+                            }
+                        }
+                    } catch (Throwable e) {
+                        next.set(components.length);
+                        throw e;
+                    }
+                    return null;
+                }));
+            }
+            for (val future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    throw new RuntimeException("Clustering failed", e.getCause());
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+        log.info(String.format("%d components clustered", components.length));
+    }
+
+    /**
+     * @return names of queries of every formed cluster
+     */
+    public List<List<String>> getClusters() {
         return store.selectClusters();
     }
 }
@@ -0,0 +1,273 @@
+package ru.poplavkov.cluster;
+
+import com.mchange.v2.c3p0.C3P0ProxyConnection;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import lombok.SneakyThrows;
+import lombok.val;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
+
+/**
+ * Streams links to a table with the PostgreSQL {@code COPY} protocol,
+ * so rows are parsed by the server in bulk instead of calling a
+ * stored procedure per row. Rows are encoded straight from
+ * {@link LongIntHashMap} into a reusable buffer, no objects are created
+ * per row.
+ *
+ * <p>Instances are not thread safe, every writer should use its own.
+ *
+ * @see Store#load
+ */
+class CopyLoader {
+    /**
+     * Format of streamed rows.
+     */
+    enum Format {
+        /**
+         * Tab separated decimal numbers, one row per line.
+         */
+        TEXT,
+        /**
+         * {@code PGCOPY} binary format: no number formatting and parsing
+         * at all.
+         */
+        BINARY
+    }
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Longest encoded row, a row of pairs: four fields of 10 digits and a
+     * sign and a {@code float} of at most 15 characters with separators,
+     * or a binary tuple of five numbers of 4 + 4 bytes and the field
+     * count.
+     */
+    private static final int MAX_ROW_SIZE = 64;
+
+    private static final byte[] BINARY_HEADER = {
+            'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xff, '\r', '\n', 0,
+            0, 0, 0, 0,
+            0, 0, 0, 0
+    };
+    private static final short BINARY_TRAILER = -1;
+
+    private static final Method GET_COPY_API = getCopyApi();
+
+    private final Format format;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    CopyLoader(Format format) {
+        this.format = format;
+    }
+
+    @SneakyThrows(NoSuchMethodException.class)
+    private static Method getCopyApi() {
+        return PGConnection.class.getMethod("getCopyAPI");
+    }
+
+    /**
+     * Returns {@code CopyManager} of the physical connection behind a
+     * pooled one. The c3p0 version in use has no {@code unwrap}, so the
+     * raw connection is reached through {@code C3P0ProxyConnection}.
+     */
+    static CopyManager copyManager(Connection connection) throws SQLException {
+        if (connection instanceof PGConnection) {
+            return ((PGConnection) connection).getCopyAPI();
+        }
+        if (connection instanceof C3P0ProxyConnection) {
+            try {
+                return (CopyManager) ((C3P0ProxyConnection) connection).rawConnectionOperation(
+                        GET_COPY_API, C3P0ProxyConnection.RAW_CONNECTION, new Object[0]);
+            } catch (SQLException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new SQLException("Can not get copy API of connection", e);
+            }
+        }
+        throw new SQLException("Not a PostgreSQL connection: " + connection.getClass());
+    }
+
+    /**
+     * Copies all links to specified table, which has columns
+     * {@code (query, document, count)}.
+     *
+     * @return count of copied rows
+     */
+    long load(Connection connection, String table, LongIntHashMap links) throws SQLException {
+        return load(copyIn(connection, table, "query, document, count"), links);
+    }
+
+    /**
+     * Streams all links to a started {@code COPY}, so that encoding of
+     * rows may be measured without database.
+     *
+     * @return count of copied rows
+     */
+    long load(CopyIn copy, LongIntHashMap links) throws SQLException {
+        begin();
+        try {
+            val failure = new SQLException[1];
+            links.forEach((link, count) -> {
+                if (failure[0] != null) {
+                    return;
+                }
+                try {
+                    row(copy, 3);
+                    field(Links.query(link), false);
+                    field(Links.document(link), false);
+                    field(count, true);
+                } catch (SQLException e) {
+                    failure[0] = e;
+                }
+            });
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+            return end(copy);
+        } finally {
+            cancel(copy);
+        }
+    }
+
+    /**
+     * Copies {@code size} pairs of values to specified table.
+     *
+     * @param columns names of two columns, separated by comma
+     * @return count of copied rows
+     */
+    long load(Connection connection, String table, String columns,
+              int[] first, int[] second, int size) throws SQLException {
+        val copy = start(connection, table, columns);
+        try {
+            for (int i = 0; i < size; i++) {
+                row(copy, 2);
+                field(first[i], false);
+                field(second[i], true);
+            }
+            return end(copy);
+        } finally {
+            cancel(copy);
+        }
+    }
+
+    /**
+     * Copies pairs to specified table, which has columns
+     * {@code (q1 INTEGER, q2 INTEGER, cou1 INTEGER, cou2 INTEGER, res REAL)}.
+     *
+     * @return count of copied rows
+     */
+    long load(Connection connection, String table, PairSimilarities pairs) throws SQLException {
+        val copy = start(connection, table, "q1, q2, cou1, cou2, res");
+        try {
+            for (int pair = 0; pair < pairs.size(); pair++) {
+                row(copy, 5);
+                field(pairs.first(pair), false);
+                field(pairs.second(pair), false);
+                field(pairs.cou1(pair), false);
+                field(pairs.cou2(pair), false);
+                field(pairs.res(pair));
+            }
+            return end(copy);
+        } finally {
+            cancel(copy);
+        }
+    }
+
+    private CopyIn start(Connection connection, String table, String columns) throws SQLException {
+        val copy = copyIn(connection, table, columns);
+        begin();
+        return copy;
+    }
+
+    private CopyIn copyIn(Connection connection, String table, String columns) throws SQLException {
+        val sql = String.format("COPY %s (%s) FROM STDIN%s",
+                table, columns, format == Format.BINARY ? " (FORMAT binary)" : "");
+        return copyManager(connection).copyIn(sql);
+    }
+
+    private void begin() {
+        buffer.clear();
+        if (format == Format.BINARY) {
+            buffer.put(BINARY_HEADER);
+        }
+    }
+
+    private long end(CopyIn copy) throws SQLException {
+        if (format == Format.BINARY) {
+            buffer.putShort(BINARY_TRAILER);
+        }
+        flush(copy);
+        return copy.endCopy();
+    }
+
+    private static void cancel(CopyIn copy) throws SQLException {
+        if (copy.isActive()) {
+            copy.cancelCopy();
+        }
+    }
+
+    private void flush(CopyIn copy) throws SQLException {
+        if (buffer.position() > 0) {
+            copy.writeToCopy(buffer.array(), 0, buffer.position());
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Starts a row of specified count of fields, flushing the buffer if
+     * the row may not fit.
+     */
+    private void row(CopyIn copy, int fields) throws SQLException {
+        if (buffer.remaining() < MAX_ROW_SIZE) {
+            flush(copy);
+        }
+        if (format == Format.BINARY) {
+            buffer.putShort((short) fields);
+        }
+    }
+
+    private void field(int value, boolean last) {
+        if (format == Format.BINARY) {
+            buffer.putInt(Integer.BYTES).putInt(value);
+            return;
+        }
+        putDecimal(value);
+        buffer.put((byte) (last ? '\n' : '\t'));
+    }
+
+    /**
+     * Puts the last field of a row, a {@code float}. Text is the shortest
+     * one, which is parsed back to the same value.
+     */
+    private void field(float value) {
+        if (format == Format.BINARY) {
+            buffer.putInt(Float.BYTES).putFloat(value);
+            return;
+        }
+        buffer.put(Float.toString(value).getBytes(StandardCharsets.US_ASCII));
+        buffer.put((byte) '\n');
+    }
+
+    private void putDecimal(int value) {
+        if (value == Integer.MIN_VALUE) {
+            buffer.put(Integer.toString(value).getBytes(StandardCharsets.US_ASCII));
+            return;
+        }
+        if (value < 0) {
+            buffer.put((byte) '-');
+            value = -value;
+        }
+        int divisor = 1;
+        while (value / divisor >= 10) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            buffer.put((byte) ('0' + value / divisor % 10));
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package ru.poplavkov.cluster;
+
+import io.vavr.Tuple2;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Thread safe dictionary that assigns dense int ids to strings (prepared
+ * queries or documents). Everything after ingestion works with ids, and
+ * strings are stored once, in lookup tables of database.
+ *
+ * <p>Ids are assigned in order of first appearance. Newly assigned ids
+ * are remembered until {@link #drainUnsaved} passes them to the caller.
+ *
+ * @see Store
+ */
+class Dictionary {
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private final AtomicInteger next;
+    /**
+     * Strings with their new ids. The id is queued with the string, as the
+     * string is queued before its id is visible in {@code ids}.
+     */
+    private final Queue<Tuple2<String, Integer>> unsaved = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @param firstId id that will be assigned to the first string
+     */
+    Dictionary(int firstId) {
+        next = new AtomicInteger(firstId);
+    }
+
+    /**
+     * Maps specified string to specified id, which is considered saved.
+     * Used for predefined entries.
+     */
+    void reserve(String name, int id) {
+        ids.put(name, id);
+    }
+
+    /**
+     * Returns id of specified string, assigning a new one if there is
+     * none yet.
+     */
+    int idOf(String name) {
+        Integer id = ids.get(name);
+        if (id != null) {
+            return id;
+        }
+        return ids.computeIfAbsent(name, n -> {
+            int newId = next.getAndIncrement();
+            unsaved.add(new Tuple2<>(n, newId));
+            return newId;
+        });
+    }
+
+    /**
+     * @return id of specified string or -1 if it has no id
+     */
+    int find(String name) {
+        Integer id = ids.get(name);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Passes every string that got its id since the previous call to
+     * {@code consumer}, together with the id.
+     *
+     * @return count of passed strings
+     */
+    int drainUnsaved(ObjIntConsumer<String> consumer) {
+        int count = 0;
+        Tuple2<String, Integer> entry;
+        while ((entry = unsaved.poll()) != null) {
+            consumer.accept(entry._1, entry._2);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * @return true if some strings got their ids since the previous call
+     * to {@link #drainUnsaved}
+     */
+    boolean hasUnsaved() {
+        return !unsaved.isEmpty();
+    }
+
+    int size() {
+        return ids.size();
+    }
+}
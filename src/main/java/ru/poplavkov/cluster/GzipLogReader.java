@@ -0,0 +1,406 @@
+package ru.poplavkov.cluster;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.zip.GZIPInputStream;
+import lombok.extern.log4j.Log4j2;
+import lombok.val;
+
+/**
+ * Reads gzip compressed click log file without decompressing it to disk.
+ * A decompressor thread inflates the file and cuts the output into
+ * newline-aligned blocks, which are handed to parsing workers through a
+ * bounded queue, so decompression overlaps with parsing and analysis.
+ *
+ * <p>A plain gzip stream can only be inflated sequentially. Files made of
+ * many gzip members that record their compressed size (BGZF, as written
+ * by {@code bgzip}) are splittable: member groups are inflated by a pool
+ * of threads in parallel and stitched back together in file order. Other
+ * multi-member files are read sequentially, because member boundaries can
+ * not be found without inflating.
+ *
+ * @see LogColumns
+ * @see Preprocessor
+ */
+@Log4j2
+class GzipLogReader implements LogReader {
+    /**
+     * Size of inflated data read at once by the sequential decompressor.
+     */
+    private static final int BLOCK_SIZE = 4 << 20;
+
+    /**
+     * Default compressed size of one group of BGZF members inflated by
+     * one task.
+     */
+    private static final int GROUP_SIZE = 1 << 20;
+
+    /**
+     * Inflated blocks or groups waiting for workers, per processor.
+     */
+    private static final int QUEUED_PER_PROCESSOR = 2;
+
+    private static final int ID1 = 0x1f;
+    private static final int ID2 = 0x8b;
+    private static final int DEFLATE = 8;
+    private static final int FEXTRA = 4;
+    private static final int HEADER_SIZE = 12;
+    private static final byte LF = '\n';
+
+    /**
+     * End of blocks. Compared by reference.
+     */
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    private final Path path;
+    private final LogColumns columns;
+    private final int groupSize;
+
+    /**
+     * Count of inflated bytes taken by the headers line.
+     */
+    private final int headersLength;
+
+    private final int processors = Runtime.getRuntime().availableProcessors();
+    private final BlockingQueue<ByteBuffer> blocks =
+            new ArrayBlockingQueue<>(QUEUED_PER_PROCESSOR * processors);
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    private ExecutorService decompressor;
+    private ExecutorService inflaters;
+
+    /**
+     * Unfinished line of the previous inflated part and count of bytes
+     * still to skip. Used only by the decompressor thread.
+     */
+    private byte[] carry = new byte[0];
+    private long toSkip;
+
+    /**
+     * @return true if specified file starts with gzip magic bytes
+     */
+    static boolean isGzip(Path path) throws IOException {
+        if (!Files.isRegularFile(path)) {
+            return false;
+        }
+        try (val in = Files.newInputStream(path)) {
+            return in.read() == ID1 && in.read() == ID2;
+        }
+    }
+
+    /**
+     * Opens specified file and reads its headers.
+     *
+     * @param path                      path to gzip compressed file with
+     *                                  necessarily two headers:
+     *                                  <ul>
+     *                                      <li>query</li>
+     *                                      <li>clickURL</li>
+     *                                  </ul>
+     *                                  The comparison is ignored case
+     * @throws FileNotFoundException    if specified file not found
+     * @throws IllegalArgumentException if file does not contain correct headers
+     */
+    GzipLogReader(Path path) throws IOException {
+        this(path, GROUP_SIZE);
+    }
+
+    /**
+     * @param groupSize compressed size of one group of BGZF members
+     *                  inflated by one task
+     */
+    GzipLogReader(Path path, int groupSize) throws IOException {
+        if (!Files.isRegularFile(path)) {
+            throw new FileNotFoundException(path.toString());
+        }
+        this.path = path;
+        this.groupSize = groupSize;
+        val headers = new ByteArrayOutputStream();
+        try (val in = new GZIPInputStream(Files.newInputStream(path))) {
+            int b;
+            while ((b = in.read()) != -1) {
+                headers.write(b);
+                if (b == LF) {
+                    break;
+                }
+            }
+        }
+        headersLength = headers.size();
+        columns = headersLength == 0 ? null : LogColumns.fromHeaders(
+                new String(headers.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Every returned source takes inflated blocks until there are none
+     * left, so all of them should be parsed concurrently. The decompressor
+     * thread is started when the first source is parsed, so files that
+     * wait for their turn hold no memory.
+     *
+     * @return one source per available processor, empty if file has no data
+     */
+    @Override
+    public List<IngestPipeline.Source> sources() {
+        val sources = new ArrayList<IngestPipeline.Source>();
+        if (columns == null) {
+            return sources;
+        }
+        for (int i = 0; i < processors; i++) {
+            sources.add(consumer -> {
+                start();
+                parse(consumer);
+            });
+        }
+        return sources;
+    }
+
+    private synchronized void start() throws IOException {
+        if (decompressor != null) {
+            return;
+        }
+        val groups = bgzfGroups();
+        decompressor = Executors.newSingleThreadExecutor(new DaemonThreadFactory("gzip-decompressor"));
+        if (groups == null) {
+            log.info(String.format("Inflating %s sequentially", path));
+            decompressor.execute(() -> decompress(this::inflate));
+        } else {
+            log.info(String.format("Inflating %s in %d groups of BGZF members",
+                    path, groups.size() - 1));
+            inflaters = Executors.newFixedThreadPool(processors, new DaemonThreadFactory("gzip-inflater"));
+            decompressor.execute(() -> decompress(() -> inflate(groups)));
+        }
+        decompressor.shutdown();
+    }
+
+    private interface Task {
+        void run() throws Exception;
+    }
+
+    private void decompress(Task task) {
+        toSkip = headersLength;
+        try {
+            task.run();
+            if (carry.length > 0) {
+                blocks.put(ByteBuffer.wrap(carry));
+            }
+        } catch (InterruptedException e) {
+            return;
+        } catch (Throwable e) {
+            failure.compareAndSet(null, e);
+        }
+        try {
+            blocks.put(END);
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    private void parse(BiConsumer<String, String> consumer) throws IOException {
+        ByteBuffer block;
+        try {
+            while ((block = blocks.take()) != END) {
+                columns.parse(block, consumer);
+            }
+            //let other workers see the end too
+            blocks.put(END);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for inflated data", e);
+        }
+        val e = failure.get();
+        if (e != null) {
+            throw new IOException("Error with inflating " + path, e);
+        }
+    }
+
+    /**
+     * Inflates the whole file with a single stream, which also handles
+     * concatenated members.
+     */
+    private void inflate() throws IOException, InterruptedException {
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(path), 1 << 16)) {
+            val buffer = new byte[BLOCK_SIZE];
+            int length;
+            do {
+                length = 0;
+                int read;
+                while (length < buffer.length
+                        && (read = in.read(buffer, length, buffer.length - length)) != -1) {
+                    length += read;
+                }
+                emit(buffer, length);
+            } while (length == buffer.length);
+        }
+    }
+
+    /**
+     * Inflates groups of members in parallel, keeping no more than a
+     * bounded count of groups in flight, and emits them in file order.
+     *
+     * @param groups offsets of group starts followed by the size of file
+     */
+    private void inflate(List<Long> groups) throws Exception {
+        val inFlight = new ArrayDeque<Future<byte[]>>();
+        try (val channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            for (int i = 0; i + 1 < groups.size(); i++) {
+                if (inFlight.size() == QUEUED_PER_PROCESSOR * processors) {
+                    emit(inFlight.poll());
+                }
+                val start = groups.get(i);
+                val size = (int) (groups.get(i + 1) - start);
+                inFlight.add(inflaters.submit(() -> inflate(channel, start, size)));
+            }
+            while (!inFlight.isEmpty()) {
+                emit(inFlight.poll());
+            }
+        } finally {
+            inflaters.shutdownNow();
+        }
+    }
+
+    private void emit(Future<byte[]> group) throws InterruptedException, IOException {
+        try {
+            val bytes = group.get();
+            emit(bytes, bytes.length);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private static byte[] inflate(FileChannel channel, long start, int size) throws IOException {
+        val compressed = ByteBuffer.allocate(size);
+        while (compressed.hasRemaining()) {
+            if (channel.read(compressed, start + compressed.position()) < 0) {
+                throw new IOException(String.format("Unexpected end of file at %d", start));
+            }
+        }
+        val inflated = new ByteArrayOutputStream(size * 4);
+        try (val in = new GZIPInputStream(new ByteArrayInputStream(compressed.array()))) {
+            val buffer = new byte[1 << 16];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                inflated.write(buffer, 0, read);
+            }
+        }
+        return inflated.toByteArray();
+    }
+
+    /**
+     * Passes complete lines of the unfinished line and {@code length}
+     * inflated bytes to workers, keeping the rest for the next part.
+     * Bytes of the headers line are skipped.
+     */
+    private void emit(byte[] data, int length) throws InterruptedException {
+        int from = 0;
+        if (toSkip > 0) {
+            from = (int) Math.min(toSkip, length);
+            toSkip -= from;
+        }
+        int lastLf = length - 1;
+        while (lastLf >= from && data[lastLf] != LF) {
+            lastLf--;
+        }
+        if (lastLf < from) {
+            carry = concat(carry, data, from, length);
+            return;
+        }
+        val block = concat(carry, data, from, lastLf + 1);
+        carry = Arrays.copyOfRange(data, lastLf + 1, length);
+        blocks.put(ByteBuffer.wrap(block));
+    }
+
+    private static byte[] concat(byte[] head, byte[] data, int from, int to) {
+        val result = Arrays.copyOf(head, head.length + to - from);
+        System.arraycopy(data, from, result, head.length, to - from);
+        return result;
+    }
+
+    /**
+     * Walks over member headers of a BGZF file. Every member has an extra
+     * field {@code BC} holding its compressed size minus one, so members
+     * can be found without inflating.
+     *
+     * @return offsets of group starts followed by the size of file, or
+     *         {@code null} if the file is not BGZF or has a single group
+     */
+    private List<Long> bgzfGroups() throws IOException {
+        try (val channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            val size = channel.size();
+            val groups = new ArrayList<Long>();
+            val header = ByteBuffer.allocate(HEADER_SIZE);
+            long position = 0;
+            long groupStart = 0;
+            groups.add(0L);
+            while (position < size) {
+                header.clear();
+                if (channel.read(header, position) < HEADER_SIZE
+                        || (header.get(0) & 0xff) != ID1 || (header.get(1) & 0xff) != ID2
+                        || header.get(2) != DEFLATE || (header.get(3) & FEXTRA) == 0) {
+                    return null;
+                }
+                val extraLength = (header.get(10) & 0xff) | (header.get(11) & 0xff) << 8;
+                val extra = ByteBuffer.allocate(extraLength);
+                channel.read(extra, position + HEADER_SIZE);
+                val memberSize = memberSize(extra);
+                if (memberSize < 0) {
+                    return null;
+                }
+                position += memberSize;
+                if (position - groupStart >= groupSize && position < size) {
+                    groups.add(position);
+                    groupStart = position;
+                }
+            }
+            groups.add(size);
+            return groups.size() > 2 ? groups : null;
+        }
+    }
+
+    /**
+     * @return compressed size of the member from its {@code BC} subfield
+     *         or -1 if there is no such subfield
+     */
+    private static int memberSize(ByteBuffer extra) {
+        int i = 0;
+        while (i + 4 <= extra.position()) {
+            val length = (extra.get(i + 2) & 0xff) | (extra.get(i + 3) & 0xff) << 8;
+            if (extra.get(i) == 'B' && extra.get(i + 1) == 'C' && length == 2 && i + 6 <= extra.position()) {
+                return ((extra.get(i + 4) & 0xff) | (extra.get(i + 5) & 0xff) << 8) + 1;
+            }
+            i += 4 + length;
+        }
+        return -1;
+    }
+
+    /**
+     * Stops decompression if it is still running.
+     */
+    @Override
+    public synchronized void close() {
+        if (decompressor != null) {
+            decompressor.shutdownNow();
+        }
+        if (inflaters != null) {
+            inflaters.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,351 @@
+package ru.poplavkov.cluster;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import lombok.SneakyThrows;
+import lombok.extern.log4j.Log4j2;
+import lombok.val;
+
+/**
+ * Staged ingestion pipeline: read &rarr; analyze &rarr; aggregate &rarr;
+ * write. Analyze stage also replaces prepared queries and documents by
+ * their dictionary ids, so later stages work with ints. Every stage has
+ * its own threads and stages are connected with bounded queues. So when
+ * the database slows down, writers stop taking batches, aggregators block
+ * on the full write queue and back-pressure reaches readers: no more than
+ * a fixed number of batches is ever kept in memory.
+ *
+ * <p>Count of writers is equal to {@link LinkStore#getMaxPoolSize()}, the
+ * maximum size of {@code Store} connection pool. Size of written batches follows
+ * {@link AdaptiveBatchSize}.
+ *
+ * @see Preprocessor
+ */
+@Log4j2
+class IngestPipeline {
+    /**
+     * Part of input: a file or a chunk of file. Passes query and document
+     * of every line to specified consumer.
+     */
+    interface Source {
+        void parse(BiConsumer<String, String> consumer) throws IOException;
+    }
+
+    /**
+     * Count of lines that are passed between read, analyze and aggregate
+     * stages at once.
+     */
+    static final int LINES_PER_BATCH = 4096;
+
+    /**
+     * How often queue depths are logged.
+     */
+    private static final long MONITOR_PERIOD_SECONDS = 10;
+
+    /**
+     * How long a put into a full queue waits before it checks whether the
+     * pipeline has failed.
+     */
+    private static final long PUT_CHECK_MILLIS = 100;
+
+    /**
+     * Ends of streams. Compared by reference.
+     */
+    private static final Batch END = new Batch(0);
+    private static final LongIntHashMap END_OF_WRITES = new LongIntHashMap(1);
+
+    private final LinkStore store;
+
+    /**
+     * Creates analyzing function for every analyze thread, so the function
+     * does not have to be thread safe.
+     */
+    private final Supplier<Function<String, String>> analyzerFactory;
+
+    private final AdaptiveBatchSize batchSize;
+
+    private final int readers;
+    private final int analyzers;
+    private final int aggregators;
+    private final int writers;
+
+    private final BlockingQueue<Batch> readQueue;
+    private final BlockingQueue<Batch> analyzeQueue;
+    private final BlockingQueue<LongIntHashMap> writeQueue;
+
+    private final List<ExecutorService> stages = new CopyOnWriteArrayList<>();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    private final LongAdder linesRead = new LongAdder();
+    private final LongAdder rowsWritten = new LongAdder();
+    private final AtomicInteger writerNumbers = new AtomicInteger();
+
+    /**
+     * @param store           {@code Store} that must be ready to write data
+     * @param analyzerFactory creates function that prepares query, an
+     *                        empty result means that line has to be
+     *                        skipped
+     * @param batchSize       size of batches sent to {@code store}
+     */
+    IngestPipeline(LinkStore store, Supplier<Function<String, String>> analyzerFactory,
+                   AdaptiveBatchSize batchSize) {
+        this.store = store;
+        this.analyzerFactory = analyzerFactory;
+        this.batchSize = batchSize;
+        val processors = Runtime.getRuntime().availableProcessors();
+        readers = processors;
+        analyzers = processors;
+        aggregators = Math.max(1, processors / 2);
+        writers = store.getMaxPoolSize();
+        readQueue = new ArrayBlockingQueue<>(2 * analyzers);
+        analyzeQueue = new ArrayBlockingQueue<>(2 * aggregators);
+        writeQueue = new ArrayBlockingQueue<>(writers);
+    }
+
+    /**
+     * Current count of batches waiting in front of every stage. A queue
+     * that is constantly full points at a slow stage after it.
+     *
+     * @return map from the queue name to its depth, in stage order
+     */
+    Map<String, Integer> queueDepths() {
+        val depths = new LinkedHashMap<String, Integer>();
+        depths.put("read->analyze", readQueue.size());
+        depths.put("analyze->aggregate", analyzeQueue.size());
+        depths.put("aggregate->write", writeQueue.size());
+        return depths;
+    }
+
+    /**
+     * Passes all specified sources through the pipeline and waits until
+     * everything is written. If any stage fails, all stages are stopped
+     * and the failure is rethrown.
+     *
+     * @param sources parts of input, they are read concurrently
+     */
+    void run(List<Source> sources) {
+        val pending = new ConcurrentLinkedQueue<Source>(sources);
+        val aggregator = new TupleAggregator(batchSize::get, map -> put(writeQueue, map));
+        val monitor = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("pipeline-monitor"));
+        monitor.scheduleAtFixedRate(() -> log.info(String.format(
+                "Queue depths: %s, batch size %d", queueDepths(), batchSize.get())),
+                MONITOR_PERIOD_SECONDS, MONITOR_PERIOD_SECONDS, TimeUnit.SECONDS);
+        try {
+            val read = start("reader", readers, () -> read(pending));
+            val analyze = start("analyzer", analyzers, this::analyze);
+            val aggregate = start("aggregator", aggregators, () -> aggregate(aggregator));
+            val write = start("writer", writers, this::write);
+
+            await(read);
+            end(readQueue, END, analyzers);
+            await(analyze);
+            end(analyzeQueue, END, aggregators);
+            await(aggregate);
+            aggregator.flush();
+            end(writeQueue, END_OF_WRITES, writers);
+            await(write);
+            log.info(String.format("%d lines read, %d rows written",
+                    linesRead.sum(), rowsWritten.sum()));
+        } finally {
+            monitor.shutdownNow();
+            stages.forEach(ExecutorService::shutdownNow);
+            stages.clear();
+        }
+    }
+
+    private void read(Queue<Source> pending) throws IOException {
+        val batch = new Batch[]{new Batch(LINES_PER_BATCH)};
+        Source source;
+        while ((source = pending.poll()) != null) {
+            source.parse((query, document) -> {
+                if (batch[0].add(query, document)) {
+                    put(readQueue, batch[0]);
+                    batch[0] = new Batch(LINES_PER_BATCH);
+                }
+            });
+        }
+        if (batch[0].size > 0) {
+            put(readQueue, batch[0]);
+        }
+    }
+
+    private void analyze() {
+        val analyzer = analyzerFactory.get();
+        val queries = store.getQueries();
+        val documents = store.getDocuments();
+        Batch batch;
+        while ((batch = take(readQueue)) != END) {
+            linesRead.add(batch.size);
+            batch.analyze(analyzer);
+            batch.encode(queries, documents);
+            if (batch.size > 0) {
+                put(analyzeQueue, batch);
+            }
+        }
+    }
+
+    private void aggregate(TupleAggregator aggregator) {
+        Batch batch;
+        while ((batch = take(analyzeQueue)) != END) {
+            for (int i = 0; i < batch.size; i++) {
+                aggregator.add(batch.queryIds[i], batch.documentIds[i]);
+            }
+        }
+    }
+
+    private void write() {
+        val writer = writerNumbers.getAndIncrement();
+        LongIntHashMap map;
+        while ((map = take(writeQueue)) != END_OF_WRITES) {
+            val start = System.nanoTime();
+            store.load(map, writer);
+            batchSize.record(map.size(), System.nanoTime() - start);
+            rowsWritten.add(map.size());
+        }
+    }
+
+    private interface Task {
+        void run() throws Exception;
+    }
+
+    /**
+     * Starts {@code count} threads, each of them runs {@code task} once.
+     * If a task fails, the whole pipeline is stopped.
+     */
+    private List<Future<?>> start(String name, int count, Task task) {
+        val executor = Executors.newFixedThreadPool(count, new DaemonThreadFactory(name));
+        stages.add(executor);
+        val futures = new ArrayList<Future<?>>();
+        for (int i = 0; i < count; i++) {
+            futures.add(executor.submit(() -> {
+                try {
+                    task.run();
+                } catch (Throwable e) {
+                    if (failure.compareAndSet(null, e)) {
+                        log.error(String.format("Stage %s failed: %s", name, e));
+                        stages.forEach(ExecutorService::shutdownNow);
+                    }
+                }
+                return null;
+            }));
+        }
+        executor.shutdown();
+        return futures;
+    }
+
+    @SneakyThrows({InterruptedException.class, ExecutionException.class})
+    private void await(List<Future<?>> futures) {
+        for (val future : futures) {
+            future.get();
+        }
+        val e = failure.get();
+        if (e != null) {
+            throw new RuntimeException("Ingestion failed", e);
+        }
+    }
+
+    private <T> void end(BlockingQueue<T> queue, T end, int consumers) {
+        for (int i = 0; i < consumers; i++) {
+            put(queue, end);
+        }
+    }
+
+    /**
+     * Waits for space in the queue. Gives up if the pipeline has failed:
+     * consumers of the queue may be stopped, and nobody would ever take
+     * the item.
+     */
+    @SneakyThrows(InterruptedException.class)
+    private <T> void put(BlockingQueue<T> queue, T item) {
+        while (!queue.offer(item, PUT_CHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+            val e = failure.get();
+            if (e != null) {
+                throw new RuntimeException("Ingestion failed", e);
+            }
+        }
+    }
+
+    @SneakyThrows(InterruptedException.class)
+    private static <T> T take(BlockingQueue<T> queue) {
+        return queue.take();
+    }
+
+    /**
+     * Lines passed between stages. Analysis is done in place.
+     */
+    private static class Batch {
+        private final String[] queries;
+        private final String[] documents;
+        private final int[] queryIds;
+        private final int[] documentIds;
+        private int size;
+
+        Batch(int capacity) {
+            queries = new String[capacity];
+            documents = new String[capacity];
+            queryIds = new int[capacity];
+            documentIds = new int[capacity];
+        }
+
+        /**
+         * @return true if batch is full after adding
+         */
+        boolean add(String query, String document) {
+            queries[size] = query;
+            documents[size] = document;
+            return ++size == queries.length;
+        }
+
+        /**
+         * Replaces every query by its prepared form and removes lines
+         * with empty result.
+         */
+        void analyze(Function<String, String> analyzer) {
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                val prepared = analyzer.apply(queries[i]);
+                if (!prepared.isEmpty()) {
+                    queries[kept] = prepared;
+                    documents[kept] = documents[i];
+                    kept++;
+                }
+            }
+            Arrays.fill(queries, kept, size, null);
+            Arrays.fill(documents, kept, size, null);
+            size = kept;
+        }
+
+        /**
+         * Fills ids of queries and documents. Strings are not needed
+         * after that.
+         */
+        void encode(Dictionary queryDictionary, Dictionary documentDictionary) {
+            for (int i = 0; i < size; i++) {
+                queryIds[i] = queryDictionary.idOf(queries[i]);
+                documentIds[i] = documentDictionary.idOf(documents[i]);
+                queries[i] = null;
+                documents[i] = null;
+            }
+        }
+    }
+}
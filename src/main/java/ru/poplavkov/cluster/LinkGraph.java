@@ -0,0 +1,241 @@
+package ru.poplavkov.cluster;
+
+import java.util.Arrays;
+import lombok.val;
+
+/**
+ * Immutable click graph in compressed sparse row form: links of every
+ * query are a contiguous range of primitive arrays, and so are links of
+ * every document. Queries and documents are rows numbered in order of
+ * their ids, a row of an id is found by binary search.
+ *
+ * <p>A graph of {@code n} queries, {@code m} documents and {@code e}
+ * links takes {@code 4 * (3 * n + m + 4 * e)} bytes, there are no objects per
+ * link.
+ *
+ * @see MemoryStore
+ */
+class LinkGraph {
+    static final LinkGraph EMPTY = of(new LongIntHashMap());
+
+    /**
+     * Query ids by row, links of query row {@code r} are
+     * {@code queryOffsets[r] .. queryOffsets[r + 1] - 1}, sorted by
+     * document id.
+     */
+    private final int[] queryIds;
+    private final int[] queryOffsets;
+    private final int[] queryDocuments;
+    private final int[] queryCounts;
+
+    /**
+     * Sums of counts of links by query row.
+     */
+    private final int[] queryTotals;
+
+    /**
+     * Document ids by row, links of document row {@code r} are
+     * {@code documentOffsets[r] .. documentOffsets[r + 1] - 1}, sorted by
+     * query id. Queries are given by rows.
+     */
+    private final int[] documentIds;
+    private final int[] documentOffsets;
+    private final int[] documentQueries;
+    private final int[] documentCounts;
+
+    private LinkGraph(int[] queryIds, int[] queryOffsets, int[] queryDocuments, int[] queryCounts,
+                      int[] queryTotals, int[] documentIds, int[] documentOffsets, int[] documentQueries,
+                      int[] documentCounts) {
+        this.queryIds = queryIds;
+        this.queryOffsets = queryOffsets;
+        this.queryDocuments = queryDocuments;
+        this.queryCounts = queryCounts;
+        this.queryTotals = queryTotals;
+        this.documentIds = documentIds;
+        this.documentOffsets = documentOffsets;
+        this.documentQueries = documentQueries;
+        this.documentCounts = documentCounts;
+    }
+
+    /**
+     * Builds graph of specified links.
+     *
+     * @param links map from link of query and document ids to count
+     * @see Links
+     */
+    static LinkGraph of(LongIntHashMap links) {
+        val size = links.size();
+        val keys = new long[size];
+        val position = new int[1];
+        links.forEach((link, count) -> keys[position[0]++] = link);
+        //sorted by query, then by document as unsigned, which is the same
+        //for non-negative document ids
+        Arrays.sort(keys);
+
+        val queryDocuments = new int[size];
+        val queryCounts = new int[size];
+        val documents = new int[size];
+        int queryRows = 0;
+        for (int i = 0; i < size; i++) {
+            if (i == 0 || Links.query(keys[i]) != Links.query(keys[i - 1])) {
+                queryRows++;
+            }
+            queryDocuments[i] = Links.document(keys[i]);
+            queryCounts[i] = links.get(keys[i]);
+            documents[i] = queryDocuments[i];
+        }
+        val queryIds = new int[queryRows];
+        val queryOffsets = new int[queryRows + 1];
+        val queryTotals = new int[queryRows];
+        for (int i = 0, row = -1; i < size; i++) {
+            if (i == 0 || Links.query(keys[i]) != Links.query(keys[i - 1])) {
+                queryIds[++row] = Links.query(keys[i]);
+                queryOffsets[row] = i;
+            }
+            queryTotals[row] += queryCounts[i];
+        }
+        queryOffsets[queryRows] = size;
+
+        Arrays.sort(documents);
+        int documentRows = 0;
+        for (int i = 0; i < size; i++) {
+            if (i == 0 || documents[i] != documents[i - 1]) {
+                documents[documentRows++] = documents[i];
+            }
+        }
+        val documentIds = Arrays.copyOf(documents, documentRows);
+        //counting sort of links by document row, queries stay sorted
+        val documentOffsets = new int[documentRows + 1];
+        for (int i = 0; i < size; i++) {
+            documentOffsets[Arrays.binarySearch(documentIds, queryDocuments[i]) + 1]++;
+        }
+        for (int row = 0; row < documentRows; row++) {
+            documentOffsets[row + 1] += documentOffsets[row];
+        }
+        val next = Arrays.copyOf(documentOffsets, documentRows);
+        val documentQueries = new int[size];
+        val documentCounts = new int[size];
+        for (int row = 0; row < queryRows; row++) {
+            for (int i = queryOffsets[row]; i < queryOffsets[row + 1]; i++) {
+                val at = next[Arrays.binarySearch(documentIds, queryDocuments[i])]++;
+                documentQueries[at] = row;
+                documentCounts[at] = queryCounts[i];
+            }
+        }
+        return new LinkGraph(queryIds, queryOffsets, queryDocuments, queryCounts, queryTotals,
+                documentIds, documentOffsets, documentQueries, documentCounts);
+    }
+
+    /**
+     * @return count of links
+     */
+    int size() {
+        return queryDocuments.length;
+    }
+
+    int queryRows() {
+        return queryIds.length;
+    }
+
+    int documentRows() {
+        return documentIds.length;
+    }
+
+    /**
+     * @return row of specified query or a negative number if it has no
+     * links
+     */
+    int queryRow(int query) {
+        return Arrays.binarySearch(queryIds, query);
+    }
+
+    /**
+     * @return row of specified document or a negative number if it has
+     * no links
+     */
+    int documentRow(int document) {
+        return Arrays.binarySearch(documentIds, document);
+    }
+
+    int queryId(int row) {
+        return queryIds[row];
+    }
+
+    int documentId(int row) {
+        return documentIds[row];
+    }
+
+    /**
+     * @return index of the first link of specified query row
+     */
+    int queryStart(int row) {
+        return queryOffsets[row];
+    }
+
+    /**
+     * @return index after the last link of specified query row
+     */
+    int queryEnd(int row) {
+        return queryOffsets[row + 1];
+    }
+
+    /**
+     * @return document id of specified link of a query row
+     */
+    int document(int link) {
+        return queryDocuments[link];
+    }
+
+    /**
+     * @return count of specified link of a query row
+     */
+    int queryCount(int link) {
+        return queryCounts[link];
+    }
+
+    /**
+     * @return sum of counts of all links of specified query row
+     */
+    int queryTotal(int row) {
+        return queryTotals[row];
+    }
+
+    /**
+     * @return index of the first link of specified document row
+     */
+    int documentStart(int row) {
+        return documentOffsets[row];
+    }
+
+    /**
+     * @return index after the last link of specified document row
+     */
+    int documentEnd(int row) {
+        return documentOffsets[row + 1];
+    }
+
+    /**
+     * @return query row of specified link of a document row
+     */
+    int query(int link) {
+        return documentQueries[link];
+    }
+
+    /**
+     * @return count of specified link of a document row
+     */
+    int documentCount(int link) {
+        return documentCounts[link];
+    }
+
+    /**
+     * Adds all links of the graph to specified map.
+     */
+    void addTo(LongIntHashMap links) {
+        for (int row = 0; row < queryRows(); row++) {
+            for (int i = queryStart(row); i < queryEnd(row); i++) {
+                links.add(Links.link(queryIds[row], queryDocuments[i]), queryCounts[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package ru.poplavkov.cluster;
+
+import io.vavr.Tuple2;
+import lombok.SneakyThrows;
+import lombok.val;
+
+import java.io.FileInputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.function.Consumer;
+
+/**
+ * Storage of the click graph: links between prepared queries and
+ * documents with counts of clicks, and clusters formed from it.
+ * Preprocessor writes links to it, Clusterizator clusters them.
+ *
+ * @see Store
+ * @see MemoryStore
+ */
+interface LinkStore extends AutoCloseable {
+    /**
+     * Opens the backend configured by {@code backend} property of
+     * {@code db.properties} ({@code database} or {@code memory}).
+     *
+     * @param pathToConfig path to the directory containing config file
+     *                     {@code db.properties} and SQL scripts
+     */
+    @SneakyThrows
+    static LinkStore open(String pathToConfig) {
+        val properties = new Properties();
+        try (val in = new FileInputStream(pathToConfig + "/db.properties")) {
+            properties.load(in);
+        }
+        if ("memory".equalsIgnoreCase(properties.getProperty("backend", "database"))) {
+            return new MemoryStore(CandidatePruning.of(properties), Clusterizator.Engine.valueOf(
+                    properties.getProperty("engine", "memory").toUpperCase()));
+        }
+        return new Store(pathToConfig);
+    }
+
+    /**
+     * Prepares the storage, for example creates stored procedures.
+     */
+    void createDB();
+
+    /**
+     * Releases everything created by {@link #createDB()}.
+     */
+    void dropDB();
+
+    /**
+     * Creates empty storage of links and clusters, dictionaries are
+     * emptied.
+     */
+    void createTables();
+
+    /**
+     * Drops all links and clusters.
+     */
+    void dropTables();
+
+    /**
+     * @return dictionary of prepared queries
+     */
+    Dictionary getQueries();
+
+    /**
+     * @return dictionary of documents
+     */
+    Dictionary getDocuments();
+
+    /**
+     * @return how many writers or clustering sessions can work
+     * concurrently
+     */
+    int getMaxPoolSize();
+
+    /**
+     * @return engine of clustering, which the storage is configured with
+     */
+    Clusterizator.Engine getEngine();
+
+    /**
+     * Adds count of links between specified query and document.
+     */
+    void insert(String query, String document, int count);
+
+    /**
+     * Adds counts of links, key of the map is a tuple of query and
+     * document.
+     */
+    void insertAll(Map<Tuple2<String, String>, Integer> map);
+
+    /**
+     * Adds counts of links written by specified writer. Writers with
+     * different numbers may load concurrently.
+     *
+     * @param links map from link of query and document ids to count
+     * @see Links
+     */
+    void load(LongIntHashMap links, int writer);
+
+    /**
+     * Sums counts of the same links, replaces documents of only one query
+     * by {@code 'other'} and merges queries, which have only one and the
+     * same document, to clusters.
+     */
+    void compact();
+
+    /**
+     * @return map from document to count of links for specified query
+     */
+    Map<String, Integer> selectSetOfDocuments(String query);
+
+    /**
+     * @return map from query to count of links for specified document
+     */
+    Map<String, Integer> selectSetOfQueries(String document);
+
+    /**
+     * Selects documents of many queries at once, so walking a
+     * neighbourhood of a query does not cost a call per query.
+     *
+     * @return map from every specified query to map from document to
+     * count of links, which is empty for an unknown query
+     */
+    default Map<String, Map<String, Integer>> selectSetsOfDocuments(Collection<String> queries) {
+        val sets = new HashMap<String, Map<String, Integer>>();
+        for (val query : queries) {
+            sets.computeIfAbsent(query, this::selectSetOfDocuments);
+        }
+        return sets;
+    }
+
+    /**
+     * Selects queries of many documents at once.
+     *
+     * @return map from every specified document to map from query to
+     * count of links, which is empty for an unknown document
+     * @see #selectSetsOfDocuments(Collection)
+     */
+    default Map<String, Map<String, Integer>> selectSetsOfQueries(Collection<String> documents) {
+        val sets = new HashMap<String, Map<String, Integer>>();
+        for (val document : documents) {
+            sets.computeIfAbsent(document, this::selectSetOfQueries);
+        }
+        return sets;
+    }
+
+    /**
+     * Splits queries to connected components: queries linked through a
+     * chain of shared documents.
+     *
+     * @return ids of components of at least two queries, larger first
+     */
+    int[] labelComponents();
+
+    /**
+     * Clusters queries of specified component.
+     *
+     * @param component id of component from {@link #labelComponents()}
+     * @param threshold threshold of the meaning "similar"
+     * @param engine    engine of merging, if the storage has a choice
+     */
+    void cluster(int component, float threshold, Clusterizator.Engine engine);
+
+    /**
+     * Opens a session, which clusters components concurrently with other
+     * sessions.
+     */
+    Session openSession();
+
+    /**
+     * Passes names of queries of every formed cluster to
+     * {@code consumer}. Clusters are kept as ids of queries, names are
+     * looked up only here, a cluster at a time, so clusters are never all
+     * in memory.
+     */
+    void selectClusters(Consumer<List<String>> consumer);
+
+    /**
+     * Passes clusters of specified component, which is already
+     * clustered, to {@code consumer}.
+     *
+     * @param component id of component from {@link #labelComponents()}
+     */
+    void selectClusters(int component, Consumer<List<String>> consumer);
+
+    /**
+     * Passes clusters, which are not in any component, to
+     * {@code consumer}: queries merged on compaction, whose document no
+     * other query has.
+     */
+    void selectUnlabelledClusters(Consumer<List<String>> consumer);
+
+    /**
+     * Selects all formed clusters at once.
+     *
+     * @return names of queries of every cluster
+     */
+    default List<List<String>> selectClusters() {
+        val clusters = new ArrayList<List<String>>();
+        selectClusters(clusters::add);
+        return clusters;
+    }
+
+    /**
+     * Releases resources of the store, data is not dropped.
+     */
+    @Override
+    void close();
+
+    /**
+     * Clustering session, see {@link #openSession()}. Not thread safe.
+     */
+    interface Session extends AutoCloseable {
+        /**
+         * @see LinkStore#cluster(int, float, Clusterizator.Engine)
+         */
+        void cluster(int component, float threshold, Clusterizator.Engine engine);
+
+        /**
+         * @see LinkStore#selectClusters(int, Consumer)
+         */
+        void selectClusters(int component, Consumer<List<String>> consumer);
+
+        /**
+         * Drops tables of the session and releases its connection.
+         */
+        @Override
+        void close();
+    }
+}
@@ -0,0 +1,31 @@
+package ru.poplavkov.cluster;
+
+/**
+ * Packs a link, that is ids of a query and a document, into one
+ * {@code long} and back.
+ *
+ * @see LongIntHashMap
+ */
+final class Links {
+    /**
+     * Id of the document standing for all documents that are clicked
+     * from a single query only.
+     */
+    static final int OTHER = 0;
+    static final String OTHER_NAME = "other";
+
+    private Links() {
+    }
+
+    static long link(int query, int document) {
+        return ((long) query << 32) | (document & 0xFFFFFFFFL);
+    }
+
+    static int query(long link) {
+        return (int) (link >>> 32);
+    }
+
+    static int document(long link) {
+        return (int) link;
+    }
+}
@@ -0,0 +1,112 @@
+package ru.poplavkov.cluster;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.BiConsumer;
+import lombok.val;
+
+/**
+ * Positions of {@code query} and {@code clickURL} columns of a tab
+ * separated click log. Extracts those columns from a newline-aligned
+ * byte range by scanning bytes for tabs: no regex is used and no array
+ * is allocated per line.
+ *
+ * @see ChunkedLogReader
+ * @see GzipLogReader
+ */
+class LogColumns {
+    private static final byte TAB = '\t';
+    private static final byte LF = '\n';
+    private static final byte CR = '\r';
+
+    private final int queryIndex;
+    private final int documentIndex;
+
+    private LogColumns(int queryIndex, int documentIndex) {
+        this.queryIndex = queryIndex;
+        this.documentIndex = documentIndex;
+    }
+
+    /**
+     * Locates columns by the headers line.
+     *
+     * @param line                      headers line with necessarily two headers:
+     *                                  <ul>
+     *                                      <li>query</li>
+     *                                      <li>clickURL</li>
+     *                                  </ul>
+     *                                  The comparison is ignored case
+     * @throws IllegalArgumentException if line does not contain correct headers
+     */
+    static LogColumns fromHeaders(String line) {
+        int queryIndex = -1;
+        int documentIndex = -1;
+        val headers = line.trim().split("\\t");
+        for (int i = 0; i < headers.length; i++) {
+            if ("query".equalsIgnoreCase(headers[i])) {
+                queryIndex = i;
+            } else if ("clickURL".equalsIgnoreCase(headers[i])) {
+                documentIndex = i;
+            }
+        }
+        if (queryIndex == -1 || documentIndex == -1)
+            throw new IllegalArgumentException("Input file have to contain correct headers");
+        return new LogColumns(queryIndex, documentIndex);
+    }
+
+    /**
+     * Parses every line of specified range and passes its query and
+     * document to {@code consumer}. Lines without those columns or with
+     * empty document (that is, without click) are skipped.
+     *
+     * @param chunk    bytes from index 0 to the limit, the last line may
+     *                 lack the line feed
+     * @param consumer accepts query and document of every line
+     */
+    void parse(ByteBuffer chunk, BiConsumer<String, String> consumer) {
+        val buffer = chunk.duplicate();
+        val limit = buffer.limit();
+        byte[] scratch = new byte[256];
+        int column = 0;
+        int fieldStart = 0;
+        int queryStart = -1, queryEnd = -1;
+        int documentStart = -1, documentEnd = -1;
+        for (int i = 0; i <= limit; i++) {
+            val b = i == limit ? LF : buffer.get(i);
+            if (b != TAB && b != LF) {
+                continue;
+            }
+            int fieldEnd = i;
+            if (b == LF && fieldEnd > fieldStart && buffer.get(fieldEnd - 1) == CR) {
+                fieldEnd--;
+            }
+            if (column == queryIndex) {
+                queryStart = fieldStart;
+                queryEnd = fieldEnd;
+            } else if (column == documentIndex) {
+                documentStart = fieldStart;
+                documentEnd = fieldEnd;
+            }
+            column++;
+            fieldStart = i + 1;
+            if (b == LF) {
+                if (queryStart >= 0 && documentStart >= 0 && documentEnd > documentStart) {
+                    val max = Math.max(queryEnd - queryStart, documentEnd - documentStart);
+                    if (scratch.length < max) {
+                        scratch = new byte[max];
+                    }
+                    consumer.accept(decode(buffer, queryStart, queryEnd, scratch),
+                            decode(buffer, documentStart, documentEnd, scratch));
+                }
+                column = 0;
+                queryStart = documentStart = -1;
+            }
+        }
+    }
+
+    private static String decode(ByteBuffer buffer, int from, int to, byte[] scratch) {
+        buffer.position(from);
+        buffer.get(scratch, 0, to - from);
+        return new String(scratch, 0, to - from, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,35 @@
+package ru.poplavkov.cluster;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Source of click log lines for {@link IngestPipeline}.
+ *
+ * @see ChunkedLogReader
+ * @see GzipLogReader
+ */
+interface LogReader extends AutoCloseable {
+    /**
+     * Cuts the input into parts that are parsed concurrently.
+     *
+     * @return parts of input, empty if there is no data
+     */
+    List<IngestPipeline.Source> sources() throws IOException;
+
+    @Override
+    void close() throws IOException;
+
+    /**
+     * Opens specified file with a reader matching its format: gzip
+     * compressed files are recognized by their magic bytes, everything
+     * else is read as plain text.
+     *
+     * @throws java.io.FileNotFoundException if specified file not found
+     * @throws IllegalArgumentException      if file does not contain correct headers
+     */
+    static LogReader open(Path path) throws IOException {
+        return GzipLogReader.isGzip(path) ? new GzipLogReader(path) : new ChunkedLogReader(path);
+    }
+}
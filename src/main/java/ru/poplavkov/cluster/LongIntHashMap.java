@@ -0,0 +1,121 @@
+package ru.poplavkov.cluster;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from {@code long} to positive {@code int},
+ * used to count links without boxing. A zero value marks a free slot, so
+ * counts must be positive.
+ *
+ * <p>Not thread safe.
+ */
+class LongIntHashMap {
+    private static final float LOAD_FACTOR = 0.6f;
+
+    private long[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+    private int threshold;
+
+    LongIntHashMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        allocate(capacity);
+    }
+
+    LongIntHashMap() {
+        this(16);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+        threshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private static int index(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * Adds {@code delta} to the value of specified key, a missing key
+     * has value 0.
+     *
+     * @param delta positive number
+     */
+    void add(long key, int delta) {
+        int i = index(key) & mask;
+        while (values[i] != 0) {
+            if (keys[i] == key) {
+                values[i] += delta;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = delta;
+        if (++size > threshold) {
+            rehash();
+        }
+    }
+
+    /**
+     * @return value of specified key or 0 if there is none
+     */
+    int get(long key) {
+        int i = index(key) & mask;
+        while (values[i] != 0) {
+            if (keys[i] == key) {
+                return values[i];
+            }
+            i = (i + 1) & mask;
+        }
+        return 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    interface Consumer {
+        void accept(long key, int value);
+    }
+
+    void forEach(Consumer consumer) {
+        for (int i = 0; i < keys.length; i++) {
+            if (values[i] != 0) {
+                consumer.accept(keys[i], values[i]);
+            }
+        }
+    }
+
+    /**
+     * Adds all entries of specified map to this one.
+     */
+    void addAll(LongIntHashMap other) {
+        other.forEach(this::add);
+    }
+
+    void clear() {
+        Arrays.fill(values, 0);
+        size = 0;
+    }
+
+    private void rehash() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(keys.length * 2);
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != 0) {
+                add(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+}
@@ -1,44 +1,37 @@
 package ru.poplavkov.cluster;
 
-import java.io.PrintWriter;
-
 import lombok.SneakyThrows;
 import lombok.val;
 
 public class Main {
+    /**
+     * @param args input file, directory or glob pattern of file names,
+     *             output file and directory with database config, all
+     *             are optional; output is JSON lines for {@code .jsonl}
+     *             files and binary for {@code .bin} files
+     */
     public static void main(String[] args) {
-        work("src/main/resources/db",
-                "data/user-ct-test-collection-01.txt",
-                "output.txt");
+        work(args.length > 2 ? args[2] : "src/main/resources/db",
+                args.length > 0 ? args[0] : "data/user-ct-test-collection-01.txt",
+                args.length > 1 ? args[1] : "output.txt");
     }
 
     @SneakyThrows
-    private static void work(String dbConfig, String inputFile, String outputFile) {
-        try (val store = new Store(dbConfig)) {
+    private static void work(String dbConfig, String input, String outputFile) {
+        try (val store = LinkStore.open(dbConfig)) {
             store.createDB();
             store.createTables();
 
             val preprocessor = new Preprocessor(store, 100000);
-            preprocessor.readAndStore(inputFile);
-
-            val clusterizator = new Clusterizator(store, 0.001);
-            clusterizator.cluster();
-            val clusters = clusterizator.getClusters();
+            preprocessor.readAndStore(input);
 
-            try (val writer = new PrintWriter(outputFile)) {
-                clusters.stream()
-                        .map(cl -> cl.split(";"))
-                        .filter(cl -> cl.length > 1)
-                        .forEach(cl -> {
-                            val sb = new StringBuilder();
-                            sb.append("{");
-                            for (val s : cl) {
-                                sb.append(String.format("%s, ", s));
-                            }
-                            sb.delete(sb.length() - 2, sb.length());
-                            sb.append("}\n\n");
-                            writer.println(sb.toString());
-                        });
+            val clusterizator = new Clusterizator(store, 0.001f);
+            try (val writer = ClusterWriter.open(outputFile)) {
+                clusterizator.cluster(cluster -> {
+                    if (cluster.size() > 1) {
+                        writer.write(cluster);
+                    }
+                });
             }
             store.dropTables();
             store.dropDB();
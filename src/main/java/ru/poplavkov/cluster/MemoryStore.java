@@ -0,0 +1,525 @@
+package ru.poplavkov.cluster;
+
+import io.vavr.Tuple2;
+import lombok.extern.log4j.Log4j2;
+import lombok.val;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the click graph in memory instead of a database, for runs that
+ * fit on one machine. Loaded links are summed in per-writer
+ * {@link LongIntHashMap}s, compaction turns them into a {@link LinkGraph}
+ * of primitive arrays, so the memory footprint is a few ints per link.
+ *
+ * <p>Compaction, components and clustering give the same results as SQL
+ * scripts of {@link Store}: a component is clustered by
+ * {@link AgglomerativeClustering} from pairs computed by
+ * {@link PairSimilarities}. Ids of merged queries and clusters and the
+ * order of names of a cluster may differ, as they are arbitrary in SQL
+ * too. Links of a query to several documents, which become
+ * {@code 'other'} at the end of compaction, are summed into one link.
+ *
+ * <p>Loading, clustering and selecting are thread safe, compaction and
+ * labelling of components must not run concurrently with anything else.
+ */
+@Log4j2
+class MemoryStore implements LinkStore {
+    /**
+     * Writer number of links added by {@link #insert} and
+     * {@link #insertAll(Map)}.
+     */
+    private static final int DIRECT_WRITER = -1;
+
+    private volatile Dictionary queries;
+    private volatile Dictionary documents;
+
+    /**
+     * Names by id, filled from dictionaries on compaction.
+     */
+    private String[] queryNames;
+    private String[] documentNames;
+
+    /**
+     * Ids of members of queries merged on compaction, indexed by
+     * {@code -id - 1}, and the merged query of every member. The entry of
+     * a merged query, which was merged again later, is {@code null}.
+     */
+    private List<int[]> mergedMembers;
+    private Map<Integer, Integer> mergedOf;
+
+    /**
+     * Links loaded since the last compaction, by writer number.
+     */
+    private final Map<Integer, LongIntHashMap> stages = new ConcurrentHashMap<>();
+
+    private volatile LinkGraph graph;
+
+    /**
+     * Query rows of {@link #graph} grouped by components: rows of
+     * component {@code c} are
+     * {@code componentRows[componentOffsets[c] .. componentOffsets[c + 1] - 1]}.
+     */
+    private int[] componentOffsets;
+    private int[] componentRows;
+
+    /**
+     * Cluster of every query merged by clustering, a cluster is
+     * identified by its first query. Queries merged on compaction are
+     * clusters too.
+     */
+    private final Map<Integer, Integer> clusters = new ConcurrentHashMap<>();
+
+    private final CandidatePruning pruning;
+
+    /**
+     * {@link Clusterizator.Engine#RNN} or {@link Clusterizator.Engine#MEMORY}
+     * for every other engine.
+     */
+    private final Clusterizator.Engine engine;
+
+    MemoryStore(CandidatePruning pruning, Clusterizator.Engine engine) {
+        this.pruning = pruning;
+        this.engine = engine == Clusterizator.Engine.RNN ? engine : Clusterizator.Engine.MEMORY;
+        createTables();
+    }
+
+    MemoryStore() {
+        this(CandidatePruning.NONE, Clusterizator.Engine.MEMORY);
+    }
+
+    @Override
+    public Dictionary getQueries() {
+        return queries;
+    }
+
+    @Override
+    public Dictionary getDocuments() {
+        return documents;
+    }
+
+    /**
+     * @return count of processors, there is no other limit of concurrency
+     */
+    @Override
+    public int getMaxPoolSize() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * @return {@link Clusterizator.Engine#RNN} if configured, otherwise
+     * {@link Clusterizator.Engine#MEMORY}, as there is no SQL
+     */
+    @Override
+    public Clusterizator.Engine getEngine() {
+        return engine;
+    }
+
+    /**
+     * Does nothing, there are no stored procedures.
+     */
+    @Override
+    public void createDB() {
+    }
+
+    /**
+     * Does nothing, there are no stored procedures.
+     */
+    @Override
+    public void dropDB() {
+    }
+
+    /**
+     * Empties links, clusters and dictionaries.
+     */
+    @Override
+    public synchronized void createTables() {
+        queries = new Dictionary(1);
+        documents = new Dictionary(1);
+        documents.reserve(Links.OTHER_NAME, Links.OTHER);
+        queryNames = new String[16];
+        documentNames = new String[16];
+        documentNames[Links.OTHER] = Links.OTHER_NAME;
+        mergedMembers = new ArrayList<>();
+        mergedOf = new HashMap<>();
+        stages.clear();
+        graph = LinkGraph.EMPTY;
+        componentOffsets = new int[1];
+        componentRows = new int[0];
+        clusters.clear();
+    }
+
+    /**
+     * Releases memory, the same as {@link #createTables()}.
+     */
+    @Override
+    public void dropTables() {
+        createTables();
+    }
+
+    @Override
+    public void insert(String query, String document, int count) {
+        val links = new LongIntHashMap(1);
+        links.add(Links.link(queries.idOf(query), documents.idOf(document)), count);
+        load(links, DIRECT_WRITER);
+    }
+
+    @Override
+    public void insertAll(Map<Tuple2<String, String>, Integer> map) {
+        val links = new LongIntHashMap(map.size());
+        map.forEach((tuple, count) ->
+                links.add(Links.link(queries.idOf(tuple._1), documents.idOf(tuple._2)), count));
+        load(links, DIRECT_WRITER);
+    }
+
+    @Override
+    public void load(LongIntHashMap links, int writer) {
+        val stage = stages.computeIfAbsent(writer, w -> new LongIntHashMap());
+        synchronized (stage) {
+            stage.addAll(links);
+        }
+    }
+
+    /**
+     * Compacts links the same way as {@code compact_links} of
+     * {@code init.sql}.
+     */
+    @Override
+    public synchronized void compact() {
+        saveNames();
+        val links = new LongIntHashMap(graph.size());
+        graph.addTo(links);
+        stages.values().forEach(links::addAll);
+        stages.clear();
+
+        //links of documents of only one query become links to 'other'
+        LinkGraph compacted = LinkGraph.of(replaceSingleDocuments(links));
+        //queries with only one document are removed, queries with the same
+        //document are merged to a cluster
+        val merged = new LongIntHashMap(compacted.size());
+        val single = new TreeMap<Integer, List<Integer>>();
+        for (int row = 0; row < compacted.queryRows(); row++) {
+            val start = compacted.queryStart(row);
+            if (compacted.queryEnd(row) - start == 1) {
+                if (compacted.document(start) != Links.OTHER) {
+                    single.computeIfAbsent(compacted.document(start), d -> new ArrayList<>()).add(row);
+                }
+                continue;
+            }
+            for (int i = start; i < compacted.queryEnd(row); i++) {
+                merged.add(Links.link(compacted.queryId(row), compacted.document(i)),
+                        compacted.queryCount(i));
+            }
+        }
+        for (val entry : single.entrySet()) {
+            val rows = entry.getValue();
+            int query = compacted.queryId(rows.get(0));
+            int count = 0;
+            for (val row : rows) {
+                count += compacted.queryCount(compacted.queryStart(row));
+            }
+            if (rows.size() > 1) {
+                query = -mergedMembers.size() - 1;
+                mergedMembers.add(merge(rows.stream().mapToInt(compacted::queryId).toArray(), query));
+            }
+            merged.add(Links.link(query, entry.getKey()), count);
+        }
+        //repeated for documents left with one query after merging
+        graph = LinkGraph.of(replaceSingleDocuments(merged));
+        log.info(String.format("Compacted to %d links of %d queries and %d documents",
+                graph.size(), graph.queryRows(), graph.documentRows()));
+    }
+
+    /**
+     * Merges queries to a new merged query. A query merged on a previous
+     * compaction is replaced by its members, and its entry is emptied, so
+     * members never are merged queries themselves.
+     *
+     * @return members of the new merged query
+     */
+    private int[] merge(int[] queries, int query) {
+        val members = new ArrayList<Integer>();
+        for (val id : queries) {
+            if (id < 0) {
+                for (val member : mergedMembers.get(-id - 1)) {
+                    members.add(member);
+                }
+                mergedMembers.set(-id - 1, null);
+            } else {
+                members.add(id);
+            }
+        }
+        for (val member : members) {
+            mergedOf.put(member, query);
+        }
+        return members.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static LongIntHashMap replaceSingleDocuments(LongIntHashMap links) {
+        val graph = LinkGraph.of(links);
+        val result = new LongIntHashMap(links.size());
+        for (int row = 0; row < graph.documentRows(); row++) {
+            val document = graph.documentEnd(row) - graph.documentStart(row) == 1
+                    ? Links.OTHER : graph.documentId(row);
+            for (int i = graph.documentStart(row); i < graph.documentEnd(row); i++) {
+                result.add(Links.link(graph.queryId(graph.query(i)), document), graph.documentCount(i));
+            }
+        }
+        return result;
+    }
+
+    private void saveNames() {
+        queries.drainUnsaved((name, id) -> {
+            queryNames = ensureCapacity(queryNames, id);
+            queryNames[id] = name;
+        });
+        documents.drainUnsaved((name, id) -> {
+            documentNames = ensureCapacity(documentNames, id);
+            documentNames[id] = name;
+        });
+    }
+
+    private static String[] ensureCapacity(String[] names, int id) {
+        return id < names.length ? names : Arrays.copyOf(names, Math.max(id + 1, names.length * 2));
+    }
+
+    /**
+     * @return name of a query, names of members joined by {@code ';'} for
+     * a merged query
+     */
+    private String queryName(int id) {
+        if (id >= 0) {
+            return queryNames[id];
+        }
+        val members = mergedMembers.get(-id - 1);
+        val names = new String[members.length];
+        for (int i = 0; i < members.length; i++) {
+            names[i] = queryNames[members[i]];
+        }
+        return String.join(";", names);
+    }
+
+    /**
+     * @return id of a query, the merged query for a member of one, 0 if
+     * there is no such query
+     */
+    private int queryId(String name) {
+        val id = queries.find(name);
+        return id > 0 ? mergedOf.getOrDefault(id, id) : 0;
+    }
+
+    @Override
+    public synchronized Map<String, Integer> selectSetOfDocuments(String query) {
+        saveNames();
+        val map = new HashMap<String, Integer>();
+        val row = graph.queryRow(queryId(query));
+        if (row >= 0) {
+            for (int i = graph.queryStart(row); i < graph.queryEnd(row); i++) {
+                map.put(documentNames[graph.document(i)], graph.queryCount(i));
+            }
+        }
+        return map;
+    }
+
+    @Override
+    public synchronized Map<String, Integer> selectSetOfQueries(String document) {
+        saveNames();
+        val map = new HashMap<String, Integer>();
+        val id = documents.find(document);
+        val row = id < 0 ? -1 : graph.documentRow(id);
+        if (row >= 0) {
+            for (int i = graph.documentStart(row); i < graph.documentEnd(row); i++) {
+                map.put(queryName(graph.queryId(graph.query(i))), graph.documentCount(i));
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Unites query rows of every shared document in a {@link UnionFind}.
+     *
+     * @return components numbered from 0, larger first
+     */
+    @Override
+    public synchronized int[] labelComponents() {
+        val graph = this.graph;
+        val unionFind = new UnionFind(graph.queryRows());
+        for (int row = 0; row < graph.queryRows(); row++) {
+            unionFind.add();
+        }
+        for (int row = 0; row < graph.documentRows(); row++) {
+            if (graph.documentId(row) == Links.OTHER) {
+                continue;
+            }
+            val first = graph.query(graph.documentStart(row));
+            for (int i = graph.documentStart(row) + 1; i < graph.documentEnd(row); i++) {
+                unionFind.union(first, graph.query(i));
+            }
+        }
+
+        int count = 0;
+        val order = new long[graph.queryRows()];
+        for (int row = 0; row < graph.queryRows(); row++) {
+            if (unionFind.find(row) == row && unionFind.size(row) > 1) {
+                order[count++] = (long) (Integer.MAX_VALUE - unionFind.size(row)) << 32 | row;
+            }
+        }
+        Arrays.sort(order, 0, count);
+        val componentOf = new int[graph.queryRows()];
+        Arrays.fill(componentOf, -1);
+        val offsets = new int[count + 1];
+        for (int component = 0; component < count; component++) {
+            val root = (int) order[component];
+            componentOf[root] = component;
+            offsets[component + 1] = offsets[component] + unionFind.size(root);
+        }
+        val rows = new int[offsets[count]];
+        val next = Arrays.copyOf(offsets, count);
+        for (int row = 0; row < graph.queryRows(); row++) {
+            val component = componentOf[unionFind.find(row)];
+            if (component >= 0) {
+                rows[next[component]++] = row;
+            }
+        }
+        componentOffsets = offsets;
+        componentRows = rows;
+        log.info(String.format("%d queries labelled, %d components to cluster",
+                graph.queryRows(), count));
+
+        val components = new int[count];
+        for (int i = 0; i < count; i++) {
+            components[i] = i;
+        }
+        return components;
+    }
+
+    /**
+     * Computes pairs of queries of specified component with
+     * {@link PairSimilarities}, pruned as configured, and merges them with
+     * {@link AgglomerativeClustering}, in rounds with
+     * {@link Clusterizator.Engine#RNN}, greedily with any other engine.
+     */
+    @Override
+    public void cluster(int component, float threshold, Clusterizator.Engine engine) {
+        val pairs = PairSimilarities.compute(graph, componentRows,
+                componentOffsets[component], componentOffsets[component + 1], threshold, pruning);
+        val clustering = new AgglomerativeClustering(threshold);
+        pairs.addTo(clustering);
+        val merges = engine == Clusterizator.Engine.RNN ? clustering.runRounds() : clustering.run();
+        if (merges > 0) {
+            for (val cluster : clustering.clusters()) {
+                for (int i = 1; i < cluster.length; i++) {
+                    clusters.put(cluster[i], cluster[0]);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return session, which clusters in this store, as all its methods
+     * are thread safe
+     */
+    @Override
+    public Session openSession() {
+        return new Session() {
+            @Override
+            public void cluster(int component, float threshold, Clusterizator.Engine engine) {
+                MemoryStore.this.cluster(component, threshold, engine);
+            }
+
+            @Override
+            public void selectClusters(int component, Consumer<List<String>> consumer) {
+                MemoryStore.this.selectClusters(component, consumer);
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    @Override
+    public synchronized void selectClusters(Consumer<List<String>> consumer) {
+        val queries = new ArrayList<Integer>(clusters.keySet());
+        for (int i = 0; i < mergedMembers.size(); i++) {
+            if (mergedMembers.get(i) != null) {
+                queries.add(-i - 1);
+            }
+        }
+        selectClusters(queries, consumer);
+    }
+
+    @Override
+    public void selectClusters(int component, Consumer<List<String>> consumer) {
+        val queries = new ArrayList<Integer>();
+        for (int i = componentOffsets[component]; i < componentOffsets[component + 1]; i++) {
+            queries.add(graph.queryId(componentRows[i]));
+        }
+        selectClusters(queries, consumer);
+    }
+
+    @Override
+    public synchronized void selectUnlabelledClusters(Consumer<List<String>> consumer) {
+        val labelled = new boolean[graph.queryRows()];
+        for (val row : componentRows) {
+            labelled[row] = true;
+        }
+        val queries = new ArrayList<Integer>();
+        for (int i = 0; i < mergedMembers.size(); i++) {
+            val row = graph.queryRow(-i - 1);
+            if (mergedMembers.get(i) != null && (row < 0 || !labelled[row])) {
+                queries.add(-i - 1);
+            }
+        }
+        selectClusters(queries, consumer);
+    }
+
+    /**
+     * Groups specified queries by clusters and passes names of every
+     * cluster to {@code consumer}. A cluster is its first query followed
+     * by queries merged into it, a query merged on compaction and not
+     * merged further is a cluster of its own.
+     */
+    private void selectClusters(List<Integer> queries, Consumer<List<String>> consumer) {
+        val members = new LinkedHashMap<Integer, List<Integer>>();
+        for (val query : queries) {
+            val cluster = clusters.get(query);
+            if (cluster != null) {
+                members.computeIfAbsent(cluster, c -> new ArrayList<>(Collections.singletonList(c)))
+                        .add(query);
+            }
+        }
+        for (val query : queries) {
+            if (query < 0 && !clusters.containsKey(query)) {
+                members.putIfAbsent(query, Collections.singletonList(query));
+            }
+        }
+        for (val cluster : members.values()) {
+            val names = new ArrayList<String>();
+            for (val query : cluster) {
+                if (query < 0) {
+                    for (val member : mergedMembers.get(-query - 1)) {
+                        names.add(queryNames[member]);
+                    }
+                } else {
+                    names.add(queryNames[query]);
+                }
+            }
+            consumer.accept(names);
+        }
+    }
+
+    @Override
+    public void close() {
+        dropTables();
+    }
+}
@@ -0,0 +1,611 @@
+package ru.poplavkov.cluster;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import lombok.val;
+
+/**
+ * Similarities of pairs of queries of a component, the rows of
+ * {@code links_cluster} table: for every two queries with shared
+ * documents (except {@code 'other'})
+ * {@code res = (SUM(l1.count) + SUM(l2.count)) / (c1 + c2)}, where sums
+ * are over shared documents and {@code c1}, {@code c2} are counts of all
+ * links of the queries. The first query of a pair has the smaller id.
+ *
+ * <p>Pairs are found through the inverted index of {@link LinkGraph}:
+ * every query meets queries of its documents. Queries are split to shards
+ * computed in parallel with fork/join, shards do not share pairs, so their
+ * results are just concatenated instead of being merged.
+ *
+ * <p>With {@link CandidatePruning.Mode#PREFIX prefix} pruning a query meets
+ * only queries of a prefix of its documents, rare documents first. The
+ * prefix is the shortest one, such that clicks on the rest of documents
+ * are less than {@code threshold * c}, so a pair without shared documents
+ * in prefixes of both queries can not reach threshold. Popular documents
+ * come last and are rarely scanned. Candidates are checked against the
+ * bound {@code (s1 + s2) / (c1 + c2)}, where {@code s1}, {@code s2} are
+ * clicks on documents other than {@code 'other'}, and then computed
+ * exactly by merging lists of documents of both queries. Pairs below
+ * threshold are dropped.
+ *
+ * <p>With {@link CandidatePruning.Mode#MINHASH MinHash} documents of
+ * queries of a giant component are sketched in parallel, candidates are
+ * pairs with an equal band of signatures. Candidates are computed exactly
+ * and kept if they share documents, so the approximation only misses
+ * pairs.
+ *
+ * <p>The similarity is computed in {@code double} and rounded to
+ * {@code float}. SQL computes it in {@code numeric} and rounds to
+ * {@code REAL}, both give the correctly rounded quotient while
+ * {@code c1 + c2} is less than {@code 2^28}, so values are the same.
+ */
+class PairSimilarities {
+    /**
+     * Query rows or candidates computed in one task, there is no gain to
+     * split less.
+     */
+    private static final int SHARD_SIZE = 64;
+
+    /**
+     * Relative margin of bounds, so rounding never drops a pair, which
+     * reaches threshold.
+     */
+    private static final double SLACK = 1e-6;
+
+    private int[] first;
+    private int[] second;
+    private int[] cou1;
+    private int[] cou2;
+    private float[] res;
+    private int size;
+
+    private PairSimilarities(int capacity) {
+        first = new int[capacity];
+        second = new int[capacity];
+        cou1 = new int[capacity];
+        cou2 = new int[capacity];
+        res = new float[capacity];
+    }
+
+    /**
+     * Computes pairs of specified query rows of a graph. All queries of
+     * documents of these rows, except {@code 'other'}, have to be among
+     * them, as it is for a component.
+     *
+     * @param rows      query rows of {@code graph}, sorted
+     * @param threshold threshold of clustering, used by pruning
+     * @param pruning   pruning of pairs
+     */
+    static PairSimilarities compute(LinkGraph graph, int[] rows, int from, int to,
+                                    float threshold, CandidatePruning pruning) {
+        val computation = new Computation(graph, rows, from, to, threshold, pruning);
+        val units = computation.units();
+        val pairs = units <= SHARD_SIZE
+                ? computation.shard(0, units)
+                : ForkJoinPool.commonPool().invoke(new Shard(computation, 0, units));
+        if (pruning.getTopNeighbours() > 0) {
+            pairs.retainTop(pruning.getTopNeighbours());
+        }
+        return pairs;
+    }
+
+    /**
+     * Computes all pairs of specified query rows of a graph.
+     *
+     * @see #compute(LinkGraph, int[], int, int, float, CandidatePruning)
+     */
+    static PairSimilarities compute(LinkGraph graph, int[] rows, int from, int to) {
+        return compute(graph, rows, from, to, 0, CandidatePruning.NONE);
+    }
+
+    /**
+     * Computes pairs of all queries of a graph, which is a component.
+     */
+    static PairSimilarities compute(LinkGraph graph, float threshold, CandidatePruning pruning) {
+        val rows = new int[graph.queryRows()];
+        for (int row = 0; row < rows.length; row++) {
+            rows[row] = row;
+        }
+        return compute(graph, rows, 0, rows.length, threshold, pruning);
+    }
+
+    /**
+     * Computes all pairs of all queries of a graph, which is a component.
+     */
+    static PairSimilarities compute(LinkGraph graph) {
+        return compute(graph, 0, CandidatePruning.NONE);
+    }
+
+    private void add(int query1, int query2, int count1, int count2, float similarity) {
+        if (size == first.length) {
+            grow(Math.max(16, 2 * size));
+        }
+        first[size] = query1;
+        second[size] = query2;
+        cou1[size] = count1;
+        cou2[size] = count2;
+        res[size++] = similarity;
+    }
+
+    private void grow(int capacity) {
+        first = Arrays.copyOf(first, capacity);
+        second = Arrays.copyOf(second, capacity);
+        cou1 = Arrays.copyOf(cou1, capacity);
+        cou2 = Arrays.copyOf(cou2, capacity);
+        res = Arrays.copyOf(res, capacity);
+    }
+
+    private PairSimilarities append(PairSimilarities other) {
+        val capacity = size + other.size;
+        if (capacity > first.length) {
+            grow(capacity);
+        }
+        System.arraycopy(other.first, 0, first, size, other.size);
+        System.arraycopy(other.second, 0, second, size, other.size);
+        System.arraycopy(other.cou1, 0, cou1, size, other.size);
+        System.arraycopy(other.cou2, 0, cou2, size, other.size);
+        System.arraycopy(other.res, 0, res, size, other.size);
+        size = capacity;
+        return this;
+    }
+
+    /**
+     * Keeps pairs, which are among {@code k} best pairs of one of their
+     * queries. Pairs are ordered by similarity, equal ones by position.
+     */
+    private void retainTop(int k) {
+        val order = new long[size];
+        for (int pair = 0; pair < size; pair++) {
+            //similarities are not negative, so their bits are ordered too
+            order[pair] = (long) (Integer.MAX_VALUE - Float.floatToIntBits(res[pair])) << 32 | pair;
+        }
+        Arrays.sort(order);
+        val neighbours = new LongIntHashMap();
+        val keep = new boolean[size];
+        for (val key : order) {
+            val pair = (int) key;
+            keep[pair] = neighbours.get(first[pair]) < k || neighbours.get(second[pair]) < k;
+            neighbours.add(first[pair], 1);
+            neighbours.add(second[pair], 1);
+        }
+        int kept = 0;
+        for (int pair = 0; pair < size; pair++) {
+            if (keep[pair]) {
+                first[kept] = first[pair];
+                second[kept] = second[pair];
+                cou1[kept] = cou1[pair];
+                cou2[kept] = cou2[pair];
+                res[kept++] = res[pair];
+            }
+        }
+        size = kept;
+    }
+
+    /**
+     * @return count of pairs
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return id of the first query of specified pair
+     */
+    int first(int pair) {
+        return first[pair];
+    }
+
+    /**
+     * @return id of the second query of specified pair
+     */
+    int second(int pair) {
+        return second[pair];
+    }
+
+    /**
+     * @return count of links of the first query of specified pair
+     */
+    int cou1(int pair) {
+        return cou1[pair];
+    }
+
+    /**
+     * @return count of links of the second query of specified pair
+     */
+    int cou2(int pair) {
+        return cou2[pair];
+    }
+
+    /**
+     * @return similarity of queries of specified pair
+     */
+    float res(int pair) {
+        return res[pair];
+    }
+
+    /**
+     * Adds all pairs to specified clustering.
+     */
+    void addTo(AgglomerativeClustering clustering) {
+        for (int pair = 0; pair < size; pair++) {
+            clustering.add(first[pair], second[pair], cou1[pair], cou2[pair], res[pair]);
+        }
+    }
+
+    /**
+     * Rows of a component and everything its shards share. Shards split
+     * units of work: query rows or, with MinHash, candidate pairs.
+     */
+    private static class Computation {
+        private static final long SEED = 0x5DEECE66DL;
+
+        /**
+         * Bits of a position of a row in keys of MinHash bands.
+         */
+        private static final int POSITION_BITS = 24;
+        private static final long POSITION_MASK = (1L << POSITION_BITS) - 1;
+
+        private final LinkGraph graph;
+        private final int[] rows;
+        private final int from;
+        private final int to;
+        private final float threshold;
+        private final CandidatePruning.Mode mode;
+
+        /**
+         * Last documents of prefixes by position of rows, as given by
+         * {@link #order(int)}, -1 if a prefix is empty.
+         */
+        private final long[] prefixes;
+
+        /**
+         * Candidate pairs of rows found by MinHash.
+         */
+        private final long[] candidates;
+
+        Computation(LinkGraph graph, int[] rows, int from, int to,
+                    float threshold, CandidatePruning pruning) {
+            this.graph = graph;
+            this.rows = rows;
+            this.from = from;
+            this.to = to;
+            this.threshold = threshold;
+            mode = pruning.getMode() == CandidatePruning.Mode.MINHASH
+                    && to - from < pruning.getMinHashQueries()
+                    ? CandidatePruning.Mode.NONE : pruning.getMode();
+            prefixes = mode == CandidatePruning.Mode.PREFIX ? prefixes() : null;
+            candidates = mode == CandidatePruning.Mode.MINHASH ? candidates(pruning) : null;
+        }
+
+        int units() {
+            return mode == CandidatePruning.Mode.MINHASH ? candidates.length : to - from;
+        }
+
+        PairSimilarities shard(int start, int end) {
+            switch (mode) {
+                case PREFIX:
+                    return prunedShard(start, end);
+                case MINHASH:
+                    return candidateShard(start, end);
+                default:
+                    return fullShard(start, end);
+            }
+        }
+
+        /**
+         * @return document row with its count of queries in the higher
+         * bits, so documents of fewer queries go first
+         */
+        private long order(int document) {
+            return (long) (graph.documentEnd(document) - graph.documentStart(document)) << 32 | document;
+        }
+
+        /**
+         * @return count of clicks of a query row on documents other than
+         * {@code 'other'}
+         */
+        private int shared(int row) {
+            val start = graph.queryStart(row);
+            return graph.queryTotal(row)
+                    - (graph.document(start) == Links.OTHER ? graph.queryCount(start) : 0);
+        }
+
+        private long[] prefixes() {
+            val result = new long[to - from];
+            val documents = new ArrayList<long[]>();
+            for (int i = from; i < to; i++) {
+                val row = rows[i];
+                documents.clear();
+                for (int link = graph.queryStart(row); link < graph.queryEnd(row); link++) {
+                    if (graph.document(link) != Links.OTHER) {
+                        documents.add(new long[]{order(graph.documentRow(graph.document(link))),
+                                graph.queryCount(link)});
+                    }
+                }
+                documents.sort((a, b) -> Long.compare(a[0], b[0]));
+                val limit = threshold * (double) graph.queryTotal(row) * (1 - SLACK);
+                double rest = shared(row);
+                long last = -1;
+                for (val document : documents) {
+                    if (rest < limit) {
+                        break;
+                    }
+                    rest -= document[1];
+                    last = document[0];
+                }
+                result[i - from] = last;
+            }
+            return result;
+        }
+
+        private long prefixOf(int row) {
+            return prefixes[Arrays.binarySearch(rows, from, to, row) - from];
+        }
+
+        /**
+         * Sketches documents of rows by MinHash in parallel and finds pairs
+         * of rows with an equal band of signatures.
+         */
+        private long[] candidates(CandidatePruning pruning) {
+            val count = to - from;
+            if (count > POSITION_MASK) {
+                throw new IllegalArgumentException("Too many queries for MinHash: " + count);
+            }
+            val bands = pruning.getMinHashBands();
+            val width = pruning.getMinHashRows();
+            val hashes = bands * width;
+            val random = new Random(SEED);
+            val seeds = new long[hashes];
+            for (int i = 0; i < hashes; i++) {
+                seeds[i] = random.nextLong() | 1;
+            }
+            val signatures = new int[count * hashes];
+            IntStream.range(0, count).parallel().forEach(i -> sketch(rows[from + i], seeds, signatures, i * hashes));
+
+            val result = new LongIntHashMap();
+            IntStream.range(0, bands).parallel()
+                    .mapToObj(band -> band(signatures, hashes, band * width, width, pruning.getMinHashBucket()))
+                    .collect(Collectors.toList())
+                    .forEach(result::addAll);
+            val pairs = new long[result.size()];
+            val position = new int[1];
+            result.forEach((pair, found) -> pairs[position[0]++] = pair);
+            return pairs;
+        }
+
+        /**
+         * Puts the minimum of every hash function over documents of a row
+         * to {@code signatures}, a row without documents has only
+         * {@link Integer#MAX_VALUE}.
+         */
+        private void sketch(int row, long[] seeds, int[] signatures, int offset) {
+            Arrays.fill(signatures, offset, offset + seeds.length, Integer.MAX_VALUE);
+            for (int link = graph.queryStart(row); link < graph.queryEnd(row); link++) {
+                if (graph.document(link) == Links.OTHER) {
+                    continue;
+                }
+                val document = mix(graph.document(link));
+                for (int i = 0; i < seeds.length; i++) {
+                    val hash = (int) ((seeds[i] * document) >>> 33);
+                    if (hash < signatures[offset + i]) {
+                        signatures[offset + i] = hash;
+                    }
+                }
+            }
+        }
+
+        private static long mix(long value) {
+            long h = value * 0x9E3779B97F4A7C15L;
+            return h ^ (h >>> 29);
+        }
+
+        /**
+         * @return pairs of rows with equal hashes {@code start .. start +
+         * width - 1} of signatures
+         */
+        private LongIntHashMap band(int[] signatures, int hashes, int start, int width, int bucket) {
+            val keys = new long[to - from];
+            int size = 0;
+            for (int i = 0; i < keys.length; i++) {
+                val offset = i * hashes + start;
+                if (signatures[offset] == Integer.MAX_VALUE) {
+                    continue;
+                }
+                long h = start;
+                for (int j = 0; j < width; j++) {
+                    h = mix(h ^ signatures[offset + j]);
+                }
+                keys[size++] = h & ~POSITION_MASK | i;
+            }
+            Arrays.sort(keys, 0, size);
+
+            val pairs = new LongIntHashMap();
+            for (int first = 0, last; first < size; first = last) {
+                last = first + 1;
+                while (last < size && (keys[last] & ~POSITION_MASK) == (keys[first] & ~POSITION_MASK)) {
+                    last++;
+                }
+                if (last - first > bucket) {
+                    continue;
+                }
+                for (int i = first; i < last; i++) {
+                    for (int j = i + 1; j < last; j++) {
+                        //positions are sorted as rows are
+                        pairs.add(Links.link(rows[from + (int) (keys[i] & POSITION_MASK)],
+                                rows[from + (int) (keys[j] & POSITION_MASK)]), 1);
+                    }
+                }
+            }
+            return pairs;
+        }
+
+        private PairSimilarities fullShard(int start, int end) {
+            val pairs = new LongIntHashMap();
+            for (int i = from + start; i < from + end; i++) {
+                val row = rows[i];
+                for (int link = graph.queryStart(row); link < graph.queryEnd(row); link++) {
+                    val document = graph.documentRow(graph.document(link));
+                    if (graph.documentId(document) == Links.OTHER) {
+                        continue;
+                    }
+                    for (int other = graph.documentStart(document);
+                         other < graph.documentEnd(document); other++) {
+                        if (graph.query(other) > row) {
+                            pairs.add(Links.link(row, graph.query(other)),
+                                    graph.queryCount(link) + graph.documentCount(other));
+                        }
+                    }
+                }
+            }
+
+            val result = new PairSimilarities(pairs.size());
+            pairs.forEach((pair, sum) -> add(result, Links.query(pair), Links.document(pair), sum, 0));
+            return result;
+        }
+
+        /**
+         * Finds candidates through prefixes of rows of the shard. A pair
+         * found through prefixes of both queries belongs to the shard of
+         * the smaller row.
+         */
+        private PairSimilarities prunedShard(int start, int end) {
+            val candidates = new LongIntHashMap();
+            for (int i = start; i < end; i++) {
+                val row = rows[from + i];
+                val last = prefixes[i];
+                for (int link = graph.queryStart(row); link < graph.queryEnd(row); link++) {
+                    if (graph.document(link) == Links.OTHER) {
+                        continue;
+                    }
+                    val document = graph.documentRow(graph.document(link));
+                    if (order(document) > last) {
+                        continue;
+                    }
+                    for (int other = graph.documentStart(document);
+                         other < graph.documentEnd(document); other++) {
+                        if (graph.query(other) != row) {
+                            candidates.add(Links.link(row, graph.query(other)), 1);
+                        }
+                    }
+                }
+            }
+
+            val result = new PairSimilarities(0);
+            candidates.forEach((candidate, found) ->
+                    verify(Links.query(candidate), Links.document(candidate), result));
+            return result;
+        }
+
+        /**
+         * Computes similarity of a candidate found through the prefix of
+         * {@code row} and adds it, if it reaches threshold and is not
+         * found through the prefix of the smaller {@code other}.
+         */
+        private void verify(int row, int other, PairSimilarities result) {
+            if (shared(row) + shared(other)
+                    < threshold * (double) (graph.queryTotal(row) + graph.queryTotal(other)) * (1 - SLACK)) {
+                return;
+            }
+            val sum = sum(row, other, other < row ? prefixOf(other) : -1);
+            if (sum >= 0) {
+                add(result, row, other, sum, threshold);
+            }
+        }
+
+        /**
+         * Computes candidates found by MinHash, which share documents.
+         */
+        private PairSimilarities candidateShard(int start, int end) {
+            val result = new PairSimilarities(0);
+            for (int i = start; i < end; i++) {
+                val row = Links.query(candidates[i]);
+                val other = Links.document(candidates[i]);
+                val sum = sum(row, other, -1);
+                if (sum > 0) {
+                    add(result, row, other, sum, 0);
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Merges lists of documents of two rows.
+         *
+         * @param prefix last document of a prefix, as given by
+         *               {@link #order(int)}
+         * @return sum of counts of both rows over shared documents, -1 if
+         * one of them is in specified prefix
+         */
+        private long sum(int row, int other, long prefix) {
+            long sum = 0;
+            int i = graph.queryStart(row);
+            int j = graph.queryStart(other);
+            while (i < graph.queryEnd(row) && j < graph.queryEnd(other)) {
+                if (graph.document(i) < graph.document(j)) {
+                    i++;
+                } else if (graph.document(i) > graph.document(j)) {
+                    j++;
+                } else {
+                    if (graph.document(i) != Links.OTHER) {
+                        if (order(graph.documentRow(graph.document(i))) <= prefix) {
+                            return -1;
+                        }
+                        sum += graph.queryCount(i) + graph.queryCount(j);
+                    }
+                    i++;
+                    j++;
+                }
+            }
+            return sum;
+        }
+
+        /**
+         * Adds a pair of rows with specified sum, if its similarity is not
+         * less than {@code minimum}. The smaller row goes first.
+         */
+        private void add(PairSimilarities result, int row, int other, long sum, float minimum) {
+            val count1 = graph.queryTotal(row);
+            val count2 = graph.queryTotal(other);
+            val similarity = (float) ((double) sum / (count1 + count2));
+            if (similarity < minimum) {
+                return;
+            }
+            if (row < other) {
+                result.add(graph.queryId(row), graph.queryId(other), count1, count2, similarity);
+            } else {
+                result.add(graph.queryId(other), graph.queryId(row), count2, count1, similarity);
+            }
+        }
+    }
+
+    private static class Shard extends RecursiveTask<PairSimilarities> {
+        private static final long serialVersionUID = 1L;
+
+        private final Computation computation;
+        private final int from;
+        private final int to;
+
+        Shard(Computation computation, int from, int to) {
+            this.computation = computation;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected PairSimilarities compute() {
+            if (to - from <= SHARD_SIZE) {
+                return computation.shard(from, to);
+            }
+            val middle = (from + to) >>> 1;
+            val left = new Shard(computation, from, middle);
+            left.fork();
+            val right = new Shard(computation, middle, to).compute();
+            return left.join().append(right);
+        }
+    }
+}
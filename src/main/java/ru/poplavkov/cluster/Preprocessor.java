@@ -1,19 +1,16 @@
 package ru.poplavkov.cluster;
 
-import io.vavr.Tuple2;
-import java.io.BufferedReader;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.util.Arrays;
-import java.util.HashMap;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 import lombok.SneakyThrows;
 import lombok.extern.log4j.Log4j2;
 import lombok.val;
@@ -21,199 +18,312 @@ import lombok.val;
 /**
  * Makes all preparatory work. It reads entries from specified file,
  * prepares them (normalize, delete stop words and stem) and stores
- * in database via specified {@code Store}.
+ * via specified {@code LinkStore}.
  *
- * @see Store
+ * @see LinkStore
  */
 @SuppressWarnings("WeakerAccess")
 @Log4j2
 public class Preprocessor {
     /**
-     * Initial thread pool capacity.
+     * Bounds of the adaptive batch size and desired duration of one
+     * write to {@code Store}.
+     *
+     * @see AdaptiveBatchSize
      */
-    private static final int POOL_SIZE = 5;
+    private static final int MIN_BATCH_SIZE = 1000;
+    private static final int MAX_BATCH_SIZE = 500000;
+    private static final long TARGET_WRITE_MILLIS = 2000;
 
     /**
-     * Path to file, contains <b>sorted</b> stop words that will be
-     * deleted from queries.
+     * Default count of words kept in the stem cache.
      */
-    private static final String stopWordsFileName = "src/main/resources/stopWordsSortedList.txt";
+    private static final int DEFAULT_STEM_CACHE_SIZE = 100000;
 
     /**
-     * Array of sorted stop words. It uses to delete unwanted words
-     * from queries.
+     * Default count of raw queries kept in the query cache.
      */
-    private static String[] stopWordsSorted;
-
-    static {
-        try (val br = new BufferedReader(
-                new InputStreamReader(
-                        new FileInputStream(stopWordsFileName)))) {
-            stopWordsSorted = br.lines()
-                    .toArray(String[]::new);
-            log.info("Stop words file successfully loaded");
-        } catch (Exception e) {
-            log.error("Error with loading stop words file");
-            stopWordsSorted = new String[0];
-        }
-    }
+    private static final int DEFAULT_QUERY_CACHE_SIZE = 200000;
 
     /**
      * Ready to write store.
      *
      * @see Store
      */
-    private Store store;
+    private LinkStore store;
 
     /**
-     * Collection of read lines. Access to this map is critical,
-     * so lock uses to restrain it.
+     * Initial count of read and prepared lines that will be send to
+     * {@code Store} to store it to database at once. Later it adapts
+     * to observed write latency.
      */
-    private Map<Tuple2<String, String>, Integer> map;
+    private int countToFlush;
 
     /**
-     * Uses to restrain access to map.
+     * Cache from word to its stem shared by all analyzer threads,
+     * {@code null} if disabled.
      *
-     * @see Lock
+     * @see QueryAnalyzer
      */
-    private Lock lock;
+    private BoundedCache<CharSlice, char[]> stemCache;
 
     /**
-     * Count of read and prepared lines that will be send to
-     * {@code Store} to store it to database.
+     * Memo from raw query to prepared one shared by all analyzer threads,
+     * {@code null} if disabled.
+     *
+     * @see QueryCache
      */
-    private int countToFlush;
+    private QueryCache queryCache;
+
+    /**
+     * File the query cache is loaded from and saved to, {@code null} if
+     * the cache is not persisted.
+     */
+    private Path queryCacheFile;
 
     /**
-     * Thread pool to start many writer threads.
+     * Pipeline of the running {@link #readAndStore}, if any.
      */
-    private ExecutorService threadPool;
+    private volatile IngestPipeline pipeline;
 
     /**
-     * Creates {@code Preprocessor} with specified {@code Store} and
-     * {@code countToFlush}.
+     * Creates {@code Preprocessor} with specified {@code Store},
+     * {@code countToFlush} and caches.
      *
-     * @param store         {@code Store} that must be ready to write data.
-     * @param countToFlush  count of read and prepared lines that will be
-     *                      send to {@code store} to store it to database.
+     * @param store          {@code Store} that must be ready to write data.
+     * @param countToFlush   initial count of read and prepared lines that
+     *                       will be send to {@code store} to store it to
+     *                       database.
+     * @param stemCacheSize  maximum count of words in the stem cache,
+     *                       0 disables the cache.
+     * @param queryCacheSize maximum count of raw queries in the query
+     *                       cache, 0 disables the cache.
+     * @param queryCacheFile file to load the query cache from and save it
+     *                       to after every {@link #readAndStore}, may be
+     *                       {@code null}.
      */
-    public Preprocessor(Store store, int countToFlush) {
+    public Preprocessor(LinkStore store, int countToFlush, int stemCacheSize,
+                        int queryCacheSize, String queryCacheFile) {
         this.store = store;
         this.countToFlush = countToFlush;
-        map = new HashMap<>(countToFlush);
-        lock = new ReentrantLock();
-        threadPool = Executors.newFixedThreadPool(POOL_SIZE);
-        log.info(String.format("Created Preprocessor object with countToFlush=%d", countToFlush));
+        if (stemCacheSize > 0) {
+            stemCache = new BoundedCache<>(stemCacheSize);
+        }
+        if (queryCacheSize > 0) {
+            queryCache = new QueryCache(queryCacheSize);
+            if (queryCacheFile != null) {
+                this.queryCacheFile = Paths.get(queryCacheFile);
+                try {
+                    queryCache.load(this.queryCacheFile);
+                } catch (IOException e) {
+                    log.error(String.format("Error with loading query cache: %s", e.getMessage()));
+                }
+            }
+        }
+        log.info(String.format("Created Preprocessor object with countToFlush=%d, "
+                        + "stemCacheSize=%d, queryCacheSize=%d",
+                countToFlush, stemCacheSize, queryCacheSize));
+    }
+
+    public Preprocessor(LinkStore store, int countToFlush, int stemCacheSize) {
+        this(store, countToFlush, stemCacheSize, DEFAULT_QUERY_CACHE_SIZE, null);
     }
 
-    public Preprocessor(Store store) {
+    public Preprocessor(LinkStore store, int countToFlush) {
+        this(store, countToFlush, DEFAULT_STEM_CACHE_SIZE);
+    }
+
+    public Preprocessor(LinkStore store) {
         this(store, 1000);
     }
 
     /**
-     * Reads lines from specified by {@code fileName} file, prepares them and
-     * stores to database. It uses {@code POOL_SIZE} threads to store data and
-     * parallel stream to read data.
+     * Reads lines from specified by {@code fileName} files, prepares them
+     * and stores to database. A plain file is memory-mapped and split into
+     * newline-aligned chunks, a gzip compressed one is inflated on the fly.
+     * Parts of all files go through one staged {@link IngestPipeline}.
+     * Count of writing threads is equal to the maximum size of
+     * {@code Store} connection pool.
      *
-     * @param fileName                  path to file with necessarily two headers:
+     * @param fileName                  path to file, to directory whose
+     *                                  files are read or glob pattern of
+     *                                  file names (e.g.
+     *                                  {@code data/user-ct-*.txt.gz}).
+     *                                  Every file has necessarily two headers:
      *                                  <ul>
      *                                      <li>query</li>
      *                                      <li>clickURL</li>
      *                                  </ul>
      *                                  The comparison is ignored case
-     * @throws FileNotFoundException    if specified file not found
+     * @throws FileNotFoundException    if specified file not found or
+     *                                  nothing matches the pattern
+     * @see #resolve(String)
+     * @see ChunkedLogReader
+     * @see GzipLogReader
      */
     @SneakyThrows(IOException.class)
     public void readAndStore(String fileName) throws FileNotFoundException {
-        try (val br = new BufferedReader(new InputStreamReader(new FileInputStream(fileName)))) {
-            val line = br.readLine();
-            if (line == null) {
-                return;
-            }
-            val headers = line.split("\\t");
-            int queryIndex = -1;
-            int documentIndex = -1;
-            int i = 0;
-            for (val header : headers) {
-                if ("query".equalsIgnoreCase(header)) {
-                    queryIndex = i;
-                } else if ("clickURL".equalsIgnoreCase(header)) {
-                    documentIndex = i;
-                }
-                i++;
+        readAndStore(resolve(fileName));
+    }
+
+    /**
+     * Reads lines from all specified files concurrently through one
+     * pipeline, so the analysis and aggregation are shared and the store
+     * is compacted only once, after the last file.
+     *
+     * @param files                     files to read, see
+     *                                  {@link #readAndStore(String)}
+     * @throws FileNotFoundException    if one of files not found
+     */
+    @SneakyThrows(IOException.class)
+    public void readAndStore(List<Path> files) throws FileNotFoundException {
+        val readers = new ArrayList<LogReader>();
+        try {
+            val sources = new ArrayList<List<IngestPipeline.Source>>();
+            for (val file : files) {
+                val reader = LogReader.open(file);
+                readers.add(reader);
+                sources.add(reader.sources());
             }
-            if (queryIndex == -1 || documentIndex == -1)
-                throw new IllegalArgumentException("Input file have to contain correct headers");
-
-            final int qIndex = queryIndex;
-            final int docIndex = documentIndex;
-            final int maxIndex = qIndex > docIndex ? qIndex : docIndex;
-            br.lines()
-                    .parallel()
-                    .map(s -> s.split("\\t"))
-                    .filter(s -> s.length > maxIndex)
-                    .map(s ->
-                            new Tuple2<>(stemAndRemoveStopWords(normalize(s[qIndex])),
-                                    s[docIndex]))
-                    .filter(tuple -> !tuple._1.isEmpty())
-                    .forEach(tuple -> {
-                        lock.lock();
-                        try {
-                            if (map.size() >= countToFlush) {
-                                Map<Tuple2<String, String>, Integer> newMap = new HashMap<>(map);
-                                map.clear();
-                                threadPool.execute(() -> store.insertAll(newMap));
-                            }
-                            map.put(tuple, map.getOrDefault(tuple, 0) + 1);
-                        } finally {
-                            lock.unlock();
-                        }
-                    });
-            //remaining
-            threadPool.execute(() -> store.insertAll(map));
-
-            //join
-            threadPool.shutdown();
+            log.info(String.format("Reading %d files", files.size()));
+            val batchSize = new AdaptiveBatchSize(countToFlush,
+                    Math.min(countToFlush, MIN_BATCH_SIZE),
+                    Math.max(countToFlush, MAX_BATCH_SIZE),
+                    TARGET_WRITE_MILLIS);
+            pipeline = new IngestPipeline(store, this::createAnalyzer, batchSize);
             try {
-                threadPool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
-            } catch (InterruptedException e) {
-                log.error(e.getMessage());
+                pipeline.run(interleave(sources));
+            } finally {
+                pipeline = null;
+            }
+        } finally {
+            for (val reader : readers) {
+                reader.close();
+            }
+        }
+        if (stemCache != null) {
+            log.info("Stem cache: " + stemCache);
+        }
+        if (queryCache != null) {
+            log.info("Query cache: " + queryCache);
+            saveQueryCache();
+        }
+        store.compact();
+        log.info("Store compacted");
+    }
+
+    /**
+     * Takes sources of all files in turn, so that readers spread over
+     * files instead of all of them waiting for one decompressor.
+     */
+    private static List<IngestPipeline.Source> interleave(List<List<IngestPipeline.Source>> sources) {
+        val result = new ArrayList<IngestPipeline.Source>();
+        for (int i = 0; result.size() < sources.stream().mapToInt(List::size).sum(); i++) {
+            for (val fileSources : sources) {
+                if (i < fileSources.size()) {
+                    result.add(fileSources.get(i));
+                }
             }
-            store.compact();
-            log.info("Store compacted");
         }
+        return result;
     }
 
     /**
-     * Removes all punctuation marks and unnecessary spaces.
+     * Finds files to read. A directory stands for all regular files in
+     * it, a file name with {@code *}, {@code ?}, {@code [} or {@code &#123;}
+     * is a glob pattern matched against names of files in its directory.
      *
-     * @param str   {@code String} to normalize
-     * @return      normalized {@code String}
-     */
-    private String normalize(String str) {
-        return str.toLowerCase()
-                .replaceAll("\\p{Punct}", " ")
-                .replaceAll("\\s+", " ")
-                .trim();
+     * @param fileName path to file, to directory or glob pattern
+     * @return         matching files in name order
+     * @throws FileNotFoundException if specified file not found or nothing
+     *                               matches
+     */
+    static List<Path> resolve(String fileName) throws IOException {
+        val path = Paths.get(fileName);
+        val name = path.getFileName() == null ? "" : path.getFileName().toString();
+        List<Path> files;
+        if (Files.isDirectory(path)) {
+            files = list(path, "glob:*");
+        } else if (name.matches(".*[*?\\[{].*")) {
+            files = list(path.getParent() == null ? Paths.get(".") : path.getParent(), "glob:" + name);
+        } else {
+            files = Collections.singletonList(path);
+        }
+        if (files.isEmpty()) {
+            throw new FileNotFoundException(fileName);
+        }
+        return files;
+    }
+
+    private static List<Path> list(Path directory, String pattern) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return Collections.emptyList();
+        }
+        val matcher = directory.getFileSystem().getPathMatcher(pattern);
+        try (val stream = Files.list(directory)) {
+            return stream.filter(Files::isRegularFile)
+                    .filter(file -> matcher.matches(file.getFileName()))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
     }
 
     /**
-     * Stems and removes stop words from specified {@code String}
-     * @param str   {@code String} to prepare
-     * @return      prepared {@code String}
-     */
-    private String stemAndRemoveStopWords(String str) {
-        val stemmer = new Stemmer();
-        val stringBuilder = Arrays.stream(str.split("\\s"))
-                .filter(s -> s.length() > 1)
-                .map(stemmer::stem)
-                .filter(s -> Arrays.binarySearch(stopWordsSorted, s) < 0)
-                .collect(StringBuilder::new,
-                        (sb, s) -> sb.append(s).append(" "),
-                        StringBuilder::append);
-        if (stringBuilder.length() > 0) {
-            stringBuilder.deleteCharAt(stringBuilder.length() - 1);
+     * Creates preparing function for one analyzer thread. Functions share
+     * caches of this preprocessor, so queries are prepared for lookups
+     * the same way as they were for clustering.
+     *
+     * @see ClusterServer
+     */
+    Function<String, String> createAnalyzer() {
+        val analyzer = new QueryAnalyzer(stemCache);
+        if (queryCache == null) {
+            return analyzer::analyze;
+        }
+        return query -> queryCache.analyze(query, analyzer::analyze);
+    }
+
+    private void saveQueryCache() {
+        if (queryCacheFile == null) {
+            return;
         }
-        return stringBuilder.toString();
+        try {
+            queryCache.save(queryCacheFile);
+        } catch (IOException e) {
+            log.error(String.format("Error with saving query cache: %s", e.getMessage()));
+        }
+    }
+
+    /**
+     * Returns the stem cache, its statistics show how much stemming
+     * was saved.
+     *
+     * @return the stem cache or {@code null} if it is disabled
+     */
+    BoundedCache<CharSlice, char[]> getStemCache() {
+        return stemCache;
+    }
+
+    /**
+     * Returns the query cache, its statistics show how many queries were
+     * not prepared again.
+     *
+     * @return the query cache or {@code null} if it is disabled
+     */
+    QueryCache getQueryCache() {
+        return queryCache;
+    }
+
+    /**
+     * Current depths of queues between stages of running
+     * {@link #readAndStore}.
+     *
+     * @return map from the queue name to its depth, empty if nothing is
+     *         running
+     * @see IngestPipeline#queueDepths()
+     */
+    public Map<String, Integer> queueDepths() {
+        val current = pipeline;
+        return current == null ? Collections.emptyMap() : current.queueDepths();
     }
 }
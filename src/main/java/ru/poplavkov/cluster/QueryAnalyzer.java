@@ -0,0 +1,163 @@
+package ru.poplavkov.cluster;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.stream.Collectors;
+import lombok.extern.log4j.Log4j2;
+import lombok.val;
+
+/**
+ * Prepares queries: lower cases them, treats punctuation marks and
+ * spaces as separators, drops one-char words, stems the rest and removes
+ * stop words. All of it is done in a single pass over chars of the query,
+ * using reusable buffers, so the only allocated object is the result.
+ *
+ * <p>Instances are not thread safe, every thread should use its own. An
+ * optional stem cache, on the contrary, is meant to be shared.
+ *
+ * @see Stemmer
+ */
+@Log4j2
+class QueryAnalyzer {
+    /**
+     * Path to file, contains stop words that will be deleted from
+     * queries.
+     */
+    private static final String stopWordsFileName = "src/main/resources/stopWordsSortedList.txt";
+
+    /**
+     * Set of stop words. It uses to delete unwanted words from queries.
+     * Words are compared after stemming.
+     */
+    private static final CharSliceSet stopWords;
+
+    static {
+        CharSliceSet loaded;
+        try (val br = new BufferedReader(
+                new InputStreamReader(
+                        new FileInputStream(stopWordsFileName)))) {
+            loaded = new CharSliceSet(br.lines().collect(Collectors.toList()));
+            log.info("Stop words file successfully loaded");
+        } catch (Exception e) {
+            log.error("Error with loading stop words file");
+            loaded = new CharSliceSet(Collections.emptyList());
+        }
+        stopWords = loaded;
+    }
+
+    private final Stemmer stemmer = new Stemmer();
+
+    /**
+     * Shared cache from word to its stem, {@code null} if disabled.
+     * Vocabulary of queries is heavily skewed, so a small cache saves
+     * most of stemming.
+     */
+    private final BoundedCache<CharSlice, char[]> stemCache;
+
+    /**
+     * Reusable key to look up {@code stemCache}.
+     */
+    private final CharSlice probe = new CharSlice();
+
+    /**
+     * Current word and prepared query.
+     */
+    private char[] word = new char[64];
+    private char[] result = new char[256];
+
+    QueryAnalyzer(BoundedCache<CharSlice, char[]> stemCache) {
+        this.stemCache = stemCache;
+    }
+
+    QueryAnalyzer() {
+        this(null);
+    }
+
+    /**
+     * Prepares specified query.
+     *
+     * @param query {@code String} to prepare
+     * @return      prepared {@code String}, words are separated by single
+     *              spaces. Empty if nothing is left
+     */
+    String analyze(String query) {
+        int resultLength = 0;
+        int wordLength = 0;
+        val length = query.length();
+        for (int i = 0; i <= length; i++) {
+            val c = i == length ? ' ' : Character.toLowerCase(query.charAt(i));
+            if (!isSeparator(c)) {
+                if (wordLength == word.length) {
+                    word = grow(word, wordLength);
+                }
+                word[wordLength++] = c;
+                continue;
+            }
+            if (wordLength > 1) {
+                val stemmed = stem(wordLength);
+                if (!stopWords.contains(word, 0, stemmed)) {
+                    if (result.length < resultLength + stemmed + 1) {
+                        result = grow(result, resultLength + stemmed + 1);
+                    }
+                    if (resultLength > 0) {
+                        result[resultLength++] = ' ';
+                    }
+                    System.arraycopy(word, 0, result, resultLength, stemmed);
+                    resultLength += stemmed;
+                }
+            }
+            wordLength = 0;
+        }
+        return resultLength == 0 ? "" : new String(result, 0, resultLength);
+    }
+
+    /**
+     * Stems current word in place, looking up the cache first.
+     *
+     * @return length of the stemmed word
+     */
+    private int stem(int wordLength) {
+        if (stemCache == null) {
+            return stemmer.stem(word, 0, wordLength);
+        }
+        val cached = stemCache.get(probe.set(word, 0, wordLength));
+        if (cached != null) {
+            System.arraycopy(cached, 0, word, 0, cached.length);
+            return cached.length;
+        }
+        val key = probe.copy();
+        val stemmed = stemmer.stem(word, 0, wordLength);
+        stemCache.put(key, Arrays.copyOf(word, stemmed));
+        return stemmed;
+    }
+
+    /**
+     * Separators are ASCII punctuation marks (POSIX {@code \p{Punct}})
+     * and whitespaces (regex {@code \s}).
+     */
+    private static boolean isSeparator(char c) {
+        switch (c) {
+            case ' ':
+            case '\t':
+            case '\n':
+            case '\u000B':
+            case '\f':
+            case '\r':
+                return true;
+            default:
+                return c < 128 && (c >= '!' && c <= '/'
+                        || c >= ':' && c <= '@'
+                        || c >= '[' && c <= '`'
+                        || c >= '{' && c <= '~');
+        }
+    }
+
+    private static char[] grow(char[] buffer, int required) {
+        val grown = new char[Math.max(buffer.length * 2, required)];
+        System.arraycopy(buffer, 0, grown, 0, buffer.length);
+        return grown;
+    }
+}
@@ -0,0 +1,124 @@
+package ru.poplavkov.cluster;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.function.Function;
+import lombok.extern.log4j.Log4j2;
+import lombok.val;
+
+/**
+ * Memo of prepared queries. Search logs repeat the same raw query on
+ * every click, so most queries are prepared only once. Empty results,
+ * that is queries to skip, are remembered too.
+ *
+ * <p>The cache is shared by all analyzer threads and is bounded. It can
+ * be saved to a file and loaded back, so that a run over overlapping
+ * logs starts warm. The file has one {@code raw\tprepared} entry per
+ * line, it has to be deleted when preparation rules (stop words or
+ * stemming) change.
+ *
+ * @see QueryAnalyzer
+ */
+@Log4j2
+class QueryCache {
+    private final BoundedCache<String, String> cache;
+
+    /**
+     * @param maximumSize maximum count of remembered queries
+     */
+    QueryCache(int maximumSize) {
+        cache = new BoundedCache<>(maximumSize);
+    }
+
+    /**
+     * Returns prepared form of specified query, preparing it with
+     * {@code analyzer} only if it is not remembered yet.
+     *
+     * @param query    raw query
+     * @param analyzer prepares query, it is called from the current thread
+     * @return         prepared query, possibly empty
+     */
+    String analyze(String query, Function<String, String> analyzer) {
+        val cached = cache.get(query);
+        if (cached != null) {
+            return cached;
+        }
+        val prepared = analyzer.apply(query);
+        cache.put(query, prepared);
+        return prepared;
+    }
+
+    /**
+     * Adds entries from specified file. Does nothing if there is no file.
+     */
+    void load(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+        int count = 0;
+        try (val lines = Files.lines(file, StandardCharsets.UTF_8)) {
+            for (val line : (Iterable<String>) lines::iterator) {
+                val tab = line.indexOf('\t');
+                if (tab >= 0) {
+                    cache.put(line.substring(0, tab), line.substring(tab + 1));
+                    count++;
+                }
+            }
+        }
+        log.info(String.format("%d queries loaded from %s", count, file));
+    }
+
+    /**
+     * Writes all entries to specified file, replacing it.
+     */
+    void save(Path file) throws IOException {
+        val tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (val writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            val failure = new IOException[1];
+            cache.forEach((query, prepared) -> {
+                if (failure[0] != null || !storable(query)) {
+                    return;
+                }
+                try {
+                    writer.write(query);
+                    writer.write('\t');
+                    writer.write(prepared);
+                    writer.write('\n');
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+            });
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        log.info(String.format("%d queries saved to %s", cache.size(), file));
+    }
+
+    /**
+     * Queries with line separators or tabs can not be written to the
+     * file. They never come from a log file, so they are just skipped.
+     */
+    private static boolean storable(String query) {
+        for (int i = 0; i < query.length(); i++) {
+            val c = query.charAt(i);
+            if (c == '\t' || c == '\n' || c == '\r') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    BoundedCache<String, String> getCache() {
+        return cache;
+    }
+
+    @Override
+    public String toString() {
+        return cache.toString();
+    }
+}
@@ -0,0 +1,109 @@
+package ru.poplavkov.cluster;
+
+import java.util.Arrays;
+
+/**
+ * Labels queries with connected components of the graph of links: two
+ * queries are in the same component if they are joined by a chain of
+ * shared documents. Links are added one by one, the graph itself is not
+ * kept, only a {@link UnionFind} of queries and the first query of every
+ * document. A component is identified by the index of its representative,
+ * which is stable once all links are added.
+ *
+ * <p>Not thread safe.
+ *
+ * @see Store#labelComponents()
+ */
+class QueryComponents {
+    /**
+     * Index of every query in {@link #unionFind} plus one.
+     */
+    private final LongIntHashMap indexes = new LongIntHashMap();
+
+    /**
+     * Index of the first query of every document plus one.
+     */
+    private final LongIntHashMap documents = new LongIntHashMap();
+
+    private final UnionFind unionFind = new UnionFind();
+
+    /**
+     * Query ids by index.
+     */
+    private int[] queries = new int[16];
+
+    /**
+     * Adds link of specified query and document, merging components of
+     * all queries of the document.
+     */
+    void add(int query, int document) {
+        int index = indexOf(query);
+        int first = documents.get(document);
+        if (first == 0) {
+            documents.add(document, index + 1);
+        } else {
+            unionFind.union(index, first - 1);
+        }
+    }
+
+    private int indexOf(int query) {
+        int index = indexes.get(query) - 1;
+        if (index < 0) {
+            index = unionFind.add();
+            indexes.add(query, index + 1);
+            if (index == queries.length) {
+                queries = Arrays.copyOf(queries, index * 2);
+            }
+            queries[index] = query;
+        }
+        return index;
+    }
+
+    /**
+     * @return count of added queries
+     */
+    int size() {
+        return unionFind.count();
+    }
+
+    /**
+     * Returns components of at least {@code minSize} queries, larger
+     * components first, components of the same size by id.
+     *
+     * @return ids of components
+     */
+    int[] components(int minSize) {
+        int count = 0;
+        long[] order = new long[size()];
+        for (int index = 0; index < size(); index++) {
+            int size = unionFind.size(index);
+            if (unionFind.find(index) == index && size >= minSize) {
+                order[count++] = (long) (Integer.MAX_VALUE - size) << 32 | index;
+            }
+        }
+        Arrays.sort(order, 0, count);
+        int[] components = new int[count];
+        for (int i = 0; i < count; i++) {
+            components[i] = (int) order[i];
+        }
+        return components;
+    }
+
+    /**
+     * Writes queries of components of at least {@code minSize} queries
+     * and their component ids to specified arrays, which have length of
+     * at least {@link #size()}.
+     *
+     * @return count of written queries
+     */
+    int labels(int minSize, int[] queries, int[] components) {
+        int count = 0;
+        for (int index = 0; index < size(); index++) {
+            if (unionFind.size(index) >= minSize) {
+                queries[count] = this.queries[index];
+                components[count++] = unionFind.find(index);
+            }
+        }
+        return count;
+    }
+}
@@ -19,8 +19,13 @@ import edu.stanford.nlp.process.PTBTokenizer;
  * Stemmer, implementing the Porter Stemming Algorithm
  * <p/>
  * The Stemmer class transforms a word into its root form.  The input
- * word can be provided a character at time (by calling add()), or at once
- * by calling one of the various stem(something) methods.
+ * word is provided by calling one of the various stem(something) methods.
+ * Only the methods returning <code>String</code> or <code>Word</code>
+ * allocate, the ones taking <code>char[]</code> or
+ * <code>CharSequence</code> ranges reuse the internal buffer.
+ * <p/>
+ * A Stemmer is not thread safe, but is meant to be reused: keep one per
+ * thread.
  *
  * @author Sepandar Kamvar (sdkamvar@stanford.edu)
  */
@@ -32,6 +37,70 @@ public class Stemmer implements Function<Word, Word> {
             j, k;
     private static final int INC = 50;
 
+    /* suffixes, kept as char arrays so that stemming touches no String */
+    private static final char[] NOTHING = "".toCharArray();
+    private static final char[] ABLE = "able".toCharArray();
+    private static final char[] AL = "al".toCharArray();
+    private static final char[] ALISM = "alism".toCharArray();
+    private static final char[] ALITI = "aliti".toCharArray();
+    private static final char[] ALIZE = "alize".toCharArray();
+    private static final char[] ALLI = "alli".toCharArray();
+    private static final char[] ANCE = "ance".toCharArray();
+    private static final char[] ANCI = "anci".toCharArray();
+    private static final char[] ANT = "ant".toCharArray();
+    private static final char[] AT = "at".toCharArray();
+    private static final char[] ATE = "ate".toCharArray();
+    private static final char[] ATION = "ation".toCharArray();
+    private static final char[] ATIONAL = "ational".toCharArray();
+    private static final char[] ATIVE = "ative".toCharArray();
+    private static final char[] ATOR = "ator".toCharArray();
+    private static final char[] BILITI = "biliti".toCharArray();
+    private static final char[] BL = "bl".toCharArray();
+    private static final char[] BLE = "ble".toCharArray();
+    private static final char[] BLI = "bli".toCharArray();
+    private static final char[] E = "e".toCharArray();
+    private static final char[] ED = "ed".toCharArray();
+    private static final char[] EED = "eed".toCharArray();
+    private static final char[] ELI = "eli".toCharArray();
+    private static final char[] EMENT = "ement".toCharArray();
+    private static final char[] ENCE = "ence".toCharArray();
+    private static final char[] ENCI = "enci".toCharArray();
+    private static final char[] ENT = "ent".toCharArray();
+    private static final char[] ENTLI = "entli".toCharArray();
+    private static final char[] ER = "er".toCharArray();
+    private static final char[] FUL = "ful".toCharArray();
+    private static final char[] FULNESS = "fulness".toCharArray();
+    private static final char[] I = "i".toCharArray();
+    private static final char[] IBLE = "ible".toCharArray();
+    private static final char[] IC = "ic".toCharArray();
+    private static final char[] ICAL = "ical".toCharArray();
+    private static final char[] ICATE = "icate".toCharArray();
+    private static final char[] ICITI = "iciti".toCharArray();
+    private static final char[] IES = "ies".toCharArray();
+    private static final char[] ING = "ing".toCharArray();
+    private static final char[] ION = "ion".toCharArray();
+    private static final char[] ISM = "ism".toCharArray();
+    private static final char[] ITI = "iti".toCharArray();
+    private static final char[] IVE = "ive".toCharArray();
+    private static final char[] IVENESS = "iveness".toCharArray();
+    private static final char[] IVITI = "iviti".toCharArray();
+    private static final char[] IZ = "iz".toCharArray();
+    private static final char[] IZATION = "ization".toCharArray();
+    private static final char[] IZE = "ize".toCharArray();
+    private static final char[] IZER = "izer".toCharArray();
+    private static final char[] LOG = "log".toCharArray();
+    private static final char[] LOGI = "logi".toCharArray();
+    private static final char[] MENT = "ment".toCharArray();
+    private static final char[] NESS = "ness".toCharArray();
+    private static final char[] OU = "ou".toCharArray();
+    private static final char[] OUS = "ous".toCharArray();
+    private static final char[] OUSLI = "ousli".toCharArray();
+    private static final char[] OUSNESS = "ousness".toCharArray();
+    private static final char[] SSES = "sses".toCharArray();
+    private static final char[] TION = "tion".toCharArray();
+    private static final char[] TIONAL = "tional".toCharArray();
+    private static final char[] Y = "y".toCharArray();
+
     /* unit of size whereby b is increased */
     public Stemmer() {
         b = new char[INC];
@@ -40,19 +109,15 @@ public class Stemmer implements Function<Word, Word> {
     }
 
     /**
-     * Add a character to the word being stemmed.  When you are finished
-     * adding characters, you can call stem(void) to stem the word.
+     * Makes sure that a word of <code>len</code> chars fits into the
+     * buffer. The buffer only grows, so a reused Stemmer stops allocating
+     * once it has seen its longest word.
      */
 
-    private void add(char ch) {
-        if (i == b.length) {
-            char[] new_b = new char[i + INC];
-            for (int c = 0; c < i; c++) {
-                new_b[c] = b[c];
-            }
-            b = new_b;
+    private void ensureCapacity(int len) {
+        if (b.length < len) {
+            b = new char[len + INC];
         }
-        b[i++] = ch;
     }
 
 
@@ -66,6 +131,21 @@ public class Stemmer implements Function<Word, Word> {
         return new String(b, 0, i_end);
     }
 
+    /**
+     * Buffer containing the last stemmed word starting at index 0. It is
+     * overwritten by the next call of any stem method.
+     */
+    public char[] getResultBuffer() {
+        return b;
+    }
+
+    /**
+     * Length of the last stemmed word.
+     */
+    public int getResultLength() {
+        return i_end;
+    }
+
 
     /* cons(i) is true <=> b[i] is a consonant. */
     private final boolean cons(int i) {
@@ -175,14 +255,14 @@ public class Stemmer implements Function<Word, Word> {
         return true;
     }
 
-    private final boolean ends(String s) {
-        int l = s.length();
+    private final boolean ends(char[] s) {
+        int l = s.length;
         int o = k - l + 1;
         if (o < 0) {
             return false;
         }
         for (int i = 0; i < l; i++) {
-            if (b[o + i] != s.charAt(i)) {
+            if (b[o + i] != s[i]) {
                 return false;
             }
         }
@@ -193,18 +273,15 @@ public class Stemmer implements Function<Word, Word> {
   /* setto(s) sets (j+1),...k to the characters in the string s, readjusting
      k. */
 
-    private void setto(String s) {
-        int l = s.length();
-        int o = j + 1;
-        for (int i = 0; i < l; i++) {
-            b[o + i] = s.charAt(i);
-        }
+    private void setto(char[] s) {
+        int l = s.length;
+        System.arraycopy(s, 0, b, j + 1, l);
         k = j + l;
     }
 
   /* r(s) is used further down. */
 
-    private final void r(String s) {
+    private final void r(char[] s) {
         if (m() > 0) {
             setto(s);
         }
@@ -229,26 +306,26 @@ public class Stemmer implements Function<Word, Word> {
 
     private void step1() {
         if (b[k] == 's') {
-            if (ends("sses")) {
+            if (ends(SSES)) {
                 k -= 2;
-            } else if (ends("ies")) {
-                setto("i");
+            } else if (ends(IES)) {
+                setto(I);
             } else if (b[k - 1] != 's') {
                 k--;
             }
         }
-        if (ends("eed")) {
+        if (ends(EED)) {
             if (m() > 0) {
                 k--;
             }
-        } else if ((ends("ed") || ends("ing")) && vowelinstem()) {
+        } else if ((ends(ED) || ends(ING)) && vowelinstem()) {
             k = j;
-            if (ends("at")) {
-                setto("ate");
-            } else if (ends("bl")) {
-                setto("ble");
-            } else if (ends("iz")) {
-                setto("ize");
+            if (ends(AT)) {
+                setto(ATE);
+            } else if (ends(BL)) {
+                setto(BLE);
+            } else if (ends(IZ)) {
+                setto(IZE);
             } else if (doublec(k)) {
                 k--;
                 {
@@ -258,7 +335,7 @@ public class Stemmer implements Function<Word, Word> {
                     }
                 }
             } else if (m() == 1 && cvc(k)) {
-                setto("e");
+                setto(E);
             }
         }
     }
@@ -266,7 +343,7 @@ public class Stemmer implements Function<Word, Word> {
   /* step2() turns terminal y to i when there is another vowel in the stem. */
 
     private final void step2() {
-        if (ends("y") && vowelinstem()) {
+        if (ends(Y) && vowelinstem()) {
             b[k] = 'i';
         }
     }
@@ -281,102 +358,102 @@ public class Stemmer implements Function<Word, Word> {
         }
         switch (b[k - 1]) {
             case 'a':
-                if (ends("ational")) {
-                    r("ate");
+                if (ends(ATIONAL)) {
+                    r(ATE);
                     break;
                 }
-                if (ends("tional")) {
-                    r("tion");
+                if (ends(TIONAL)) {
+                    r(TION);
                     break;
                 }
                 break;
             case 'c':
-                if (ends("enci")) {
-                    r("ence");
+                if (ends(ENCI)) {
+                    r(ENCE);
                     break;
                 }
-                if (ends("anci")) {
-                    r("ance");
+                if (ends(ANCI)) {
+                    r(ANCE);
                     break;
                 }
                 break;
             case 'e':
-                if (ends("izer")) {
-                    r("ize");
+                if (ends(IZER)) {
+                    r(IZE);
                     break;
                 }
                 break;
             case 'l':
-                if (ends("bli")) {
-                    r("ble");
+                if (ends(BLI)) {
+                    r(BLE);
                     break;
                 }
-                if (ends("alli")) {
-                    r("al");
+                if (ends(ALLI)) {
+                    r(AL);
                     break;
                 }
-                if (ends("entli")) {
-                    r("ent");
+                if (ends(ENTLI)) {
+                    r(ENT);
                     break;
                 }
-                if (ends("eli")) {
-                    r("e");
+                if (ends(ELI)) {
+                    r(E);
                     break;
                 }
-                if (ends("ousli")) {
-                    r("ous");
+                if (ends(OUSLI)) {
+                    r(OUS);
                     break;
                 }
                 break;
             case 'o':
-                if (ends("ization")) {
-                    r("ize");
+                if (ends(IZATION)) {
+                    r(IZE);
                     break;
                 }
-                if (ends("ation")) {
-                    r("ate");
+                if (ends(ATION)) {
+                    r(ATE);
                     break;
                 }
-                if (ends("ator")) {
-                    r("ate");
+                if (ends(ATOR)) {
+                    r(ATE);
                     break;
                 }
                 break;
             case 's':
-                if (ends("alism")) {
-                    r("al");
+                if (ends(ALISM)) {
+                    r(AL);
                     break;
                 }
-                if (ends("iveness")) {
-                    r("ive");
+                if (ends(IVENESS)) {
+                    r(IVE);
                     break;
                 }
-                if (ends("fulness")) {
-                    r("ful");
+                if (ends(FULNESS)) {
+                    r(FUL);
                     break;
                 }
-                if (ends("ousness")) {
-                    r("ous");
+                if (ends(OUSNESS)) {
+                    r(OUS);
                     break;
                 }
                 break;
             case 't':
-                if (ends("aliti")) {
-                    r("al");
+                if (ends(ALITI)) {
+                    r(AL);
                     break;
                 }
-                if (ends("iviti")) {
-                    r("ive");
+                if (ends(IVITI)) {
+                    r(IVE);
                     break;
                 }
-                if (ends("biliti")) {
-                    r("ble");
+                if (ends(BILITI)) {
+                    r(BLE);
                     break;
                 }
                 break;
             case 'g':
-                if (ends("logi")) {
-                    r("log");
+                if (ends(LOGI)) {
+                    r(LOG);
                     break;
                 }
         }
@@ -387,38 +464,38 @@ public class Stemmer implements Function<Word, Word> {
     private final void step4() {
         switch (b[k]) {
             case 'e':
-                if (ends("icate")) {
-                    r("ic");
+                if (ends(ICATE)) {
+                    r(IC);
                     break;
                 }
-                if (ends("ative")) {
-                    r("");
+                if (ends(ATIVE)) {
+                    r(NOTHING);
                     break;
                 }
-                if (ends("alize")) {
-                    r("al");
+                if (ends(ALIZE)) {
+                    r(AL);
                     break;
                 }
                 break;
             case 'i':
-                if (ends("iciti")) {
-                    r("ic");
+                if (ends(ICITI)) {
+                    r(IC);
                     break;
                 }
                 break;
             case 'l':
-                if (ends("ical")) {
-                    r("ic");
+                if (ends(ICAL)) {
+                    r(IC);
                     break;
                 }
-                if (ends("ful")) {
-                    r("");
+                if (ends(FUL)) {
+                    r(NOTHING);
                     break;
                 }
                 break;
             case 's':
-                if (ends("ness")) {
-                    r("");
+                if (ends(NESS)) {
+                    r(NOTHING);
                     break;
                 }
                 break;
@@ -433,86 +510,86 @@ public class Stemmer implements Function<Word, Word> {
         }
         switch (b[k - 1]) {
             case 'a':
-                if (ends("al")) {
+                if (ends(AL)) {
                     break;
                 }
                 return;
             case 'c':
-                if (ends("ance")) {
+                if (ends(ANCE)) {
                     break;
                 }
-                if (ends("ence")) {
+                if (ends(ENCE)) {
                     break;
                 }
                 return;
             case 'e':
-                if (ends("er")) {
+                if (ends(ER)) {
                     break;
                 }
                 return;
             case 'i':
-                if (ends("ic")) {
+                if (ends(IC)) {
                     break;
                 }
                 return;
             case 'l':
-                if (ends("able")) {
+                if (ends(ABLE)) {
                     break;
                 }
-                if (ends("ible")) {
+                if (ends(IBLE)) {
                     break;
                 }
                 return;
             case 'n':
-                if (ends("ant")) {
+                if (ends(ANT)) {
                     break;
                 }
-                if (ends("ement")) {
+                if (ends(EMENT)) {
                     break;
                 }
-                if (ends("ment")) {
+                if (ends(MENT)) {
                     break;
                 }
         /* element etc. not stripped before the m */
-                if (ends("ent")) {
+                if (ends(ENT)) {
                     break;
                 }
                 return;
             case 'o':
-                if (ends("ion") && j >= 0 && (b[j] == 's' || b[j] == 't')) {
+                if (ends(ION) && j >= 0 && (b[j] == 's' || b[j] == 't')) {
                     break;
                 }
         /* j >= 0 fixes Bug 2 */
-                if (ends("ou")) {
+                if (ends(OU)) {
                     break;
                 }
                 return;
         /* takes care of -ous */
             case 's':
-                if (ends("ism")) {
+                if (ends(ISM)) {
                     break;
                 }
                 return;
             case 't':
-                if (ends("ate")) {
+                if (ends(ATE)) {
                     break;
                 }
-                if (ends("iti")) {
+                if (ends(ITI)) {
                     break;
                 }
                 return;
             case 'u':
-                if (ends("ous")) {
+                if (ends(OUS)) {
                     break;
                 }
                 return;
             case 'v':
-                if (ends("ive")) {
+                if (ends(IVE)) {
                     break;
                 }
                 return;
             case 'z':
-                if (ends("ize")) {
+                if (ends(IZE)) {
                     break;
                 }
                 return;
@@ -540,7 +617,7 @@ public class Stemmer implements Function<Word, Word> {
     }
 
     /**
-     * Stem the word placed into the Stemmer buffer through calls to add().
+     * Stem the word placed into the Stemmer buffer by one of stem methods.
      * Returns true if the stemming process resulted in a word different
      * from the input.  You can retrieve the result with
      * getResultLength()/getResultBuffer() or toString().
@@ -586,17 +663,51 @@ public class Stemmer implements Function<Word, Word> {
 
     /**
      * Stems <code>s</code> and returns stemmed <code>String</code>.
+     * The result is the only allocated object.
      */
 
     public String stem(String s) {
-        char[] characters = s.toCharArray();
-        for (char character : characters) {
-            add(character);
-        }
+        int len = s.length();
+        ensureCapacity(len);
+        s.getChars(0, len, b, 0);
+        i = len;
         stem();
         return toString();
     }
 
+    /**
+     * Stems <code>len</code> chars of <code>buf</code> starting at
+     * <code>off</code> in place. Stemmed word is never longer than the
+     * original one. Nothing is allocated.
+     *
+     * @return length of the stemmed word, which starts at <code>off</code>
+     */
+    public int stem(char[] buf, int off, int len) {
+        ensureCapacity(len);
+        System.arraycopy(buf, off, b, 0, len);
+        i = len;
+        stem();
+        System.arraycopy(b, 0, buf, off, i_end);
+        return i_end;
+    }
+
+    /**
+     * Stems <code>len</code> chars of <code>s</code> starting at
+     * <code>off</code>. Nothing is allocated: the stemmed word can be
+     * read from getResultBuffer() starting at index 0.
+     *
+     * @return length of the stemmed word, same as getResultLength()
+     */
+    public int stem(CharSequence s, int off, int len) {
+        ensureCapacity(len);
+        for (int c = 0; c < len; c++) {
+            b[c] = s.charAt(off + c);
+        }
+        i = len;
+        stem();
+        return i_end;
+    }
+
     /**
      * Stems <code>w</code> and returns stemmed <code>Word</code>.
      */
@@ -10,13 +10,19 @@ import java.io.FileInputStream;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 /**
@@ -27,20 +33,42 @@ import java.util.stream.Collectors;
  * @see Connection
  */
 @Log4j2
-class Store implements AutoCloseable {
+class Store implements LinkStore {
     /**
      * Needful SQL queries that used to interact with database.
      */
     private static final String CREATE_TABLES = "SELECT create_tables()";
     private static final String DROP_TABLES = "SELECT drop_tables()";
     private static final String INSERT_INTO_LINKS = "SELECT insert_line(?, ?, ?)";
-    private static final String SELECT_QUERIES = "SELECT q, cou FROM select_queries(?)";
-    private static final String SELECT_DOCUMENTS = "SELECT doc, cou FROM select_documents(?)";
-    private static final String CREATE_PRE_CLUSTER = "SELECT * FROM pre_cluster()";
+    private static final String INSERT_QUERY_NAME = "SELECT insert_query_name(?, ?)";
+    private static final String INSERT_DOCUMENT_NAME = "SELECT insert_document_name(?, ?)";
+    private static final String CREATE_LINKS_STAGE = "SELECT create_links_stage(?)";
+    private static final String SELECT_QUERIES_OF = "SELECT doc, q, cou FROM select_queries_of(?)";
+    private static final String SELECT_DOCUMENTS_OF = "SELECT q, doc, cou FROM select_documents_of(?)";
+    private static final String SELECT_SHARED_LINKS = "SELECT query, document FROM select_shared_links()";
+    private static final String LABEL_LINKS = "SELECT label_links()";
+    private static final String SELECT_COMPONENT = "SELECT query, document, count FROM select_component(?)";
     private static final String COMPACT_LINKS = "SELECT compact_links()";
+    private static final String CREATE_WORKER_TABLES = "SELECT create_worker_tables()";
+    private static final String DROP_WORKER_TABLES = "SELECT drop_worker_tables()";
     private static final String CREATE_CLUSTER_TABLES = "SELECT create_cluster_tables()";
+    private static final String INDEX_CLUSTER_TABLES = "SELECT index_cluster_tables()";
     private static final String COMBINE_ALL = "SELECT * FROM combine_all(?)";
-    private static final String SELECT_CLUSTERS = "SELECT * FROM select_clusters()";
+    private static final String SAVE_CLUSTERS = "SELECT save_clusters(?, ?)";
+    private static final String SELECT_CLUSTERS = "SELECT cluster, q FROM select_clusters()";
+    private static final String SELECT_COMPONENT_CLUSTERS =
+            "SELECT cluster, q FROM select_component_clusters(?)";
+    private static final String SELECT_UNLABELLED_CLUSTERS =
+            "SELECT cluster, q FROM select_unlabelled_clusters()";
+
+    private static final String DEFAULT_PROFILE = "default";
+
+    /**
+     * Rows fetched at a time by cursors, which stream large results.
+     */
+    private static final int FETCH_SIZE = 10_000;
+
+    private static final int DEFAULT_SELECT_CACHE_SIZE = 10_000;
 
     /**
      * Path to the directory containing config file {@code db.properties}
@@ -59,6 +87,71 @@ class Store implements AutoCloseable {
      */
     private ComboPooledDataSource cpds;
 
+    /**
+     * Dictionaries of prepared queries and documents. Links are stored
+     * as ids, strings are saved once to lookup tables.
+     *
+     * @see Dictionary
+     */
+    private volatile Dictionary queries;
+    private volatile Dictionary documents;
+
+    /**
+     * Format of {@code COPY} used by {@link #load}, {@code null} if rows
+     * are loaded by {@link #insertAll(LongIntHashMap)}. Configured by
+     * {@code loader} ({@code copy} or {@code insert}) and
+     * {@code copyFormat} ({@code binary} or {@code text}) properties.
+     */
+    private CopyLoader.Format copyFormat;
+
+    /**
+     * Name of the schema profile. Script {@code init_<profile>.sql} is
+     * executed after {@code init.sql} and replaces some of its functions,
+     * {@code default} profile has no such script. Configured by
+     * {@code profile} property.
+     */
+    private String profile;
+
+    /**
+     * Engine of clustering, configured by {@code engine} property
+     * ({@code memory}, {@code rnn} or {@code sql}).
+     */
+    private Clusterizator.Engine engine;
+
+    /**
+     * Pruning of pairs of queries, configured by {@code pruning} and
+     * {@code topNeighbours} properties.
+     *
+     * @see CandidatePruning
+     */
+    private CandidatePruning pruning;
+
+    /**
+     * Names of staging tables created since the last compaction, by
+     * writer number.
+     */
+    private final Map<Integer, String> stages = new ConcurrentHashMap<>();
+
+    /**
+     * Read-through caches of {@link #selectSetsOfDocuments} and
+     * {@link #selectSetsOfQueries} by key, {@code null} if disabled.
+     * Configured by {@code selectCacheSize} property, maximum count of
+     * keys in each cache, 0 disables them.
+     */
+    private BoundedCache<String, Map<String, Integer>> documentsCache;
+    private BoundedCache<String, Map<String, Integer>> queriesCache;
+
+    /**
+     * Count of writes to links. Links change until compaction, so sets are
+     * cached only while it equals {@code compactedAt}, its value after the
+     * last {@link #compact()}, which empties the caches.
+     */
+    private final AtomicLong writes = new AtomicLong();
+    private volatile long compactedAt = -1;
+
+    private final ThreadLocal<CopyLoader> copyLoader =
+            ThreadLocal.withInitial(() -> new CopyLoader(copyFormat));
+
     /**
      * Constructs Store using specified {@code pathToConfig}. Tunes the
      * connection pool.
@@ -93,6 +186,71 @@ class Store implements AutoCloseable {
         cpds.setMinPoolSize(minPoolSize);
         cpds.setMaxPoolSize(maxPoolSize);
         cpds.setAcquireIncrement(1);
+        profile = properties.getProperty("profile", DEFAULT_PROFILE);
+        engine = Clusterizator.Engine.valueOf(
+                properties.getProperty("engine", "memory").toUpperCase());
+        pruning = CandidatePruning.of(properties);
+        if (!"insert".equalsIgnoreCase(properties.getProperty("loader", "copy"))) {
+            copyFormat = CopyLoader.Format.valueOf(
+                    properties.getProperty("copyFormat", "binary").toUpperCase());
+        }
+        int selectCacheSize;
+        try {
+            selectCacheSize = Integer.parseInt(properties.getProperty("selectCacheSize"));
+        } catch (Exception e) {
+            selectCacheSize = DEFAULT_SELECT_CACHE_SIZE;
+        }
+        if (selectCacheSize > 0) {
+            documentsCache = new BoundedCache<>(selectCacheSize);
+            queriesCache = new BoundedCache<>(selectCacheSize);
+        }
+        resetDictionaries();
+    }
+
+    /**
+     * Creates empty dictionaries. Ids of queries start from 1, id 0 of
+     * documents is reserved for {@code 'other'}, which is predefined in
+     * database.
+     */
+    private void resetDictionaries() {
+        queries = new Dictionary(1);
+        documents = new Dictionary(1);
+        documents.reserve(Links.OTHER_NAME, Links.OTHER);
+    }
+
+    /**
+     * @return dictionary of prepared queries
+     */
+    @Override
+    public Dictionary getQueries() {
+        return queries;
+    }
+
+    /**
+     * @return dictionary of documents
+     */
+    @Override
+    public Dictionary getDocuments() {
+        return documents;
+    }
+
+    /**
+     * @return configured engine of clustering
+     */
+    @Override
+    public Clusterizator.Engine getEngine() {
+        return engine;
+    }
+
+    /**
+     * Returns maximum size of the connection pool, that is how many
+     * statements can run concurrently.
+     *
+     * @return maximum count of connections in the pool
+     */
+    @Override
+    public int getMaxPoolSize() {
+        return cpds.getMaxPoolSize();
     }
 
     /**
@@ -107,18 +265,26 @@ class Store implements AutoCloseable {
 
     /**
      * Creates database using the {@code init.sql} script from specified by
-     * {@code pathToConfig} directory.
+     * {@code pathToConfig} directory, followed by the script of configured
+     * profile, if any.
+     *
+     * @see #profile
      */
-    void createDB() {
+    @Override
+    public void createDB() {
         executeSQL(pathToConfig + "/init.sql");
-        log.info("Database created");
+        if (!DEFAULT_PROFILE.equals(profile)) {
+            executeSQL(pathToConfig + "/init_" + profile + ".sql");
+        }
+        log.info(String.format("Database created with %s profile", profile));
     }
 
     /**
      * Drops database using the {@code drop.sql} script from specified by
      * {@code pathToConfig} directory.
      */
-    void dropDB() {
+    @Override
+    public void dropDB() {
         executeSQL(pathToConfig + "/drop.sql");
         log.info("Database dropped");
     }
@@ -136,26 +302,32 @@ class Store implements AutoCloseable {
 
     /**
      * Creates tables required to correct work of application. Uses stored
-     * procedure from {@code init.sql} script.
+     * procedure from {@code init.sql} script. Dictionaries are emptied.
      */
+    @Override
     @SneakyThrows(SQLException.class)
-    void createTables() {
+    public void createTables() {
         try (val connection = getConnection();
              val statement = connection.createStatement()) {
             statement.execute(CREATE_TABLES);
         }
+        writes.incrementAndGet();
+        stages.clear();
+        resetDictionaries();
     }
 
     /**
      * Drops all used tables. Uses stored procedure from {@code init.sql}
      * script.
      */
+    @Override
     @SneakyThrows(SQLException.class)
-    void dropTables() {
+    public void dropTables() {
         try (val connection = getConnection();
              val statement = connection.createStatement()) {
             statement.execute(DROP_TABLES);
         }
+        writes.incrementAndGet();
     }
 
     /**
@@ -166,12 +338,14 @@ class Store implements AutoCloseable {
      * @param document document name
      * @param count    count of links between query and document
      */
+    @Override
     @SneakyThrows(SQLException.class)
-    void insert(String query, String document, int count) {
+    public void insert(String query, String document, int count) {
+        writes.incrementAndGet();
         try (val connection = getConnection();
              val statement = connection.prepareStatement(INSERT_INTO_LINKS)) {
-            statement.setString(1, query);
-            statement.setString(2, document);
+            statement.setInt(1, queries.idOf(query));
+            statement.setInt(2, documents.idOf(document));
             statement.setInt(3, count);
             statement.execute();
         }
@@ -186,31 +360,159 @@ class Store implements AutoCloseable {
      *            Value is the count of links between those query and document.
      * @see Tuple2
      */
-    void insertAll(Map<Tuple2<String, String>, Integer> map) {
+    @Override
+    public void insertAll(Map<Tuple2<String, String>, Integer> map) {
+        val links = new LongIntHashMap(map.size());
+        map.forEach((tuple, count) ->
+                links.add(Links.link(queries.idOf(tuple._1), documents.idOf(tuple._2)), count));
+        insertAll(links);
+    }
+
+    /**
+     * Insert into database entries about specified rows. Uses stored procedure
+     * from {@code init.sql} script.
+     *
+     * @param links map, each entry of which represents one row. Key is a
+     *              link of query and document ids, value is the count of
+     *              links between those query and document.
+     * @see Links
+     */
+    void insertAll(LongIntHashMap links) {
+        writes.incrementAndGet();
         try (val connection = getConnection();
              val statement = connection
                      .prepareStatement(INSERT_INTO_LINKS,
                              Statement.NO_GENERATED_KEYS)) {
-            map.forEach((tuple, count) -> {
+            addBatch(statement, links);
+            statement.executeBatch();
+            log.info(String.format("%d rows inserted", links.size()));
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Adds every row of {@code links} to the batch of {@code statement} of
+     * {@code INSERT_INTO_LINKS}.
+     */
+    static void addBatch(PreparedStatement statement, LongIntHashMap links) throws SQLException {
+        val failure = new SQLException[1];
+        links.forEach((link, count) -> {
+            try {
+                statement.setInt(1, Links.query(link));
+                statement.setInt(2, Links.document(link));
+                statement.setInt(3, count);
+                statement.addBatch();
+            } catch (SQLException e) {
+                failure[0] = e;
+            }
+        });
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+    }
+
+    /**
+     * Loads rows written by specified writer. Uses the configured loader:
+     * with {@code COPY} rows are streamed to the staging table of the
+     * writer, which is merged into {@code links} by {@link #compact()}.
+     * Otherwise they are inserted with {@link #insertAll(LongIntHashMap)}.
+     *
+     * @param links  map, each entry of which represents one row, see
+     *               {@link #insertAll(LongIntHashMap)}
+     * @param writer number of the writer, writers with different numbers
+     *               do not share a staging table
+     */
+    @Override
+    public void load(LongIntHashMap links, int writer) {
+        if (copyFormat == null) {
+            insertAll(links);
+        } else {
+            copyAll(links, writer);
+        }
+    }
+
+    /**
+     * Copies entries about specified rows to the staging table of
+     * specified writer, creating it at first.
+     *
+     * @see CopyLoader
+     */
+    @SneakyThrows(SQLException.class)
+    void copyAll(LongIntHashMap links, int writer) {
+        writes.incrementAndGet();
+        try (val connection = getConnection()) {
+            val rows = copyLoader.get().load(connection, stage(connection, writer), links);
+            log.info(String.format("%d rows copied", rows));
+        }
+    }
+
+    private String stage(Connection connection, int writer) throws SQLException {
+        val stage = stages.get(writer);
+        if (stage != null) {
+            return stage;
+        }
+        try (val statement = connection.prepareStatement(CREATE_LINKS_STAGE)) {
+            statement.setInt(1, writer);
+            try (val rs = statement.executeQuery()) {
+                rs.next();
+                val created = rs.getString(1);
+                stages.put(writer, created);
+                return created;
+            }
+        }
+    }
+
+    /**
+     * Saves names that got their ids since the previous call to lookup
+     * tables. Uses stored procedures from {@code init.sql} script. The
+     * pool is not touched if there are no such names.
+     */
+    @SneakyThrows(SQLException.class)
+    void saveNames() {
+        if (!queries.hasUnsaved() && !documents.hasUnsaved()) {
+            return;
+        }
+        try (val connection = getConnection()) {
+            saveNames(connection);
+        }
+    }
+
+    private void saveNames(Connection connection) throws SQLException {
+        saveNames(connection, INSERT_QUERY_NAME, queries);
+        saveNames(connection, INSERT_DOCUMENT_NAME, documents);
+    }
+
+    private void saveNames(Connection connection, String query, Dictionary dictionary)
+            throws SQLException {
+        if (!dictionary.hasUnsaved()) {
+            return;
+        }
+        try (val statement = connection.prepareStatement(query)) {
+            val failure = new SQLException[1];
+            val count = dictionary.drainUnsaved((name, id) -> {
                 try {
-                    statement.setString(1, tuple._1);
-                    statement.setString(2, tuple._2);
-                    statement.setInt(3, count);
+                    statement.setInt(1, id);
+                    statement.setString(2, name);
                     statement.addBatch();
                 } catch (SQLException e) {
-                    e.printStackTrace();
+                    failure[0] = e;
                 }
             });
-            statement.executeBatch();
-            log.info(String.format("%d rows inserted", map.size()));
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+            if (count > 0) {
+                statement.executeBatch();
+                log.info(String.format("%d names saved", count));
+            }
         }
     }
 
     /**
      * Compacts entries in database, that is group entries with the same
-     * query and document and sum their counts. Uses stored procedure from
+     * query and document and sum their counts. Rows of staging tables are
+     * moved to {@code links} first. Uses stored procedure from
      * {@code init.sql} script.
      * <p>
      * <p>For example, two rows before compact looks like
@@ -246,52 +548,124 @@ class Store implements AutoCloseable {
      * </tr>
      * </table>
      */
+    @Override
     @SneakyThrows(SQLException.class)
-    void compact() {
+    public void compact() {
+        writes.incrementAndGet();
+        saveNames();
         try (val connection = getConnection();
              val statement = connection.createStatement()) {
             statement.execute(COMPACT_LINKS);
         }
+        stages.clear();
+        if (documentsCache != null) {
+            documentsCache.clear();
+            queriesCache.clear();
+        }
+        compactedAt = writes.get();
     }
 
     /**
-     * Creates pre-cluster table. This function moves all rows with
-     * same documents into one table. It firstly takes one query
-     * with the most count of documents and moves it to separate
-     * table. After, it looks for all queries with the same document
-     * and moves them to this table too. And so on, until there is
-     * nothing to move.
+     * Labels every query with its connected component in one pass: links
+     * to shared documents are streamed with a cursor into
+     * {@link QueryComponents}, queries of components, which have at least
+     * two queries, are copied with their labels to {@code components}
+     * table. Then rows of {@code links} are labelled by SQL function
+     * {@code label_links()}, so {@link #computePairs(int, float)} gets a
+     * component by its id.
      *
-     * @return pre-cluster table's size
+     * @return ids of components of at least two queries, larger first
      */
+    @Override
     @SneakyThrows(SQLException.class)
-    int createPreCluster() {
-        try (val connection = getConnection();
-             val statement = connection.createStatement()) {
-            val rs = statement.executeQuery(CREATE_PRE_CLUSTER);
-            if (!rs.next()) {
-                log.error("pre_cluster() returns nothing");
-                return -1;
+    public int[] labelComponents() {
+        val components = new QueryComponents();
+        try (val connection = getConnection()) {
+            //cursors are used only inside transactions
+            connection.setAutoCommit(false);
+            try (val statement = connection.createStatement()) {
+                statement.setFetchSize(FETCH_SIZE);
+                try (val rs = statement.executeQuery(SELECT_SHARED_LINKS)) {
+                    while (rs.next()) {
+                        components.add(rs.getInt(1), rs.getInt(2));
+                    }
+                }
+            } finally {
+                connection.commit();
+                connection.setAutoCommit(true);
+            }
+
+            val queries = new int[components.size()];
+            val labels = new int[components.size()];
+            val count = components.labels(2, queries, labels);
+            new CopyLoader(CopyLoader.Format.BINARY)
+                    .load(connection, "components", "query, component", queries, labels, count);
+            try (val statement = connection.createStatement()) {
+                statement.execute(LABEL_LINKS);
             }
-            val res = rs.getInt(1);
-            log.info(String.format("Created pre cluster with %d rows", res));
-            return res;
+            val result = components.components(2);
+            log.info(String.format("%d queries labelled, %d components to cluster",
+                    components.size(), result.length));
+            return result;
         }
     }
 
     /**
-     * Creates tables required to clustering. Uses stored
-     * procedure from {@code init.sql} script.
-     * <p>
-     * <p>It also creates table, containing almost result of CROSS JOIN of
-     * the existing table, received in the previous steps (that's why those
-     * tables creates not at start of application).
+     * Computes pairs of queries of specified component, that is rows of
+     * {@code links_cluster} table. Rows of the component are selected by
+     * stored procedure from {@code init.sql} script, pairs are computed
+     * in parallel by {@link PairSimilarities} instead of a self-join in
+     * database and pruned as configured.
+     *
+     * @param component id of component from {@link #labelComponents()}
+     * @param threshold threshold of the meaning "similar", see
+     *                  {@link #combineAll(float)}
+     * @return pairs of queries with shared documents
+     */
+    @SneakyThrows(SQLException.class)
+    PairSimilarities computePairs(int component, float threshold) {
+        try (val connection = getConnection()) {
+            return computePairs(connection, component, threshold, pruning);
+        }
+    }
+
+    private static PairSimilarities computePairs(Connection connection, int component,
+                                                 float threshold, CandidatePruning pruning)
+            throws SQLException {
+        val links = new LongIntHashMap();
+        try (val statement = connection.prepareStatement(SELECT_COMPONENT)) {
+            statement.setInt(1, component);
+            try (val rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    links.add(Links.link(rs.getInt(1), rs.getInt(2)), rs.getInt(3));
+                }
+            }
+        }
+        val pairs = PairSimilarities.compute(LinkGraph.of(links), threshold, pruning);
+        log.info(String.format("Computed %d pairs of %d rows", pairs.size(), links.size()));
+        return pairs;
+    }
+
+    /**
+     * Creates tables required to clustering: copies specified pairs to
+     * {@code links_cluster} table. Uses stored procedures from
+     * {@code init.sql} script.
+     *
+     * @param pairs pairs from {@link #computePairs(int, float)}
      */
     @SneakyThrows
-    void createClusterTables() {
-        try (val connection = getConnection();
-             val statement = connection.createStatement()) {
+    void createClusterTables(PairSimilarities pairs) {
+        try (val connection = getConnection()) {
+            createClusterTables(connection, pairs);
+        }
+    }
+
+    private static void createClusterTables(Connection connection, PairSimilarities pairs)
+            throws SQLException {
+        try (val statement = connection.createStatement()) {
             statement.execute(CREATE_CLUSTER_TABLES);
+            new CopyLoader(CopyLoader.Format.BINARY).load(connection, "links_cluster", pairs);
+            statement.execute(INDEX_CLUSTER_TABLES);
         }
     }
 
@@ -307,80 +681,397 @@ class Store implements AutoCloseable {
      */
     @SneakyThrows
     void combineAll(float threshold) {
-        try (val connection = getConnection();
-             val preparedStatement = connection.prepareStatement(COMBINE_ALL)) {
+        try (val connection = getConnection()) {
+            combineAll(connection, threshold);
+        }
+    }
+
+    private static void combineAll(Connection connection, float threshold) throws SQLException {
+        try (val preparedStatement = connection.prepareStatement(COMBINE_ALL)) {
             preparedStatement.setFloat(1, threshold);
             preparedStatement.execute();
         }
     }
 
+    /**
+     * Does the same as {@link #combineAll(float)}, but in memory: pairs
+     * are loaded to {@link AgglomerativeClustering} and members of formed
+     * clusters are saved to {@code clusters} table as children of the
+     * first member. Uses stored procedure from {@code init.sql} script.
+     *
+     * @param pairs     pairs from {@link #computePairs(int, float)}
+     * @param threshold threshold of the meaning "similar", see
+     *                  {@link #combineAll(float)}
+     */
+    @SneakyThrows
+    void combineInMemory(PairSimilarities pairs, float threshold) {
+        try (val connection = getConnection()) {
+            combineInMemory(connection, pairs, threshold, Clusterizator.Engine.MEMORY);
+        }
+    }
+
+    private static void combineInMemory(Connection connection, PairSimilarities pairs,
+                                        float threshold, Clusterizator.Engine engine)
+            throws SQLException {
+        val clustering = new AgglomerativeClustering(threshold);
+        pairs.addTo(clustering);
+        val merges = engine == Clusterizator.Engine.RNN ? clustering.runRounds() : clustering.run();
+        if (merges == 0) {
+            return;
+        }
+        val queries = new ArrayList<Integer>();
+        val parents = new ArrayList<Integer>();
+        for (val cluster : clustering.clusters()) {
+            for (int i = 1; i < cluster.length; i++) {
+                queries.add(cluster[i]);
+                parents.add(cluster[0]);
+            }
+        }
+        try (val statement = connection.prepareStatement(SAVE_CLUSTERS)) {
+            statement.setObject(1, queries.toArray(new Integer[0]));
+            statement.setObject(2, parents.toArray(new Integer[0]));
+            statement.execute();
+        }
+        log.info(String.format("%d merges in memory, %d rounds", merges,
+                engine == Clusterizator.Engine.RNN ? clustering.rounds() : merges));
+    }
+
+    /**
+     * Clusters specified component in the shared tables: computes pairs
+     * of its queries, then merges clusters with specified engine. The
+     * memory engines take pairs as they are, the SQL one gets them
+     * through {@code links_cluster} table.
+     *
+     * @see #computePairs(int, float)
+     * @see #createClusterTables(PairSimilarities)
+     * @see #combineAll(float)
+     * @see #combineInMemory(PairSimilarities, float)
+     */
+    @Override
+    @SneakyThrows(SQLException.class)
+    public void cluster(int component, float threshold, Clusterizator.Engine engine) {
+        try (val connection = getConnection()) {
+            cluster(connection, component, threshold, engine, pruning);
+        }
+    }
+
+    private static void cluster(Connection connection, int component, float threshold,
+                                Clusterizator.Engine engine, CandidatePruning pruning)
+            throws SQLException {
+        val pairs = computePairs(connection, component, threshold, pruning);
+        if (engine != Clusterizator.Engine.SQL) {
+            combineInMemory(connection, pairs, threshold, engine);
+        } else {
+            createClusterTables(connection, pairs);
+            log.info("Cluster tables created");
+            combineAll(connection, threshold);
+        }
+        log.info("Clustering complete");
+    }
+
+    /**
+     * Opens a clustering session on a connection of its own. The session
+     * has a private temporary copy of cluster table, which shadows the
+     * shared one, so several sessions cluster different components
+     * concurrently. Formed clusters are written to the shared
+     * {@code clusters} table. Uses stored procedures from {@code init.sql}
+     * script.
+     *
+     * @return session, which must be closed to drop its tables and return
+     * the connection to the pool
+     */
+    @Override
+    @SneakyThrows(SQLException.class)
+    public Session openSession() {
+        val connection = getConnection();
+        try (val statement = connection.createStatement()) {
+            statement.execute(CREATE_WORKER_TABLES);
+        } catch (SQLException e) {
+            connection.close();
+            throw e;
+        }
+        return new Session(connection, pruning);
+    }
+
+    /**
+     * Clustering session, see {@link #openSession()}. Methods are the same
+     * as those of {@code Store}, but work with tables of the session.
+     * Not thread safe.
+     */
+    static class Session implements LinkStore.Session {
+        private final Connection connection;
+        private final CandidatePruning pruning;
+
+        private Session(Connection connection, CandidatePruning pruning) {
+            this.connection = connection;
+            this.pruning = pruning;
+        }
+
+        /**
+         * @see Store#cluster(int, float, Clusterizator.Engine)
+         */
+        @Override
+        @SneakyThrows(SQLException.class)
+        public void cluster(int component, float threshold, Clusterizator.Engine engine) {
+            Store.cluster(connection, component, threshold, engine, pruning);
+        }
+
+        /**
+         * Selects clusters of specified component on the connection of
+         * the session.
+         *
+         * @see Store#selectClusters(int, Consumer)
+         */
+        @Override
+        @SneakyThrows(SQLException.class)
+        public void selectClusters(int component, Consumer<List<String>> consumer) {
+            Store.selectClusters(connection, SELECT_COMPONENT_CLUSTERS, component, consumer);
+        }
+
+        /**
+         * @see Store#computePairs(int, float)
+         */
+        @SneakyThrows(SQLException.class)
+        PairSimilarities computePairs(int component, float threshold) {
+            return Store.computePairs(connection, component, threshold, pruning);
+        }
+
+        /**
+         * @see Store#createClusterTables(PairSimilarities)
+         */
+        @SneakyThrows(SQLException.class)
+        void createClusterTables(PairSimilarities pairs) {
+            Store.createClusterTables(connection, pairs);
+        }
+
+        /**
+         * @see Store#combineAll(float)
+         */
+        @SneakyThrows(SQLException.class)
+        void combineAll(float threshold) {
+            Store.combineAll(connection, threshold);
+        }
+
+        /**
+         * @see Store#combineInMemory(PairSimilarities, float)
+         */
+        @SneakyThrows(SQLException.class)
+        void combineInMemory(PairSimilarities pairs, float threshold) {
+            Store.combineInMemory(connection, pairs, threshold, Clusterizator.Engine.MEMORY);
+        }
+
+        /**
+         * Drops tables of the session and returns its connection to the
+         * pool.
+         */
+        @Override
+        @SneakyThrows(SQLException.class)
+        public void close() {
+            try (val statement = connection.createStatement()) {
+                statement.execute(DROP_WORKER_TABLES);
+            } finally {
+                connection.close();
+            }
+        }
+    }
+
     /**
      * Selects formed clusters (only consists of at less two queries). Uses
+     * stored procedure from {@code init.sql} script, which resolves
+     * cluster ids and replaces them by names of member queries.
+     */
+    @Override
+    @SneakyThrows
+    public void selectClusters(Consumer<List<String>> consumer) {
+        try (val connection = getConnection()) {
+            selectClusters(connection, SELECT_CLUSTERS, null, consumer);
+        }
+    }
+
+    /**
+     * Selects clusters of specified component, which is clustered in the
+     * shared tables. Uses stored procedure from {@code init.sql} script.
+     */
+    @Override
+    @SneakyThrows
+    public void selectClusters(int component, Consumer<List<String>> consumer) {
+        try (val connection = getConnection()) {
+            selectClusters(connection, SELECT_COMPONENT_CLUSTERS, component, consumer);
+        }
+    }
+
+    /**
+     * Selects clusters formed on compaction outside components. Uses
      * stored procedure from {@code init.sql} script.
-     *
-     * @return set of formed clusters
      */
+    @Override
     @SneakyThrows
-    Set<String> selectClusters() {
-        try (val connection = getConnection();
-             val statement = connection.createStatement();
-             val rs = statement.executeQuery(SELECT_CLUSTERS)) {
-            val result = new HashSet<String>();
-            while (rs.next()) {
-                result.add(rs.getString(1));
+    public void selectUnlabelledClusters(Consumer<List<String>> consumer) {
+        try (val connection = getConnection()) {
+            selectClusters(connection, SELECT_UNLABELLED_CLUSTERS, null, consumer);
+        }
+    }
+
+    /**
+     * Reads rows of a cluster id and a name, ordered by cluster, with a
+     * cursor and passes every cluster to {@code consumer} as soon as its
+     * rows are read.
+     *
+     * @param component parameter of the query, null if it has none
+     */
+    private static void selectClusters(Connection connection, String sql, Integer component,
+                                       Consumer<List<String>> consumer) throws SQLException {
+        //cursors are used only inside transactions
+        connection.setAutoCommit(false);
+        try (val statement = connection.prepareStatement(sql)) {
+            if (component != null) {
+                statement.setInt(1, component);
             }
-            return result;
+            statement.setFetchSize(FETCH_SIZE);
+            try (val rs = statement.executeQuery()) {
+                List<String> members = null;
+                int cluster = 0;
+                while (rs.next()) {
+                    if (members != null && rs.getInt(1) != cluster) {
+                        consumer.accept(members);
+                        members = null;
+                    }
+                    if (members == null) {
+                        cluster = rs.getInt(1);
+                        members = new ArrayList<>();
+                    }
+                    members.add(rs.getString(2));
+                }
+                if (members != null) {
+                    consumer.accept(members);
+                }
+            }
+        } finally {
+            connection.commit();
+            connection.setAutoCommit(true);
         }
     }
 
     /**
      * Selects document and count corresponding to specified {@code query}.
-     * Uses stored procedure from {@code init.sql} script.
      *
      * @param query interesting query
      * @return map, consist of document and count
+     * @see #selectSetsOfDocuments(Collection)
      */
-    Map<String, Integer> selectSetOfDocuments(String query) {
-        return selectMap(SELECT_DOCUMENTS, query);
+    @Override
+    public Map<String, Integer> selectSetOfDocuments(String query) {
+        return selectSetsOfDocuments(Collections.singleton(query)).get(query);
     }
 
     /**
      * Selects query and count corresponding to specified {@code document}.
-     * Uses stored procedure from {@code init.sql} script.
      *
      * @param document interesting document
      * @return map, consist of query and count
+     * @see #selectSetsOfQueries(Collection)
      */
-    Map<String, Integer> selectSetOfQueries(String document) {
-        return selectMap(SELECT_QUERIES, document);
+    @Override
+    public Map<String, Integer> selectSetOfQueries(String document) {
+        return selectSetsOfQueries(Collections.singleton(document)).get(document);
     }
 
+    /**
+     * Selects documents of all specified queries, which are not cached, in
+     * one call of stored procedure from {@code init.sql} script.
+     */
+    @Override
+    public Map<String, Map<String, Integer>> selectSetsOfDocuments(Collection<String> queries) {
+        return selectSets(SELECT_DOCUMENTS_OF, queries, documentsCache);
+    }
+
+    /**
+     * Selects queries of all specified documents, which are not cached, in
+     * one call of stored procedure from {@code init.sql} script.
+     */
+    @Override
+    public Map<String, Map<String, Integer>> selectSetsOfQueries(Collection<String> documents) {
+        return selectSets(SELECT_QUERIES_OF, documents, queriesCache);
+    }
+
+    /**
+     * Looks up sets of keys in the cache, selects the missing ones by an
+     * array parameter and caches them, unless links were written in the
+     * meantime.
+     *
+     * @param sql   query of rows of a key, a name and a count
+     * @param cache cache of sets, may be {@code null}
+     * @return unmodifiable sets by key
+     */
     @SneakyThrows(SQLException.class)
-    private Map<String, Integer> selectMap(String query, String value) {
-        try (val connection = getConnection();
-             val preparedStatement = connection.prepareStatement(query)) {
-            preparedStatement.setString(1, value);
-            try (val rs = preparedStatement.executeQuery()) {
-                val map = new HashMap<String, Integer>();
-                while (rs.next()) {
-                    String k = rs.getString(1);
-                    int v = rs.getInt(2);
-                    log.debug(String.format("Selected (%s, %d) from links table", k, v));
-                    map.put(k, v);
+    private Map<String, Map<String, Integer>> selectSets(String sql, Collection<String> keys,
+                                                        BoundedCache<String, Map<String, Integer>> cache) {
+        val version = writes.get();
+        val cached = cache != null && version == compactedAt;
+        val sets = new HashMap<String, Map<String, Integer>>();
+        val missing = new HashMap<String, Map<String, Integer>>();
+        for (val key : keys) {
+            val set = cached ? cache.get(key) : null;
+            if (set != null) {
+                sets.put(key, set);
+            } else {
+                missing.put(key, new HashMap<>());
+            }
+        }
+        if (missing.isEmpty()) {
+            return sets;
+        }
+
+        try (val connection = getConnection()) {
+            //names are saved on the same connection, without a second one
+            saveNames(connection);
+            try (val statement = connection.prepareStatement(sql)) {
+                statement.setObject(1, missing.keySet().toArray(new String[0]));
+                try (val rs = statement.executeQuery()) {
+                    while (rs.next()) {
+                        val key = rs.getString(1);
+                        val name = rs.getString(2);
+                        val count = rs.getInt(3);
+                        log.debug("Selected ({}, {}) of {} from links table", name, count, key);
+                        missing.computeIfAbsent(key, k -> new HashMap<>()).put(name, count);
+                    }
                 }
-                return map;
             }
         }
+        val cacheable = cached && writes.get() == version;
+        missing.forEach((key, set) -> {
+            val unmodifiable = Collections.unmodifiableMap(set);
+            if (cacheable) {
+                cache.put(key, unmodifiable);
+            }
+            sets.put(key, unmodifiable);
+        });
+        return sets;
+    }
+
+    /**
+     * @return cache of sets of documents of queries, {@code null} if it is
+     * disabled
+     */
+    BoundedCache<String, Map<String, Integer>> getDocumentsCache() {
+        return documentsCache;
+    }
+
+    /**
+     * @return cache of sets of queries of documents, {@code null} if it is
+     * disabled
+     */
+    BoundedCache<String, Map<String, Integer>> getQueriesCache() {
+        return queriesCache;
     }
 
     /**
      * Closes all connections in connection pool.
      *
-     * @throws SQLException if exception happened while closing.
      * @see ComboPooledDataSource
      */
     @Override
-    public void close() throws SQLException {
+    public void close() {
         cpds.close(true);
     }
 }
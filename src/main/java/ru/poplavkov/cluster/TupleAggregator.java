@@ -0,0 +1,94 @@
+package ru.poplavkov.cluster;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+import java.util.function.IntSupplier;
+import lombok.val;
+
+/**
+ * Counts (query, document) tuples without a global lock. Every worker
+ * thread aggregates into its own partition. When a partition reaches
+ * {@code countToFlush} entries (which may change over time), its map is
+ * handed off to the sink as is and replaced with an empty one, so nothing
+ * is copied. Remainders of all partitions are merged by {@link #flush()}.
+ *
+ * <p>Queries and documents are given by their dictionary ids, maps are
+ * keyed by {@link Links#link}.
+ */
+class TupleAggregator {
+    /**
+     * Count of distinct tuples in one partition that triggers hand off.
+     */
+    private final IntSupplier countToFlush;
+
+    /**
+     * Receives full maps. It is called from the worker thread that filled
+     * the map, so it should not block for long.
+     */
+    private final Consumer<LongIntHashMap> sink;
+
+    /**
+     * All partitions ever created. Used only by {@link #flush()}.
+     */
+    private final Queue<Partition> partitions = new ConcurrentLinkedQueue<>();
+
+    private final ThreadLocal<Partition> partition = ThreadLocal.withInitial(() -> {
+        Partition created = new Partition();
+        partitions.add(created);
+        return created;
+    });
+
+    TupleAggregator(IntSupplier countToFlush, Consumer<LongIntHashMap> sink) {
+        this.countToFlush = countToFlush;
+        this.sink = sink;
+    }
+
+    TupleAggregator(int countToFlush, Consumer<LongIntHashMap> sink) {
+        this(() -> countToFlush, sink);
+    }
+
+    /**
+     * Counts one more occurrence of specified tuple in the partition of
+     * the current thread.
+     */
+    void add(int query, int document) {
+        val current = partition.get();
+        current.map.add(Links.link(query, document), 1);
+        if (current.map.size() >= countToFlush.getAsInt()) {
+            val full = current.map;
+            current.map = new LongIntHashMap(full.size());
+            sink.accept(full);
+        }
+    }
+
+    /**
+     * Merges remainders of all partitions into the largest one and passes
+     * it to the sink. Must be called only when no thread is adding.
+     */
+    void flush() {
+        Partition largest = null;
+        for (val p : partitions) {
+            if (largest == null || p.map.size() > largest.map.size()) {
+                largest = p;
+            }
+        }
+        if (largest == null) {
+            return;
+        }
+        val merged = largest.map;
+        for (val p : partitions) {
+            if (p.map != merged) {
+                merged.addAll(p.map);
+            }
+            p.map = new LongIntHashMap();
+        }
+        if (!merged.isEmpty()) {
+            sink.accept(merged);
+        }
+    }
+
+    private static class Partition {
+        private LongIntHashMap map = new LongIntHashMap();
+    }
+}
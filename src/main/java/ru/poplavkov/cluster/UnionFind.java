@@ -0,0 +1,87 @@
+package ru.poplavkov.cluster;
+
+import java.util.Arrays;
+
+/**
+ * Disjoint sets of elements {@code 0 .. count() - 1}, merged with union
+ * by size and path halving, so any sequence of operations takes almost
+ * linear time. Elements are added one by one, arrays grow as needed.
+ *
+ * <p>Not thread safe.
+ */
+class UnionFind {
+    private int[] parents;
+    private int[] sizes;
+    private int count;
+
+    UnionFind(int expectedCount) {
+        parents = new int[Math.max(4, expectedCount)];
+        sizes = new int[parents.length];
+    }
+
+    UnionFind() {
+        this(16);
+    }
+
+    /**
+     * Adds a new element, which forms a set of its own.
+     *
+     * @return the element
+     */
+    int add() {
+        if (count == parents.length) {
+            parents = Arrays.copyOf(parents, count * 2);
+            sizes = Arrays.copyOf(sizes, count * 2);
+        }
+        parents[count] = count;
+        sizes[count] = 1;
+        return count++;
+    }
+
+    /**
+     * @return representative of the set of specified element, the same
+     * for all elements of the set until the next {@link #union}
+     */
+    int find(int element) {
+        while (parents[element] != element) {
+            parents[element] = parents[parents[element]];
+            element = parents[element];
+        }
+        return element;
+    }
+
+    /**
+     * Merges sets of specified elements.
+     *
+     * @return {@code false} if elements are already in the same set
+     */
+    boolean union(int first, int second) {
+        first = find(first);
+        second = find(second);
+        if (first == second) {
+            return false;
+        }
+        if (sizes[first] < sizes[second]) {
+            int swap = first;
+            first = second;
+            second = swap;
+        }
+        parents[second] = first;
+        sizes[first] += sizes[second];
+        return true;
+    }
+
+    /**
+     * @return count of elements in the set of specified element
+     */
+    int size(int element) {
+        return sizes[find(element)];
+    }
+
+    /**
+     * @return count of elements
+     */
+    int count() {
+        return count;
+    }
+}
@@ -1,10 +1,27 @@
 DROP FUNCTION create_tables();
 DROP FUNCTION drop_tables();
-DROP FUNCTION insert_line(TEXT, TEXT, INTEGER);
+DROP FUNCTION insert_line(INTEGER, INTEGER, INTEGER);
+DROP FUNCTION insert_query_name(INTEGER, TEXT);
+DROP FUNCTION insert_document_name(INTEGER, TEXT);
+DROP FUNCTION create_links_stage(INTEGER);
+DROP FUNCTION merge_links_stages();
+DROP FUNCTION drop_links_stages();
 DROP FUNCTION select_queries(TEXT);
 DROP FUNCTION select_documents(TEXT);
+DROP FUNCTION select_documents_of(TEXT[]);
+DROP FUNCTION select_queries_of(TEXT[]);
+DROP FUNCTION query_name(INTEGER);
+DROP FUNCTION query_id(TEXT);
 DROP FUNCTION compact_links();
+DROP FUNCTION create_worker_tables();
+DROP FUNCTION drop_worker_tables();
 DROP FUNCTION create_cluster_tables();
 DROP FUNCTION combine_all(REAL);
+DROP FUNCTION save_clusters(INTEGER[], INTEGER[]);
 DROP FUNCTION select_clusters();
-DROP FUNCTION pre_cluster();
\ No newline at end of file
+DROP FUNCTION select_component_clusters(INTEGER);
+DROP FUNCTION select_unlabelled_clusters();
+DROP FUNCTION select_shared_links();
+DROP FUNCTION label_links();
+DROP FUNCTION select_component(INTEGER);
+DROP FUNCTION index_cluster_tables();
\ No newline at end of file
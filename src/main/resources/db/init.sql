@@ -1,40 +1,53 @@
 --Инициализация БД, создание нужных таблиц
 CREATE OR REPLACE FUNCTION create_tables() RETURNS VOID AS $$
 BEGIN
+-- запросы и документы хранятся в виде целочисленных идентификаторов, строки
+-- записываются один раз в таблицы query_names и document_names
   CREATE TABLE links (
-    query    TEXT,
-    document TEXT,
+    query    INTEGER,
+    document INTEGER,
     count    INTEGER
   );
+  CREATE TABLE query_names (
+    id   INTEGER,
+    name TEXT
+  );
+  CREATE TABLE document_names (
+    id   INTEGER,
+    name TEXT
+  );
+-- документ с идентификатором 0 - 'other'
+  INSERT INTO document_names (id, name) VALUES (0, 'other');
+-- идентификаторы запросов, объединенных при сжатии, отрицательны, чтобы не
+-- пересекаться с идентификаторами, которые выдает приложение. Имен у них
+-- нет, их запросы перечислены в таблице query_members
+  CREATE SEQUENCE merged_query_id START -1 INCREMENT -1;
+  CREATE TABLE query_members (
+    query  INTEGER,
+    member INTEGER
+  );
   CREATE TABLE links_cluster (
-    q1 TEXT,
-    q2 TEXT,
+    q1 INTEGER,
+    q2 INTEGER,
     cou1 INTEGER,
     cou2 INTEGER,
     res REAL
   );
-  CREATE TABLE links_count (
-    query TEXT,
-    count INTEGER
-  );
+-- кластеры в виде леса системы непересекающихся множеств: при объединении
+-- двух кластеров один становится родителем другого, кластер обозначается
+-- идентификатором запроса в корне дерева. Объединение - вставка одной строки,
+-- состав кластеров вычисляется только при выводе
   CREATE TABLE clusters (
-    cluster TEXT
-  );
-  CREATE TABLE pre_clust (
-    query TEXT,
-    document TEXT,
-    count INTEGER
-  );
-  CREATE TABLE tmp (
-    query TEXT,
-    document TEXT,
-    count INTEGER
-  );
-  CREATE TABLE docs (
-    document TEXT
+    query  INTEGER,
+    parent INTEGER
   );
-  CREATE TABLE queries (
-    query TEXT
+-- индексы для обхода деревьев одной компоненты, см. select_component_clusters
+  CREATE INDEX clusters_query ON clusters (query);
+  CREATE INDEX clusters_parent ON clusters (parent);
+-- номера компонент связности запросов, которые вычисляет приложение
+  CREATE TABLE components (
+    query INTEGER,
+    component INTEGER
   );
 END;
 $$ LANGUAGE plpgsql VOLATILE;
@@ -43,40 +56,143 @@ CREATE OR REPLACE FUNCTION drop_tables() RETURNS VOID AS $$
 BEGIN
   DROP TABLE IF EXISTS links;
   DROP TABLE IF EXISTS links_cluster;
-  DROP TABLE IF EXISTS links_count;
-  DROP TABLE IF EXISTS clusters;
-  DROP TABLE IF EXISTS pre_clust;
-  DROP TABLE IF EXISTS tmp;
-  DROP TABLE IF EXISTS docs;
-  DROP TABLE IF EXISTS queries;
   DROP TABLE IF EXISTS clusters;
+  DROP TABLE IF EXISTS components;
+  DROP TABLE IF EXISTS links_components;
+  DROP TABLE IF EXISTS query_names;
+  DROP TABLE IF EXISTS document_names;
+  DROP TABLE IF EXISTS query_members;
+  DROP SEQUENCE IF EXISTS merged_query_id;
+  PERFORM drop_links_stages();
 END;
 $$ LANGUAGE plpgsql VOLATILE;
 
-CREATE OR REPLACE FUNCTION insert_line(q TEXT, doc TEXT, cou INTEGER) RETURNS VOID AS $$
+CREATE OR REPLACE FUNCTION insert_line(q INTEGER, doc INTEGER, cou INTEGER) RETURNS VOID AS $$
 BEGIN
   INSERT INTO links (query, document, count) VALUES (q, doc, cou);
 END;
 $$ LANGUAGE plpgsql VOLATILE;
 
+-- создание промежуточной таблицы писателя с номером n, в которую строки
+-- загружаются с помощью COPY. Таблица не журналируется, так как данные в ней
+-- живут только до сжатия. Возвращает имя таблицы
+CREATE OR REPLACE FUNCTION create_links_stage(n INTEGER) RETURNS TEXT AS $$
+  DECLARE stage TEXT = 'links_stage_' || n;
+BEGIN
+  EXECUTE format('CREATE UNLOGGED TABLE IF NOT EXISTS %I (LIKE links)', stage);
+  RETURN stage;
+END;
+$$ LANGUAGE plpgsql VOLATILE;
+
+-- перенос строк из всех промежуточных таблиц в links
+CREATE OR REPLACE FUNCTION merge_links_stages() RETURNS VOID AS $$
+  DECLARE stage TEXT;
+BEGIN
+  FOR stage IN SELECT tablename FROM pg_tables
+      WHERE schemaname = current_schema() AND tablename LIKE 'links\_stage\_%' LOOP
+    EXECUTE format('INSERT INTO links SELECT * FROM %I', stage);
+    EXECUTE format('DROP TABLE %I', stage);
+  END LOOP;
+END;
+$$ LANGUAGE plpgsql VOLATILE;
+
+CREATE OR REPLACE FUNCTION drop_links_stages() RETURNS VOID AS $$
+  DECLARE stage TEXT;
+BEGIN
+  FOR stage IN SELECT tablename FROM pg_tables
+      WHERE schemaname = current_schema() AND tablename LIKE 'links\_stage\_%' LOOP
+    EXECUTE format('DROP TABLE %I', stage);
+  END LOOP;
+END;
+$$ LANGUAGE plpgsql VOLATILE;
+
+CREATE OR REPLACE FUNCTION insert_query_name(i INTEGER, n TEXT) RETURNS VOID AS $$
+BEGIN
+  INSERT INTO query_names (id, name) VALUES (i, n);
+END;
+$$ LANGUAGE plpgsql VOLATILE;
+
+CREATE OR REPLACE FUNCTION insert_document_name(i INTEGER, n TEXT) RETURNS VOID AS $$
+BEGIN
+  INSERT INTO document_names (id, name) VALUES (i, n);
+END;
+$$ LANGUAGE plpgsql VOLATILE;
+
+-- имя запроса, для объединенного при сжатии запроса - имена его запросов,
+-- соединенные ';'. Составляется только при выводе
+CREATE OR REPLACE FUNCTION query_name(id INTEGER) RETURNS TEXT AS $$
+BEGIN
+  RETURN COALESCE(
+    (SELECT qn.name FROM query_names qn WHERE qn.id = query_name.id),
+    (SELECT string_agg(qn.name, ';' ORDER BY qn.id)
+       FROM query_members m
+         INNER JOIN query_names qn ON qn.id = m.member
+       WHERE m.query = query_name.id));
+END;
+$$ LANGUAGE plpgsql STABLE;
+
+-- идентификатор запроса по имени, для запроса, объединенного при сжатии, -
+-- идентификатор объединенного запроса
+CREATE OR REPLACE FUNCTION query_id(name TEXT) RETURNS INTEGER AS $$
+BEGIN
+  RETURN (SELECT COALESCE(m.query, qn.id)
+    FROM query_names qn
+      LEFT JOIN query_members m ON m.member = qn.id
+    WHERE qn.name = query_id.name);
+END;
+$$ LANGUAGE plpgsql STABLE;
+
 CREATE OR REPLACE FUNCTION select_queries(doc TEXT) RETURNS TABLE(q TEXT, cou INTEGER) AS $$
 BEGIN
-  RETURN QUERY SELECT query, count FROM links WHERE document = doc;
+  RETURN QUERY SELECT query_name(l.query), l.count
+    FROM links l
+      INNER JOIN document_names dn ON l.document = dn.id
+    WHERE dn.name = doc;
 END;
 $$ LANGUAGE plpgsql STABLE;
 
 CREATE OR REPLACE FUNCTION select_documents(q TEXT) RETURNS TABLE(doc TEXT, cou INTEGER) AS $$
+  DECLARE q_id INTEGER = query_id(q);
 BEGIN
-  RETURN QUERY SELECT document, count FROM links WHERE query = q;
+  RETURN QUERY SELECT dn.name, l.count
+    FROM links l
+      INNER JOIN document_names dn ON l.document = dn.id
+    WHERE l.query = q_id;
+END;
+$$ LANGUAGE plpgsql STABLE;
+
+-- документы нескольких запросов за один вызов, чтобы обход окрестности
+-- запроса не стоил обращения к базе на каждый запрос. Член объединенного при
+-- сжатии запроса получает документы объединенного запроса
+CREATE OR REPLACE FUNCTION select_documents_of(qs TEXT[]) RETURNS TABLE(q TEXT, doc TEXT, cou INTEGER) AS $$
+BEGIN
+  RETURN QUERY SELECT k.name, dn.name, l.count
+    FROM (SELECT DISTINCT unnest(qs) AS name) k
+      INNER JOIN query_names qn ON qn.name = k.name
+      LEFT JOIN query_members m ON m.member = qn.id
+      INNER JOIN links l ON l.query = COALESCE(m.query, qn.id)
+      INNER JOIN document_names dn ON l.document = dn.id;
+END;
+$$ LANGUAGE plpgsql STABLE;
+
+-- запросы нескольких документов за один вызов
+CREATE OR REPLACE FUNCTION select_queries_of(docs TEXT[]) RETURNS TABLE(doc TEXT, q TEXT, cou INTEGER) AS $$
+BEGIN
+  RETURN QUERY SELECT dn.name, query_name(l.query), l.count
+    FROM (SELECT DISTINCT unnest(docs) AS name) k
+      INNER JOIN document_names dn ON dn.name = k.name
+      INNER JOIN links l ON l.document = dn.id;
 END;
 $$ LANGUAGE plpgsql STABLE;
 
 CREATE OR REPLACE FUNCTION compact_links() RETURNS VOID AS $$
 BEGIN
+-- строки, загруженные через COPY, лежат в промежуточных таблицах писателей
+  PERFORM merge_links_stages();
 -- замена всех URL, встречающихся только у одного запроса на 'other', так как
 -- единственный их смысл - увеличить общее количество документов для данного
 -- запроса
-  UPDATE links SET document = 'other'
+  UPDATE links SET document = 0
     WHERE document IN (
       SELECT document FROM links GROUP BY document HAVING COUNT(DISTINCT query) = 1
     );
@@ -100,153 +216,139 @@ BEGIN
 -- если в этой таблице оказались запросы, все URL которых были признаны как
 -- 'other', значит нет более ни одного запроса, имеющего с такими хоть один
 -- общий URL, следовательно, они не войдут ни в один кластер
-  DELETE FROM with_one_document WHERE document = 'other';
+  DELETE FROM with_one_document WHERE document = 0;
 -- создание кластеров из запросов, схожих друг с другом на 100%, так как
--- имеют только по одному URL, который у них совпадает. Так же вставка в
--- таблицу clusters образовавшихся кластеров
-  WITH inserted_rows AS (
-  INSERT INTO links (query, document, count)
-    SELECT string_agg(query, ';'), document, SUM(count)
+-- имеют только по одному URL, который у них совпадает. Группа из нескольких
+-- запросов получает новый идентификатор, ее запросы записываются в таблицу
+-- query_members. Такой запрос уже является кластером
+  CREATE TABLE merged AS
+    SELECT CASE WHEN COUNT(*) > 1 THEN nextval('merged_query_id')::INTEGER
+                ELSE MIN(query) END AS query,
+           array_agg(query) AS members, document,
+           CAST(SUM(count) AS INTEGER) AS count
     FROM with_one_document
-    GROUP BY document
-  RETURNING *
-  ) INSERT INTO clusters
-      SELECT query FROM inserted_rows
-        WHERE query LIKE '%;%';
+    GROUP BY document;
+-- запрос, объединенный при прошлом сжатии, заменяется своими запросами: они
+-- переходят к новому объединенному запросу, а прежний идентификатор больше
+-- не встречается в query_members
+  UPDATE query_members qm SET query = m.query
+    FROM merged m
+    WHERE array_length(m.members, 1) > 1 AND qm.query = ANY(m.members);
+  INSERT INTO query_members (query, member)
+    SELECT u.query, u.member
+      FROM (SELECT query, unnest(members) AS member FROM merged
+              WHERE array_length(members, 1) > 1) u
+      WHERE u.member > 0;
+  INSERT INTO links (query, document, count)
+    SELECT query, document, count FROM merged;
 
+  DROP TABLE merged;
   DROP TABLE with_one_document;
 -- повторение процедуры. Полезно в том случае, если были объединены единственные
 -- запросы, ссылающиеся на какой-либо документ
-  UPDATE links SET document = 'other'
+  UPDATE links SET document = 0
     WHERE document IN (
       SELECT document FROM links GROUP BY document HAVING COUNT(DISTINCT query) = 1
     );
 END;
 $$ LANGUAGE plpgsql VOLATILE;
 
--- создание таблицы, содержащей только те строки, которые теоретически могли бы
--- оказаться в одном кластере, т.е. те строки, которые были бы в одном кластере,
--- если б был задан порог (threshold) = 0. Возвращает количество строк, отнесенных
--- к пре-кластеру
-CREATE OR REPLACE FUNCTION pre_cluster() RETURNS INTEGER AS $$
-  DECLARE largest TEXT;
-  DECLARE cou INTEGER;
+-- ссылки запросов на общие документы, по которым приложение за один проход
+-- размечает компоненты связности запросов. Приложение читает их курсором
+-- порциями, не загружая в память все сразу
+CREATE OR REPLACE FUNCTION select_shared_links() RETURNS TABLE(query INTEGER, document INTEGER) AS $$
 BEGIN
--- занесения в переменную largest запроса, имеющего наибольшее количество ссылок
--- на различные URL
-  SELECT query INTO largest FROM links
-    GROUP BY query ORDER BY COUNT(*) DESC
-    LIMIT 1;
-
--- в промежутке между таблицами links и pre_cluster данные будут храниться в
--- таблице tmp. Тут удаляется запись из таблицы links и переносится в tmp
-  WITH moved_rows AS (
-    DELETE FROM links
-      WHERE query = largest
-      RETURNING *
-  )
-  INSERT INTO tmp
-    SELECT * FROM moved_rows;
+  RETURN QUERY SELECT l.query, l.document FROM links l WHERE l.document != 0;
+END;
+$$ LANGUAGE plpgsql STABLE;
 
-  WHILE TRUE LOOP
--- занесение в таблицу docs всех уникальных URL из таблицы tmp
-    INSERT INTO docs
-      SELECT DISTINCT document FROM tmp
-        WHERE document != 'other';
--- перенесение записей из tmp в pre_clust
-    WITH moved_rows AS (
-      DELETE FROM tmp
-      RETURNING *
-    )
-    INSERT INTO pre_clust
-      SELECT * FROM moved_rows;
--- выборка из таблицы links тех записей, которые ссылаются на URL из таблицы docs
--- и перенесение их в tmp
-    WITH moved_rows AS (
-      DELETE FROM links
-        WHERE document IN (SELECT * FROM docs)
-        RETURNING *
-    )
-    INSERT INTO tmp
-      SELECT * FROM moved_rows;
+-- разметка строк links номерами компонент из таблицы components, которую
+-- заполняет приложение. Строки запросов, не имеющих общих документов ни с
+-- одним другим запросом, не размечаются, так как они не войдут ни в один
+-- кластер
+CREATE OR REPLACE FUNCTION label_links() RETURNS VOID AS $$
+BEGIN
+  DROP TABLE IF EXISTS links_components;
+  CREATE TABLE links_components AS
+    SELECT c.component, l.query, l.document, l.count
+    FROM links l
+      INNER JOIN components c ON c.query = l.query;
+  CREATE INDEX links_components_component ON links_components (component);
+  TRUNCATE components;
+END;
+$$ LANGUAGE plpgsql VOLATILE;
 
-    TRUNCATE docs;
--- теперь то же самое, только с запросами. Выборка в таблицу queries уникальных
--- запросов из таблицы tmp
-    INSERT INTO queries
-      SELECT DISTINCT query FROM tmp;
--- перенесение строк из tmp в pre_clust
-    WITH moved_rows AS (
-      DELETE FROM tmp
-      RETURNING *
-    )
-    INSERT INTO pre_clust
-      SELECT * FROM moved_rows;
--- выборка из таблицы links тех записей с именами из таблицы queries и перенесение
--- их в tmp
-    WITH moved_rows AS (
-      DELETE FROM links
-        WHERE query IN (SELECT * FROM queries)
-        RETURNING *
-    )
-    INSERT INTO tmp
-      SELECT * FROM moved_rows;
+-- строки, которые теоретически могли бы оказаться в одном кластере, т.е. те
+-- строки, которые были бы в одном кластере, если б был задан порог
+-- (threshold) = 0. Это строки всех запросов компоненты связности c. По ним
+-- приложение вычисляет пары запросов для таблицы links_cluster
+CREATE OR REPLACE FUNCTION select_component(c INTEGER)
+    RETURNS TABLE(query INTEGER, document INTEGER, count INTEGER) AS $$
+BEGIN
+  RETURN QUERY SELECT l.query, l.document, l.count FROM links_components l
+    WHERE l.component = c;
+END;
+$$ LANGUAGE plpgsql STABLE;
 
-    TRUNCATE queries;
--- условие выхода из вечного цикла - если на очередной итерации в таблицу tmp не
--- было выбрано ни одной записи
-    SELECT COUNT(*) INTO cou FROM tmp;
-    IF cou = 0 THEN
-      SELECT COUNT(*) INTO cou
-        FROM pre_clust;
-      RETURN cou;
-    END IF;
-  END LOOP;
+-- создание временных копий таблиц, с которыми работает кластеризация одной
+-- компоненты. Временные таблицы видны только в своем соединении и закрывают
+-- одноименные общие таблицы, поэтому несколько соединений могут одновременно
+-- кластеризовать разные компоненты. Сохраненные планы функций сбрасываются,
+-- чтобы функции обращались к таблицам, видимым сейчас
+CREATE OR REPLACE FUNCTION create_worker_tables() RETURNS VOID AS $$
+BEGIN
+  CREATE TEMP TABLE links_cluster (
+    q1 INTEGER,
+    q2 INTEGER,
+    cou1 INTEGER,
+    cou2 INTEGER,
+    res REAL
+  );
+  DISCARD PLANS;
 END;
 $$ LANGUAGE plpgsql VOLATILE;
 
--- основная задача этой функции - создать таблицу links_cluster -
--- практически декартово произведение таблицы links, соединяющее строки,
--- имеющие одинаковый URL
-CREATE OR REPLACE FUNCTION create_cluster_tables() RETURNS VOID AS $$
+CREATE OR REPLACE FUNCTION drop_worker_tables() RETURNS VOID AS $$
 BEGIN
-  TRUNCATE TABLE links_cluster;
--- таблица, содержащая сумму всех ссылок с каждого запроса
-  INSERT INTO links_count
-    SELECT query, SUM(count)
-    FROM pre_clust
-    GROUP BY query;
--- создание большой таблицы
+  DROP TABLE IF EXISTS pg_temp.links_cluster;
+  DISCARD PLANS;
+END;
+$$ LANGUAGE plpgsql VOLATILE;
+
+-- подготовка таблицы links_cluster - практически декартова произведения
+-- строк компоненты, соединяющего строки, имеющие одинаковый URL. Пары
+-- вычисляет приложение и загружает их в таблицу через COPY:
 -- q1 - первый запрос, cou1 - сумма ссылок с этого запроса
 -- q2 - второй запрос, cou2 - сумма ссылок с этого запроса
 -- res - результат, который дает для них функция схожести
-  INSERT INTO links_cluster
-    SELECT l1.query q1, l2.query q2, c1.count cou1, c2.count cou2,
-      1.0 * (SUM(l1.count) + SUM(l2.count)) / (c1.count + c2.count) res
-    FROM pre_clust l1
-      INNER JOIN pre_clust l2 ON l1.query < l2.query
-      INNER JOIN links_count c1 ON l1.query = c1.query
-      INNER JOIN links_count c2 ON l2.query = c2.query
-    WHERE l1.document != 'other' AND l1.document = l2.document
-    GROUP BY l1.query, l2.query, c1.count, c2.count;
+-- (SUM(l1.count) + SUM(l2.count)) / (cou1 + cou2) по общим документам
+CREATE OR REPLACE FUNCTION create_cluster_tables() RETURNS VOID AS $$
+BEGIN
+  TRUNCATE TABLE links_cluster;
+END;
+$$ LANGUAGE plpgsql VOLATILE;
 
-  TRUNCATE TABLE links_count;
-  TRUNCATE TABLE pre_clust;
+-- вызывается после загрузки links_cluster. Здесь ничего не делает, профили
+-- могут строить индексы и собирать статистику
+CREATE OR REPLACE FUNCTION index_cluster_tables() RETURNS VOID AS $$
+BEGIN
+  NULL;
 END;
 $$ LANGUAGE plpgsql VOLATILE;
 
 -- создание кластеров на основе данных, содержащихся в таблице links_cluster
 -- и запись их в таблицу clusters
 CREATE OR REPLACE FUNCTION combine_all(threshold REAL) RETURNS VOID AS $$
-  DECLARE query1     TEXT;
-  DECLARE query2     TEXT;
+  DECLARE query1     INTEGER;
+  DECLARE query2     INTEGER;
   DECLARE allCount   INTEGER;
   DECLARE currentRes REAL;
-  DECLARE concat     TEXT;
 BEGIN
-  CREATE TABLE tmp_links (
-    q1 TEXT,
-    q2 TEXT,
+-- временная таблица, так как combine_all может выполняться в нескольких
+-- соединениях одновременно
+  CREATE TEMP TABLE tmp_links (
+    q1 INTEGER,
+    q2 INTEGER,
     cou1 INTEGER,
     cou2 INTEGER,
     res REAL
@@ -262,9 +364,6 @@ BEGIN
 -- значение функции схожести для оставшихся записей не будет превышать
 -- threshold
   WHILE NOT (currentRes IS NULL OR currentRes < threshold) LOOP
--- concat - имя нового кластера, состоящее из двух запросов (кластеров),
--- соединенных ';'
-    concat = query1 || ';' || query2;
 -- переносим все записи из таблицы links_cluster, содержащие query1 или
 -- query2 в таблицу tmp_links (это делается в два запроса)
     WITH moved_rows AS (
@@ -286,19 +385,17 @@ BEGIN
 
     DELETE FROM tmp_links
       WHERE (q1 = query1 AND q2 = query2) OR (q2 = query1 AND q1 = query2);
-    UPDATE tmp_links SET q1 = concat;
+-- новый кластер обозначается идентификатором query1
+    UPDATE tmp_links SET q1 = query1;
 -- высчитывание нового результата функции схожести и перенос данных обратно
 -- из tmp_links в links_cluster
     INSERT INTO links_cluster
       SELECT q1, q2, allCount, cou2, SUM((cou1 + cou2) * res) / (allCount + cou2)
       FROM tmp_links
       GROUP BY q1, q2, cou2;
--- занесение записи о новом сформировавшемся кластере в таблицу clusters,
--- предварительно удалив перед этим записи о query1 и query2, если они там
--- были (ведь query1 или query2 могут оказаться кластерами, сформировавшимися
--- на предыдущих шагах)
-    DELETE FROM clusters WHERE cluster IN (query1, query2);
-    INSERT INTO clusters (cluster) VALUES (concat);
+-- query1 и query2 - корни своих деревьев в clusters, query2 становится
+-- потомком query1
+    INSERT INTO clusters (query, parent) VALUES (query2, query1);
     TRUNCATE TABLE tmp_links;
 -- выборка следующей пары наиболее похожих запросов
     SELECT q1, q2, cou1 + cou2, res
@@ -310,8 +407,76 @@ BEGIN
 END;
 $$ LANGUAGE plpgsql VOLATILE;
 
-CREATE OR REPLACE FUNCTION select_clusters() RETURNS SETOF TEXT AS $$
+-- запись кластеров, сформированных в приложении: запросы queries становятся
+-- потомками parents. То же, что делает combine_all для каждой пары
+CREATE OR REPLACE FUNCTION save_clusters(queries INTEGER[], parents INTEGER[]) RETURNS VOID AS $$
+BEGIN
+  INSERT INTO clusters (query, parent) SELECT * FROM unnest(queries, parents);
+END;
+$$ LANGUAGE plpgsql VOLATILE;
+
+-- состав кластеров: каждый запрос дерева clusters относится к кластеру его
+-- корня, объединенные при сжатии запросы, не вошедшие ни в одно дерево, -
+-- кластеры сами по себе. Объединенные запросы заменяются на их запросы, а
+-- идентификаторы - на имена. Строки одного кластера идут подряд
+CREATE OR REPLACE FUNCTION select_clusters() RETURNS TABLE(cluster INTEGER, q TEXT) AS $$
+BEGIN
+  RETURN QUERY WITH RECURSIVE tree(member, root) AS (
+      SELECT DISTINCT c.parent, c.parent FROM clusters c
+        WHERE NOT EXISTS (SELECT 1 FROM clusters p WHERE p.query = c.parent)
+    UNION ALL
+      SELECT c.query, t.root FROM clusters c
+        INNER JOIN tree t ON c.parent = t.member
+  ), members(member, root) AS (
+      SELECT t.member, t.root FROM tree t
+    UNION ALL
+      SELECT DISTINCT m.query, m.query FROM query_members m
+        WHERE NOT EXISTS (SELECT 1 FROM tree t WHERE t.member = m.query)
+  )
+  SELECT ms.root, qn.name
+    FROM members ms
+      LEFT JOIN query_members m ON m.query = ms.member
+      INNER JOIN query_names qn ON qn.id = COALESCE(m.member, ms.member)
+    ORDER BY ms.root, qn.id;
+END;
+$$ LANGUAGE plpgsql STABLE;
+
+-- то же, что select_clusters, но только кластеры компоненты c, которые
+-- выводятся, как только компонента кластеризована. Деревья обходятся от
+-- корней, которые есть среди запросов компоненты
+CREATE OR REPLACE FUNCTION select_component_clusters(c INTEGER) RETURNS TABLE(cluster INTEGER, q TEXT) AS $$
+BEGIN
+  RETURN QUERY WITH RECURSIVE queries(query) AS (
+      SELECT DISTINCT l.query FROM links_components l WHERE l.component = c
+  ), tree(member, root) AS (
+      SELECT qs.query, qs.query FROM queries qs
+        WHERE EXISTS (SELECT 1 FROM clusters p WHERE p.parent = qs.query)
+          AND NOT EXISTS (SELECT 1 FROM clusters p WHERE p.query = qs.query)
+    UNION ALL
+      SELECT cl.query, t.root FROM clusters cl
+        INNER JOIN tree t ON cl.parent = t.member
+  ), members(member, root) AS (
+      SELECT t.member, t.root FROM tree t
+    UNION ALL
+      SELECT qs.query, qs.query FROM queries qs
+        WHERE qs.query < 0 AND NOT EXISTS (SELECT 1 FROM tree t WHERE t.member = qs.query)
+  )
+  SELECT ms.root, qn.name
+    FROM members ms
+      LEFT JOIN query_members m ON m.query = ms.member
+      INNER JOIN query_names qn ON qn.id = COALESCE(m.member, ms.member)
+    ORDER BY ms.root, qn.id;
+END;
+$$ LANGUAGE plpgsql STABLE;
+
+-- кластеры, которые не входят ни в одну компоненту: объединенные при сжатии
+-- запросы, документ которых больше ни у кого не встречается
+CREATE OR REPLACE FUNCTION select_unlabelled_clusters() RETURNS TABLE(cluster INTEGER, q TEXT) AS $$
 BEGIN
-  RETURN QUERY SELECT cluster FROM clusters;
+  RETURN QUERY SELECT m.query, qn.name
+    FROM query_members m
+      INNER JOIN query_names qn ON qn.id = m.member
+    WHERE NOT EXISTS (SELECT 1 FROM links_components l WHERE l.query = m.query)
+    ORDER BY m.query, qn.id;
 END;
 $$ LANGUAGE plpgsql STABLE;
\ No newline at end of file
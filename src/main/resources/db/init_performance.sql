@@ -0,0 +1,282 @@
+--Профиль схемы для производительности. Выполняется после init.sql и заменяет
+--часть его функций. Все таблицы - рабочие данные, которые все равно
+--пересоздаются, поэтому они не журналируются (UNLOGGED), таблица links
+--разбита на секции по хэшу запроса, индексы создаются после загрузки данных,
+--а статистика собирается явно (ANALYZE) в тех местах, где таблицы только что
+--наполнены. Вместо документа 'other' каждый запрос имеет счетчик кликов по
+--документам, которые больше ни у кого не встречаются (таблица query_other)
+CREATE OR REPLACE FUNCTION create_tables() RETURNS VOID AS $$
+  DECLARE partitions CONSTANT INTEGER = 8;
+BEGIN
+  CREATE TABLE links (
+    query    INTEGER,
+    document INTEGER,
+    count    INTEGER
+  ) PARTITION BY HASH (query);
+  FOR i IN 0 .. partitions - 1 LOOP
+    EXECUTE format('CREATE UNLOGGED TABLE links_p%s PARTITION OF links FOR VALUES WITH (MODULUS %s, REMAINDER %s)',
+                   i, partitions, i);
+  END LOOP;
+  CREATE UNLOGGED TABLE query_other (
+    query INTEGER PRIMARY KEY,
+    other INTEGER
+  );
+  CREATE UNLOGGED TABLE query_names (
+    id   INTEGER,
+    name TEXT
+  );
+  CREATE UNLOGGED TABLE document_names (
+    id   INTEGER,
+    name TEXT
+  );
+  INSERT INTO document_names (id, name) VALUES (0, 'other');
+  CREATE SEQUENCE merged_query_id START -1 INCREMENT -1;
+  CREATE UNLOGGED TABLE query_members (
+    query  INTEGER,
+    member INTEGER
+  );
+  CREATE UNLOGGED TABLE links_cluster (
+    q1 INTEGER,
+    q2 INTEGER,
+    cou1 INTEGER,
+    cou2 INTEGER,
+    res REAL
+  );
+  CREATE UNLOGGED TABLE clusters (
+    query  INTEGER,
+    parent INTEGER
+  );
+  CREATE INDEX clusters_query ON clusters (query);
+  CREATE INDEX clusters_parent ON clusters (parent);
+  CREATE UNLOGGED TABLE components (
+    query INTEGER,
+    component INTEGER
+  );
+END;
+$$ LANGUAGE plpgsql VOLATILE;
+
+CREATE OR REPLACE FUNCTION drop_tables() RETURNS VOID AS $$
+BEGIN
+  DROP TABLE IF EXISTS links;
+  DROP TABLE IF EXISTS query_other;
+  DROP TABLE IF EXISTS links_cluster;
+  DROP TABLE IF EXISTS clusters;
+  DROP TABLE IF EXISTS components;
+  DROP TABLE IF EXISTS links_components;
+  DROP TABLE IF EXISTS query_names;
+  DROP TABLE IF EXISTS document_names;
+  DROP TABLE IF EXISTS query_members;
+  DROP SEQUENCE IF EXISTS merged_query_id;
+  PERFORM drop_links_stages();
+END;
+$$ LANGUAGE plpgsql VOLATILE;
+
+CREATE OR REPLACE FUNCTION select_queries(doc TEXT) RETURNS TABLE(q TEXT, cou INTEGER) AS $$
+BEGIN
+  RETURN QUERY SELECT query_name(l.query), l.count
+    FROM links l
+      INNER JOIN document_names dn ON l.document = dn.id
+    WHERE dn.name = doc
+  UNION ALL
+  SELECT query_name(o.query), o.other
+    FROM query_other o
+    WHERE doc = 'other';
+END;
+$$ LANGUAGE plpgsql STABLE;
+
+CREATE OR REPLACE FUNCTION select_documents(q TEXT) RETURNS TABLE(doc TEXT, cou INTEGER) AS $$
+  DECLARE q_id INTEGER = query_id(q);
+BEGIN
+  RETURN QUERY SELECT dn.name, l.count
+    FROM links l
+      INNER JOIN document_names dn ON l.document = dn.id
+    WHERE l.query = q_id
+  UNION ALL
+  SELECT 'other', o.other
+    FROM query_other o
+    WHERE o.query = q_id;
+END;
+$$ LANGUAGE plpgsql STABLE;
+
+CREATE OR REPLACE FUNCTION select_documents_of(qs TEXT[]) RETURNS TABLE(q TEXT, doc TEXT, cou INTEGER) AS $$
+BEGIN
+  RETURN QUERY WITH k AS (
+    SELECT qn.name, COALESCE(m.query, qn.id) AS id
+      FROM query_names qn
+        LEFT JOIN query_members m ON m.member = qn.id
+      WHERE qn.name = ANY(qs)
+  )
+  SELECT k.name, dn.name, l.count
+    FROM k
+      INNER JOIN links l ON l.query = k.id
+      INNER JOIN document_names dn ON l.document = dn.id
+  UNION ALL
+  SELECT k.name, 'other', o.other
+    FROM k
+      INNER JOIN query_other o ON o.query = k.id;
+END;
+$$ LANGUAGE plpgsql STABLE;
+
+CREATE OR REPLACE FUNCTION select_queries_of(docs TEXT[]) RETURNS TABLE(doc TEXT, q TEXT, cou INTEGER) AS $$
+BEGIN
+  RETURN QUERY SELECT dn.name, query_name(l.query), l.count
+    FROM links l
+      INNER JOIN document_names dn ON l.document = dn.id
+    WHERE dn.name = ANY(docs)
+  UNION ALL
+  SELECT 'other', query_name(o.query), o.other
+    FROM query_other o
+    WHERE 'other' = ANY(docs);
+END;
+$$ LANGUAGE plpgsql STABLE;
+
+CREATE OR REPLACE FUNCTION compact_links() RETURNS VOID AS $$
+BEGIN
+  PERFORM merge_links_stages();
+-- непосредственно сжатие
+  CREATE UNLOGGED TABLE links_compact AS
+     SELECT query, document, CAST(SUM(count) AS INTEGER) AS count
+     FROM links
+     GROUP BY query, document;
+  ANALYZE links_compact;
+-- клики по документам, встречающимся только у одного запроса, прибавляются к
+-- счетчику этого запроса, а в links остаются только общие документы
+  CREATE UNLOGGED TABLE shared AS
+    SELECT document FROM links_compact GROUP BY document HAVING COUNT(*) > 1;
+  ANALYZE shared;
+  INSERT INTO query_other (query, other)
+    SELECT query, CAST(SUM(count) AS INTEGER)
+    FROM links_compact l
+    WHERE NOT EXISTS (SELECT 1 FROM shared s WHERE s.document = l.document)
+    GROUP BY query
+  ON CONFLICT (query) DO UPDATE SET other = query_other.other + EXCLUDED.other;
+  TRUNCATE links;
+  INSERT INTO links
+    SELECT l.* FROM links_compact l
+      INNER JOIN shared s ON s.document = l.document;
+  DROP TABLE links_compact;
+  DROP TABLE shared;
+  CREATE INDEX IF NOT EXISTS links_query ON links (query);
+  CREATE INDEX IF NOT EXISTS links_document ON links (document);
+  ANALYZE links;
+  ANALYZE query_other;
+-- запросы, у которых остался только счетчик, не войдут ни в один кластер
+  DELETE FROM query_other o
+    WHERE NOT EXISTS (SELECT 1 FROM links l WHERE l.query = o.query);
+-- запросы, имеющие ровно один документ и ни одного клика по другим
+  CREATE UNLOGGED TABLE with_one_document AS
+    WITH moved_rows AS (
+      DELETE FROM links WHERE query IN (
+        SELECT l.query FROM links l
+        WHERE NOT EXISTS (SELECT 1 FROM query_other o WHERE o.query = l.query)
+        GROUP BY l.query HAVING COUNT(*) = 1
+      )
+      RETURNING *
+    )
+    SELECT * FROM moved_rows;
+-- создание кластеров из запросов, схожих друг с другом на 100%, так же, как в
+-- init.sql
+  CREATE UNLOGGED TABLE merged AS
+    SELECT CASE WHEN COUNT(*) > 1 THEN nextval('merged_query_id')::INTEGER
+                ELSE MIN(query) END AS query,
+           array_agg(query) AS members, document,
+           CAST(SUM(count) AS INTEGER) AS count
+    FROM with_one_document
+    GROUP BY document;
+-- запрос, объединенный при прошлом сжатии, заменяется своими запросами: они
+-- переходят к новому объединенному запросу, а прежний идентификатор больше
+-- не встречается в query_members
+  UPDATE query_members qm SET query = m.query
+    FROM merged m
+    WHERE array_length(m.members, 1) > 1 AND qm.query = ANY(m.members);
+  INSERT INTO query_members (query, member)
+    SELECT u.query, u.member
+      FROM (SELECT query, unnest(members) AS member FROM merged
+              WHERE array_length(members, 1) > 1) u
+      WHERE u.member > 0;
+  INSERT INTO links (query, document, count)
+    SELECT query, document, count FROM merged;
+
+  DROP TABLE merged;
+  DROP TABLE with_one_document;
+-- повторение процедуры для документов, оставшихся у одного запроса
+  WITH moved_rows AS (
+    DELETE FROM links WHERE document IN (
+      SELECT document FROM links GROUP BY document HAVING COUNT(*) = 1
+    )
+    RETURNING *
+  )
+  INSERT INTO query_other (query, other)
+    SELECT query, CAST(SUM(count) AS INTEGER) FROM moved_rows GROUP BY query
+  ON CONFLICT (query) DO UPDATE SET other = query_other.other + EXCLUDED.other;
+  ANALYZE links;
+  ANALYZE query_other;
+END;
+$$ LANGUAGE plpgsql VOLATILE;
+
+-- то же, что в init.sql, но таблица не журналируется и сразу анализируется
+CREATE OR REPLACE FUNCTION label_links() RETURNS VOID AS $$
+BEGIN
+  DROP TABLE IF EXISTS links_components;
+  CREATE UNLOGGED TABLE links_components AS
+    SELECT c.component, l.query, l.document, l.count
+    FROM links l
+      INNER JOIN components c ON c.query = l.query;
+  CREATE INDEX links_components_component ON links_components (component);
+  ANALYZE links_components;
+  TRUNCATE components;
+END;
+$$ LANGUAGE plpgsql VOLATILE;
+
+-- то же, что в init.sql, но сумма ссылок запроса включает его счетчик
+-- query_other, который приложение получает как ссылку на документ 'other'
+CREATE OR REPLACE FUNCTION select_component(c INTEGER)
+    RETURNS TABLE(query INTEGER, document INTEGER, count INTEGER) AS $$
+BEGIN
+  RETURN QUERY SELECT l.query, l.document, l.count FROM links_components l
+    WHERE l.component = c
+  UNION ALL
+  SELECT o.query, 0, o.other
+    FROM query_other o
+    WHERE o.query IN (SELECT l.query FROM links_components l WHERE l.component = c);
+END;
+$$ LANGUAGE plpgsql STABLE;
+
+-- то же, что в init.sql, но у временной links_cluster сразу есть индексы,
+-- которые пересоздает create_cluster_tables. Иначе она удаляла бы индексы
+-- общей таблицы. Временные таблицы и так не журналируются
+CREATE OR REPLACE FUNCTION create_worker_tables() RETURNS VOID AS $$
+BEGIN
+  CREATE TEMP TABLE links_cluster (
+    q1 INTEGER,
+    q2 INTEGER,
+    cou1 INTEGER,
+    cou2 INTEGER,
+    res REAL
+  );
+  CREATE INDEX links_cluster_q1 ON links_cluster (q1);
+  CREATE INDEX links_cluster_q2 ON links_cluster (q2);
+  DISCARD PLANS;
+END;
+$$ LANGUAGE plpgsql VOLATILE;
+
+-- то же, что в init.sql, но индексы links_cluster удаляются до загрузки
+-- пар, а после нее строятся заново
+CREATE OR REPLACE FUNCTION create_cluster_tables() RETURNS VOID AS $$
+BEGIN
+  DROP INDEX IF EXISTS links_cluster_q1;
+  DROP INDEX IF EXISTS links_cluster_q2;
+  TRUNCATE TABLE links_cluster;
+END;
+$$ LANGUAGE plpgsql VOLATILE;
+
+-- индексы для поиска строк выбранной пары в combine_all. Индекс для поиска
+-- пары с наибольшим результатом не создается: его обновление на каждом шаге
+-- обходится дороже сортировки
+CREATE OR REPLACE FUNCTION index_cluster_tables() RETURNS VOID AS $$
+BEGIN
+  CREATE INDEX links_cluster_q1 ON links_cluster (q1);
+  CREATE INDEX links_cluster_q2 ON links_cluster (q2);
+  ANALYZE links_cluster;
+END;
+$$ LANGUAGE plpgsql VOLATILE;
@@ -0,0 +1,131 @@
+package ru.poplavkov.cluster;
+
+import lombok.val;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AgglomerativeClusteringTest {
+
+    @Test
+    void run() {
+        val clustering = new AgglomerativeClustering(0.2f);
+        clustering.add(1, 2, 10, 10, 0.5f);
+        clustering.add(1, 3, 10, 20, 0.2f);
+        clustering.add(2, 3, 10, 20, 0.1f);
+        clustering.add(-4, 5, 5, 5, 0.1f);
+        //1;2 and 3: (30 * 0.2 + 30 * 0.1) / 40 = 0.225
+        assertEquals(2, clustering.run());
+        assertEquals(Collections.singletonList(Arrays.asList(1, 2, 3)), members(clustering));
+    }
+
+    @Test
+    void threshold() {
+        val clustering = new AgglomerativeClustering(0.3f);
+        clustering.add(1, 2, 10, 10, 0.5f);
+        clustering.add(1, 3, 10, 20, 0.2f);
+        clustering.add(2, 3, 10, 20, 0.1f);
+        assertEquals(1, clustering.run());
+        assertEquals(Collections.singletonList(Arrays.asList(1, 2)), members(clustering));
+    }
+
+    @Test
+    void order() {
+        val clustering = new AgglomerativeClustering(0.001f);
+        clustering.add(6, 7, 1, 1, 0.5f);
+        clustering.add(8, 9, 2, 1, 0.5f);
+        clustering.add(10, 11, 2, 3, 0.5f);
+        clustering.add(12, 13, 2, 3, 0.5f);
+        assertEquals(4, clustering.run());
+        //equal similarities, larger counts first, then the order of adding
+        assertEquals(Arrays.asList(Arrays.asList(10, 11), Arrays.asList(12, 13),
+                Arrays.asList(8, 9), Arrays.asList(6, 7)), members(clustering));
+    }
+
+    @Test
+    void weightedAverage() {
+        val clustering = new AgglomerativeClustering(0.001f);
+        clustering.add(1, 2, 3, 7, 0.9f);
+        clustering.add(1, 3, 3, 11, 0.3f);
+        clustering.add(2, 3, 7, 11, 0.7f);
+        clustering.add(3, 4, 11, 13, 0.6f);
+        //1;2 and 3: (14 * 0.3 + 18 * 0.7) / 21 = 0.8 is merged before 3 and 4
+        clustering.run();
+        assertEquals(Collections.singletonList(Arrays.asList(1, 2, 3, 4)), members(clustering));
+    }
+
+    @Test
+    void rounds() {
+        val clustering = new AgglomerativeClustering(0.2f);
+        clustering.add(1, 2, 3, 7, 0.9f);
+        clustering.add(1, 3, 3, 11, 0.3f);
+        clustering.add(2, 3, 7, 11, 0.7f);
+        clustering.add(3, 4, 11, 13, 0.6f);
+        clustering.add(5, 6, 1, 1, 0.5f);
+        clustering.add(-4, 5, 5, 5, 0.1f);
+        //1 and 2, 5 and 6 are merged at once, then 1;2 and 3, then 4
+        assertEquals(4, clustering.runRounds());
+        assertEquals(3, clustering.rounds());
+        assertEquals(Arrays.asList(Arrays.asList(5, 6), Arrays.asList(1, 2, 3, 4)), members(clustering));
+    }
+
+    @Test
+    void roundsDifferFromGreedy() {
+        //1;2 is more similar to 3 (4 * 0.28 / 3 = 0.373) than 3 to 4
+        val greedy = new AgglomerativeClustering(0.2f);
+        val rounds = new AgglomerativeClustering(0.2f);
+        for (val clustering : Arrays.asList(greedy, rounds)) {
+            clustering.add(1, 2, 1, 1, 0.5f);
+            clustering.add(1, 3, 1, 1, 0.28f);
+            clustering.add(2, 3, 1, 1, 0.28f);
+            clustering.add(3, 4, 1, 1, 0.3f);
+        }
+        greedy.run();
+        assertEquals(Collections.singletonList(Arrays.asList(1, 2, 3)), members(greedy));
+        //3 and 4 are merged in the first round, then 1;2 and 3;4 with 0.28
+        rounds.runRounds();
+        assertEquals(Collections.singletonList(Arrays.asList(1, 2, 3, 4)), members(rounds));
+    }
+
+    @Test
+    void parallelRound() {
+        val clustering = new AgglomerativeClustering(0.2f);
+        for (int i = 0; i < 5_000; i++) {
+            clustering.add(2 * i, 2 * i + 1, 1, 1, 0.5f);
+            if (i > 0) {
+                clustering.add(2 * i - 1, 2 * i, 1, 1, 0.1f);
+            }
+        }
+        assertEquals(5_000, clustering.runRounds());
+        assertEquals(1, clustering.rounds());
+        assertEquals(5_000, clustering.clusters().size());
+    }
+
+    @Test
+    void fewerRoundsThanMerges() {
+        val pairs = PairSimilarities.compute(
+                LinkGraph.of(PairSimilaritiesTest.topicLinks(2_000, 3)));
+        val greedy = new AgglomerativeClustering(0.2f);
+        val rounds = new AgglomerativeClustering(0.2f);
+        pairs.addTo(greedy);
+        pairs.addTo(rounds);
+        val merges = greedy.run();
+        assertTrue(rounds.runRounds() > merges / 2);
+        assertTrue(rounds.rounds() * 10 < merges);
+    }
+
+    private static List<List<Integer>> members(AgglomerativeClustering clustering) {
+        val members = new ArrayList<List<Integer>>();
+        for (val cluster : clustering.clusters()) {
+            members.add(Arrays.stream(cluster).boxed().collect(Collectors.toList()));
+        }
+        return members;
+    }
+}
@@ -0,0 +1,56 @@
+package ru.poplavkov.cluster;
+
+import lombok.val;
+import org.junit.jupiter.api.Test;
+
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BoundedCacheTest {
+
+    @Test
+    void getAndPut() {
+        val cache = new BoundedCache<String, Integer>(100);
+        assertNull(cache.get("a"));
+        cache.put("a", 1);
+        assertEquals(1, cache.get("a").intValue());
+        assertEquals(1, cache.hits());
+        assertEquals(1, cache.misses());
+        assertEquals(0.5, cache.hitRate(), 1e-9);
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertNull(cache.get("a"));
+    }
+
+    @Test
+    void bounded() {
+        val cache = new BoundedCache<Integer, Integer>(64);
+        IntStream.range(0, 10_000).parallel().forEach(i -> cache.put(i, i));
+        assertTrue(cache.size() <= 64);
+        assertEquals(10_000 - cache.size(), cache.evictions());
+    }
+
+    @Test
+    void leastRecentlyUsedIsEvicted() {
+        val cache = new BoundedCache<Integer, Integer>(1);
+        cache.put(1, 1);
+        cache.put(2, 2);
+        assertNull(cache.get(1));
+        assertEquals(2, cache.get(2).intValue());
+        assertEquals(1, cache.evictions());
+    }
+
+    @Test
+    void charSliceKeys() {
+        val cache = new BoundedCache<CharSlice, String>(10);
+        val buf = "xxcatsxx".toCharArray();
+        cache.put(new CharSlice().set(buf, 2, 4).copy(), "cat");
+        buf[2] = 'b';
+        assertNull(cache.get(new CharSlice().set(buf, 2, 4)));
+        assertEquals("cat", cache.get(new CharSlice().set("cats".toCharArray(), 0, 4)));
+    }
+}
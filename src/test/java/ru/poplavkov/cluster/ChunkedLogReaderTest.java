@@ -0,0 +1,111 @@
+package ru.poplavkov.cluster;
+
+import lombok.SneakyThrows;
+import lombok.val;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChunkedLogReaderTest {
+
+    private static List<String> readAll(String content) {
+        return readAll(content, 0, new int[1]);
+    }
+
+    /**
+     * @param chunks receives count of chunks
+     */
+    @SneakyThrows
+    private static List<String> readAll(String content, int chunkSize, int[] chunks) {
+        val file = Files.createTempFile("log", ".txt");
+        try {
+            Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+            val result = new ArrayList<String>();
+            try (val reader = new ChunkedLogReader(file, chunkSize)) {
+                val split = reader.split();
+                chunks[0] = split.size();
+                for (val chunk : split) {
+                    reader.parse(chunk, (q, d) -> result.add(q + "|" + d));
+                }
+            }
+            return result;
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @SneakyThrows
+    @Test
+    void parse() {
+        val result = new ArrayList<String>();
+        try (val reader = new ChunkedLogReader(Paths.get("src/test/resources/test.txt"))) {
+            for (val chunk : reader.split()) {
+                reader.parse(chunk, (q, d) -> result.add(q + "|" + d));
+            }
+        }
+        assertEquals("car|www.car.com", result.get(0));
+        assertEquals("kitty|www.cats.ru", result.get(3));
+        assertEquals(6, result.size());
+    }
+
+    @Test
+    void columnsAndLineEndings() {
+        val result = readAll("AnonID\tQuery\tItemRank\tClickURL\r\n"
+                + "1\tfirst query\t1\twww.first.com\r\n"
+                + "2\tno click\n"
+                + "3\tempty click\t\t\n"
+                + "4\tcaf\u00e9\t2\twww.horse.ru");
+        assertEquals(2, result.size());
+        assertEquals("first query|www.first.com", result.get(0));
+        assertEquals("caf\u00e9|www.horse.ru", result.get(1));
+    }
+
+    @Test
+    void chunksEndingOnLineFeed() {
+        val content = new StringBuilder("Query\tClickURL\n");
+        val expected = new ArrayList<String>();
+        for (int i = 0; i < 10; i++) {
+            //every line is 6 bytes long
+            content.append("q").append(i).append("\td").append(i).append("\n");
+            expected.add("q" + i + "|d" + i);
+        }
+        val chunks = new int[1];
+        assertEquals(expected, readAll(content.toString(), 6, chunks));
+        assertEquals(10, chunks[0]);
+        assertEquals(expected, readAll(content.toString(), 12, chunks));
+        assertEquals(5, chunks[0]);
+    }
+
+    @Test
+    void linesAcrossChunks() {
+        val content = new StringBuilder("Query\tClickURL\n");
+        val expected = new ArrayList<String>();
+        for (int i = 0; i < 500; i++) {
+            val query = "query " + i + String.join("", Collections.nCopies(i % 17, "x"));
+            content.append(query).append("\twww.").append(i).append(".com\n");
+            expected.add(query + "|www." + i + ".com");
+        }
+        //chunks are cut inside lines and right after line feeds, every line
+        //must be read exactly once
+        val chunks = new int[1];
+        for (int chunkSize = 1; chunkSize <= 64; chunkSize++) {
+            assertEquals(expected, readAll(content.toString(), chunkSize, chunks));
+            assertTrue(chunks[0] > 1);
+        }
+    }
+
+    @Test
+    void headers() {
+        assertEquals(0, readAll("").size());
+        assertThrows(IllegalArgumentException.class, () -> readAll("a\tb\nc\td\n"));
+    }
+}
@@ -0,0 +1,63 @@
+package ru.poplavkov.cluster;
+
+import lombok.val;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ClusterIndexTest {
+
+    @Test
+    void lookup() {
+        val index = ClusterIndex.of(Arrays.asList(
+                Arrays.asList("car", "ferrari"),
+                Arrays.asList("cat", "kitti", "kitten")));
+        assertEquals(2, index.size());
+        assertEquals(5, index.queries());
+        assertEquals(0, index.cluster("ferrari"));
+        assertEquals(1, index.cluster("cat"));
+        assertEquals(1, index.cluster("kitten"));
+        assertEquals(-1, index.cluster("dog"));
+        assertEquals(-1, index.cluster(""));
+        assertEquals(Arrays.asList("cat", "kitti", "kitten"), index.members(index.cluster("kitti")));
+    }
+
+    @Test
+    void emptyClusters() {
+        val index = ClusterIndex.of(Arrays.asList(
+                Collections.emptyList(),
+                Collections.singletonList("a"),
+                Collections.emptyList(),
+                Collections.emptyList(),
+                Arrays.asList("b", "c")));
+        assertEquals(1, index.cluster("a"));
+        assertEquals(4, index.cluster("b"));
+        assertEquals(Collections.emptyList(), index.members(2));
+        assertEquals(-1, ClusterIndex.of(Collections.emptyList()).cluster("a"));
+    }
+
+    @Test
+    void many() {
+        val clusters = new ArrayList<List<String>>();
+        for (int c = 0; c < 10_000; c++) {
+            val cluster = new ArrayList<String>();
+            for (int i = 0; i <= c % 5; i++) {
+                cluster.add("query " + c + " " + i);
+            }
+            clusters.add(cluster);
+        }
+        val index = ClusterIndex.of(clusters);
+        for (int c = 0; c < clusters.size(); c++) {
+            for (val query : clusters.get(c)) {
+                assertEquals(c, index.cluster(query));
+            }
+            assertEquals(clusters.get(c), index.members(c));
+        }
+        assertEquals(-1, index.cluster("query 10000 0"));
+    }
+}
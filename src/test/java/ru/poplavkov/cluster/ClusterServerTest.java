@@ -0,0 +1,85 @@
+package ru.poplavkov.cluster;
+
+import lombok.SneakyThrows;
+import lombok.val;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ClusterServerTest {
+    private ClusterServer server;
+
+    @SneakyThrows
+    @BeforeEach
+    void init() {
+        val analyzer = new QueryAnalyzer();
+        val index = ClusterIndex.of(Arrays.asList(
+                Arrays.asList(analyzer.analyze("car"), analyzer.analyze("ferrari")),
+                Arrays.asList(analyzer.analyze("cat"), analyzer.analyze("kitty"), "a\"b")));
+        server = new ClusterServer(index, () -> new QueryAnalyzer()::analyze, 0, 2);
+        server.start();
+    }
+
+    @AfterEach
+    void cancel() {
+        server.close();
+    }
+
+    @SneakyThrows
+    private String get(String path, int expectedCode) {
+        val connection = (HttpURLConnection) new URL("http://localhost:" + server.getPort() + path)
+                .openConnection();
+        assertEquals(expectedCode, connection.getResponseCode());
+        try (InputStream in = expectedCode < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            val out = new ByteArrayOutputStream();
+            val buffer = new byte[1024];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    @SneakyThrows
+    private String lookup(String query, int expectedCode) {
+        return get("/cluster?q=" + URLEncoder.encode(query, "UTF-8"), expectedCode);
+    }
+
+    @Test
+    void found() {
+        //raw queries are prepared before lookup
+        assertEquals("{\"query\":\"kitti\",\"cluster\":1,\"members\":[\"cat\",\"kitti\",\"a\\\"b\"]}",
+                lookup("The  Kitty!", 200));
+        assertEquals("{\"query\":\"ferrari\",\"cluster\":0,\"members\":[\"car\",\"ferrari\"]}",
+                lookup("ferrari", 200));
+    }
+
+    @Test
+    void notFound() {
+        assertEquals("{\"query\":\"dog\"}", lookup("dogs", 404));
+        assertEquals("{\"query\":\"\"}", lookup("", 404));
+        get("/cluster", 400);
+        get("/cluster?q=%zz", 400);
+    }
+
+    @SneakyThrows
+    @Test
+    void parameter() {
+        assertEquals("a b&c", ClusterServer.parameter("x=1&q=a+b%26c&q=2", "q"));
+        assertEquals("", ClusterServer.parameter("q", "q"));
+        assertNull(ClusterServer.parameter("qq=1", "q"));
+        assertNull(ClusterServer.parameter(null, "q"));
+    }
+}
@@ -0,0 +1,67 @@
+package ru.poplavkov.cluster;
+
+import lombok.SneakyThrows;
+import lombok.val;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ClusterWriterTest {
+
+    @SneakyThrows
+    private static byte[] write(ClusterWriter.Format format) {
+        val out = new ByteArrayOutputStream();
+        try (val writer = new ClusterWriter(out, format)) {
+            writer.write(Arrays.asList("cat", "kitti"));
+            writer.write(Arrays.asList("say \"hi\"", "a\\b\tc", "\u043a\u043e\u0442"));
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    void braces() {
+        val n = System.lineSeparator();
+        assertEquals("{cat, kitti}\n\n" + n + "{say \"hi\", a\\b\tc, \u043a\u043e\u0442}\n\n" + n,
+                new String(write(ClusterWriter.Format.BRACES), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void jsonLines() {
+        assertEquals("[\"cat\",\"kitti\"]\n[\"say \\\"hi\\\"\",\"a\\\\b\\u0009c\",\"\u043a\u043e\u0442\"]\n",
+                new String(write(ClusterWriter.Format.JSONL), StandardCharsets.UTF_8));
+    }
+
+    @SneakyThrows
+    @Test
+    void binary() {
+        val in = new DataInputStream(new ByteArrayInputStream(write(ClusterWriter.Format.BINARY)));
+        assertEquals(2, in.readInt());
+        assertEquals("cat", readName(in));
+        assertEquals("kitti", readName(in));
+        assertEquals(3, in.readInt());
+        assertEquals("say \"hi\"", readName(in));
+        assertEquals("a\\b\tc", readName(in));
+        assertEquals("\u043a\u043e\u0442", readName(in));
+        assertEquals(-1, in.read());
+    }
+
+    @SneakyThrows
+    private static String readName(DataInputStream in) {
+        val bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void formatOf() {
+        assertEquals(ClusterWriter.Format.BRACES, ClusterWriter.Format.of("output.txt"));
+        assertEquals(ClusterWriter.Format.JSONL, ClusterWriter.Format.of("output.jsonl"));
+        assertEquals(ClusterWriter.Format.BINARY, ClusterWriter.Format.of("output.bin"));
+    }
+}
@@ -6,9 +6,12 @@ import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
-import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
 class ClusterizatorTest {
@@ -34,32 +37,82 @@ class ClusterizatorTest {
 
     @Test
     void cluster() {
-        val clusterizator = new Clusterizator(store);
-        clusterizator.cluster();
-        val set = clusterizator.getClusters();
-        assertEquals(2, set.size());
-        val iter = set.iterator();
-        val set1 = iter.next().split(";");
-        val set2 = iter.next().split(";");
-        String[] cars;
-        String[] pets;
-        Arrays.sort(set1);
-        Arrays.sort(set2);
-        if (set1[0].equals("car")) {
-            cars = set1;
-            pets = set2;
-        } else {
-            cars = set2;
-            pets = set1;
+        assertClusters(new Clusterizator(store, 0.001f, 1, Clusterizator.Engine.MEMORY));
+    }
+
+    @Test
+    void clusterConcurrently() {
+        assertClusters(new Clusterizator(store, 0.001f, 2, Clusterizator.Engine.MEMORY));
+    }
+
+    @Test
+    void clusterWithSql() {
+        assertClusters(new Clusterizator(store, 0.001f, 1, Clusterizator.Engine.SQL));
+        cancel();
+        init();
+        assertClusters(new Clusterizator(store, 0.001f, 2, Clusterizator.Engine.SQL));
+    }
+
+    @Test
+    void namesWithSemicolons() {
+        for (val engine : Clusterizator.Engine.values()) {
+            insertWithSemicolons();
+            val clusterizator = new Clusterizator(store, 0.001f, 1, engine);
+            clusterizator.cluster();
+            assertEquals(new HashSet<>(Arrays.asList(
+                    new HashSet<>(Arrays.asList("a;b", "c")),
+                    new HashSet<>(Arrays.asList("e;f", "g")))), sets(clusterizator.getClusters()));
         }
+    }
 
-        String[] expectedCars = {"car", "ferrari"};
-        assertArrayEquals(expectedCars, cars);
+    @Test
+    void streamClusters() {
+        for (val engine : Clusterizator.Engine.values()) {
+            for (val workers : new int[]{1, 2}) {
+                insertWithSemicolons();
+                store.insert("h", "w", 1);
+                val clusterizator = new Clusterizator(store, 0.001f, workers, engine);
+                val streamed = new ArrayList<List<String>>();
+                clusterizator.cluster(streamed::add);
+                //every cluster is passed once, a single query is not a cluster
+                assertEquals(2, streamed.size());
+                assertEquals(sets(clusterizator.getClusters()), sets(streamed));
+                assertEquals(new HashSet<>(Arrays.asList(
+                        new HashSet<>(Arrays.asList("a;b", "c")),
+                        new HashSet<>(Arrays.asList("e;f", "g")))), sets(streamed));
+            }
+        }
+    }
 
-        //kitti, but not kitty because of stemming
-        String[] expectedPets = {"cat", "kitti"};
-        assertArrayEquals(expectedPets, pets);
+    private void insertWithSemicolons() {
+        store.dropTables();
+        store.createTables();
+        store.insert("a;b", "x", 2);
+        store.insert("a;b", "y", 1);
+        store.insert("c", "x", 2);
+        store.insert("c", "y", 1);
+        //merged by compaction
+        store.insert("e;f", "z", 1);
+        store.insert("g", "z", 1);
+        store.compact();
     }
 
+    private static void assertClusters(Clusterizator clusterizator) {
+        clusterizator.cluster();
+        val clusters = clusterizator.getClusters();
+        assertEquals(2, clusters.size());
 
-}
\ No newline at end of file
+        //kitti, but not kitty because of stemming
+        assertEquals(new HashSet<>(Arrays.asList(
+                new HashSet<>(Arrays.asList("car", "ferrari")),
+                new HashSet<>(Arrays.asList("cat", "kitti")))), sets(clusters));
+    }
+
+    private static Set<Set<String>> sets(List<List<String>> clusters) {
+        val sets = new HashSet<Set<String>>();
+        for (val cluster : clusters) {
+            sets.add(new HashSet<>(cluster));
+        }
+        return sets;
+    }
+}
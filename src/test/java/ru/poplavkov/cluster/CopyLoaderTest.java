@@ -0,0 +1,98 @@
+package ru.poplavkov.cluster;
+
+import lombok.SneakyThrows;
+import lombok.val;
+import org.junit.jupiter.api.Test;
+
+import java.io.FileInputStream;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.util.HashMap;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CopyLoaderTest {
+
+    @SneakyThrows
+    private static Connection connect() {
+        val properties = new Properties();
+        try (val in = new FileInputStream("src/main/resources/db/db.properties")) {
+            properties.load(in);
+        }
+        return DriverManager.getConnection(properties.getProperty("url"),
+                properties.getProperty("user"), properties.getProperty("password"));
+    }
+
+    @SneakyThrows
+    private static void check(CopyLoader.Format format) {
+        val links = new LongIntHashMap();
+        for (int i = 0; i < 50_000; i++) {
+            links.add(Links.link(i % 1000 - 500, i % 7), i % 3 + 1);
+        }
+        links.add(Links.link(Integer.MAX_VALUE, Integer.MIN_VALUE), Integer.MAX_VALUE);
+
+        try (val connection = connect();
+             val statement = connection.createStatement()) {
+            statement.execute("CREATE TEMP TABLE copy_test (query INTEGER, document INTEGER, count INTEGER)");
+            assertEquals(links.size(), new CopyLoader(format).load(connection, "copy_test", links));
+
+            val loaded = new LongIntHashMap();
+            try (val rs = statement.executeQuery("SELECT query, document, count FROM copy_test")) {
+                while (rs.next()) {
+                    loaded.add(Links.link(rs.getInt(1), rs.getInt(2)), rs.getInt(3));
+                }
+            }
+            assertEquals(links.size(), loaded.size());
+            links.forEach((link, count) -> assertEquals(count, loaded.get(link)));
+        }
+    }
+
+    @SneakyThrows
+    private static void checkPairs(CopyLoader.Format format) {
+        val links = new LongIntHashMap();
+        for (int i = 0; i < 5_000; i++) {
+            links.add(Links.link(i % 700 - 100, i % 13 + 1), i % 11 + 1);
+        }
+        val pairs = PairSimilarities.compute(LinkGraph.of(links));
+
+        try (val connection = connect();
+             val statement = connection.createStatement()) {
+            statement.execute("CREATE TEMP TABLE copy_pairs (q1 INTEGER, q2 INTEGER, cou1 INTEGER, cou2 INTEGER, res REAL)");
+            assertEquals(pairs.size(), new CopyLoader(format).load(connection, "copy_pairs", pairs));
+
+            val loaded = new HashMap<String, Float>();
+            try (val rs = statement.executeQuery("SELECT q1, q2, cou1, cou2, res FROM copy_pairs")) {
+                while (rs.next()) {
+                    loaded.put(rs.getString(1) + ";" + rs.getString(2) + ";"
+                            + rs.getInt(3) + ";" + rs.getInt(4), rs.getFloat(5));
+                }
+            }
+            assertEquals(pairs.size(), loaded.size());
+            for (int pair = 0; pair < pairs.size(); pair++) {
+                assertEquals(pairs.res(pair), loaded.get(pairs.first(pair) + ";" + pairs.second(pair)
+                        + ";" + pairs.cou1(pair) + ";" + pairs.cou2(pair)));
+            }
+        }
+    }
+
+    @Test
+    void binary() {
+        check(CopyLoader.Format.BINARY);
+    }
+
+    @Test
+    void text() {
+        check(CopyLoader.Format.TEXT);
+    }
+
+    @Test
+    void binaryPairs() {
+        checkPairs(CopyLoader.Format.BINARY);
+    }
+
+    @Test
+    void textPairs() {
+        checkPairs(CopyLoader.Format.TEXT);
+    }
+}
@@ -0,0 +1,93 @@
+package ru.poplavkov.cluster;
+
+import lombok.val;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DictionaryTest {
+
+    @Test
+    void idOfAndDrain() {
+        val dictionary = new Dictionary(1);
+        dictionary.reserve(Links.OTHER_NAME, Links.OTHER);
+        assertEquals(1, dictionary.idOf("car"));
+        assertEquals(2, dictionary.idOf("cat"));
+        assertEquals(1, dictionary.idOf("car"));
+        assertEquals(Links.OTHER, dictionary.idOf(Links.OTHER_NAME));
+        assertEquals(-1, dictionary.find("dog"));
+
+        assertTrue(dictionary.hasUnsaved());
+        val unsaved = new HashMap<String, Integer>();
+        assertEquals(2, dictionary.drainUnsaved(unsaved::put));
+        assertEquals(2, unsaved.size());
+        assertEquals(2, unsaved.get("cat").intValue());
+        assertFalse(dictionary.hasUnsaved());
+        assertEquals(0, dictionary.drainUnsaved((name, id) -> {}));
+    }
+
+    @Test
+    void concurrentIdOf() {
+        val dictionary = new Dictionary(1);
+        IntStream.range(0, 10_000)
+                .parallel()
+                .forEach(i -> dictionary.idOf("q" + i % 100));
+        assertEquals(100, dictionary.size());
+
+        val ids = new boolean[101];
+        assertEquals(100, dictionary.drainUnsaved((name, id) -> ids[id] = true));
+        assertTrue(IntStream.rangeClosed(1, 100).allMatch(id -> ids[id]));
+    }
+
+    @Test
+    void drainWhileIdOf() throws InterruptedException {
+        val dictionary = new Dictionary(1);
+        val ids = new ConcurrentHashMap<String, Integer>();
+        val writers = new Thread[4];
+        for (int t = 0; t < writers.length; t++) {
+            val first = t;
+            writers[t] = new Thread(() -> {
+                for (int i = first; i < 100_000; i += writers.length) {
+                    dictionary.idOf("q" + i);
+                }
+            });
+            writers[t].start();
+        }
+        //drains race with assignment of ids, every name is passed exactly once
+        while (Arrays.stream(writers).anyMatch(Thread::isAlive)) {
+            dictionary.drainUnsaved((name, id) -> assertNull(ids.put(name, id)));
+        }
+        for (val writer : writers) {
+            writer.join();
+        }
+        dictionary.drainUnsaved((name, id) -> assertNull(ids.put(name, id)));
+
+        assertEquals(100_000, ids.size());
+        ids.forEach((name, id) -> assertEquals(dictionary.find(name), id.intValue()));
+    }
+
+    @Test
+    void links() {
+        val link = Links.link(123, 0);
+        assertEquals(123, Links.query(link));
+        assertEquals(0, Links.document(link));
+        val negative = Links.link(-5, 7);
+        assertEquals(-5, Links.query(negative));
+        assertEquals(7, Links.document(negative));
+
+        val map = new LongIntHashMap(2);
+        IntStream.range(0, 1000).forEach(i -> map.add(Links.link(i % 100, i % 3), 2));
+        assertEquals(300, map.size());
+        //i = 5, 305, 605, 905
+        assertEquals(8, map.get(Links.link(5, 2)));
+        assertEquals(0, map.get(Links.link(100, 0)));
+    }
+}
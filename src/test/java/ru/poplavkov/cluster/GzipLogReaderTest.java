@@ -0,0 +1,167 @@
+package ru.poplavkov.cluster;
+
+import lombok.SneakyThrows;
+import lombok.val;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GzipLogReaderTest {
+    private static final String HEADERS = "AnonID\tQuery\tQueryTime\tItemRank\tClickURL\n";
+
+    @SneakyThrows
+    private static List<String> readAll(byte[] file, int groupSize) {
+        val path = Files.createTempFile("log", ".gz");
+        try {
+            Files.write(path, file);
+            val result = new ArrayList<String>();
+            try (val reader = new GzipLogReader(path, groupSize)) {
+                for (val source : reader.sources()) {
+                    source.parse((q, d) -> result.add(q + "|" + d));
+                }
+            }
+            return result;
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @SneakyThrows
+    private static byte[] gzip(byte[] data) {
+        val out = new ByteArrayOutputStream();
+        try (val gzip = new GZIPOutputStream(out)) {
+            gzip.write(data);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Compresses every {@code memberSize} bytes of data to a BGZF member,
+     * regardless of line ends.
+     */
+    private static byte[] bgzip(byte[] data, int memberSize) {
+        val out = new ByteArrayOutputStream();
+        for (int from = 0; from < data.length; from += memberSize) {
+            val to = Math.min(data.length, from + memberSize);
+            val deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            deflater.setInput(data, from, to - from);
+            deflater.finish();
+            val compressed = new byte[2 * memberSize + 64];
+            val length = deflater.deflate(compressed);
+            deflater.end();
+            val crc = new CRC32();
+            crc.update(data, from, to - from);
+
+            out.write(new byte[]{0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff, 6, 0,
+                    'B', 'C', 2, 0}, 0, 16);
+            writeShort(out, 18 + length + 8 - 1);
+            out.write(compressed, 0, length);
+            writeInt(out, (int) crc.getValue());
+            writeInt(out, to - from);
+        }
+        return out.toByteArray();
+    }
+
+    private static void writeShort(ByteArrayOutputStream out, int value) {
+        out.write(value & 0xff);
+        out.write(value >>> 8 & 0xff);
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        writeShort(out, value & 0xffff);
+        writeShort(out, value >>> 16);
+    }
+
+    private static String log(int lines, List<String> expected) {
+        val builder = new StringBuilder(HEADERS);
+        for (int i = 0; i < lines; i++) {
+            builder.append(i).append("\tquery ").append(i).append("\t2006-03-01\t1\t");
+            if (i % 7 != 0) {
+                builder.append("www.site").append(i % 100).append(".com");
+                expected.add("query " + i + "|www.site" + i % 100 + ".com");
+            }
+            builder.append('\n');
+        }
+        return builder.toString();
+    }
+
+    @Test
+    void plainGzip() {
+        val result = readAll(gzip(("AnonID\tQuery\tItemRank\tClickURL\r\n"
+                + "1\tfirst query\t1\twww.first.com\r\n"
+                + "2\tno click\n"
+                + "4\tcaf\u00e9\t2\twww.horse.ru").getBytes(StandardCharsets.UTF_8)), 1);
+        assertEquals(Arrays.asList("first query|www.first.com", "caf\u00e9|www.horse.ru"), result);
+    }
+
+    @Test
+    void concatenatedMembers() {
+        val expected = new ArrayList<String>();
+        val data = log(5000, expected).getBytes(StandardCharsets.UTF_8);
+        val half = data.length / 2 + 3;
+        val first = gzip(Arrays.copyOfRange(data, 0, half));
+        val second = gzip(Arrays.copyOfRange(data, half, data.length));
+        val file = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, file, first.length, second.length);
+        assertEquals(expected, readAll(file, 1));
+    }
+
+    @Test
+    void parallelBgzf() {
+        val expected = new ArrayList<String>();
+        val data = log(20000, expected).getBytes(StandardCharsets.UTF_8);
+        //members and groups are cut in the middle of lines
+        assertEquals(expected, readAll(bgzip(data, 1000), 5000));
+        assertEquals(expected, readAll(bgzip(data, 65000), 1));
+    }
+
+    @SneakyThrows
+    @Test
+    void open() {
+        try (val reader = LogReader.open(Paths.get("src/test/resources/test.txt"))) {
+            assertTrue(reader instanceof ChunkedLogReader);
+        }
+        val path = Files.createTempFile("log", ".gz");
+        try {
+            Files.write(path, gzip(Files.readAllBytes(Paths.get("src/test/resources/test.txt"))));
+            try (val reader = LogReader.open(path)) {
+                assertTrue(reader instanceof GzipLogReader);
+                val result = new ArrayList<String>();
+                for (val source : reader.sources()) {
+                    source.parse((q, d) -> result.add(q + "|" + d));
+                }
+                assertEquals(6, result.size());
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    void headers() {
+        assertEquals(0, readAll(gzip(new byte[0]), 1).size());
+        assertThrows(IllegalArgumentException.class,
+                () -> readAll(gzip("a\tb\nc\td\n".getBytes(StandardCharsets.UTF_8)), 1));
+    }
+
+    @Test
+    void corrupted() {
+        val expected = new ArrayList<String>();
+        val file = gzip(log(5000, expected).getBytes(StandardCharsets.UTF_8));
+        val truncated = Arrays.copyOf(file, file.length - 100);
+        assertThrows(Exception.class, () -> readAll(truncated, 1));
+    }
+}
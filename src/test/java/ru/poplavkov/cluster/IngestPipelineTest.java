@@ -0,0 +1,96 @@
+package ru.poplavkov.cluster;
+
+import lombok.SneakyThrows;
+import lombok.val;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+class IngestPipelineTest {
+    private static Store store;
+
+    @BeforeAll
+    static void init() {
+        store = new Store("src/main/resources/db");
+        store.createDB();
+        store.createTables();
+    }
+
+    @SneakyThrows
+    @AfterAll
+    static void cancel() {
+        store.dropTables();
+        store.dropDB();
+        store.close();
+    }
+
+    private static IngestPipeline.Source lines(String document, int count) {
+        return consumer -> {
+            for (int i = 0; i < count; i++) {
+                consumer.accept("query" + i % 10, document);
+            }
+        };
+    }
+
+    @Test
+    void run() {
+        val pipeline = new IngestPipeline(store, () -> query -> query.endsWith("9") ? "" : query,
+                new AdaptiveBatchSize(3, 3, 3, 1000));
+        pipeline.run(Arrays.asList(lines("doc1", 10000), lines("doc2", 100)));
+        store.compact();
+
+        val queries = store.selectSetOfQueries("doc1");
+        assertEquals(9, queries.size());
+        assertEquals(1000, queries.get("query0").intValue());
+        assertEquals(10, store.selectSetOfDocuments("query1").get("doc2").intValue());
+        pipeline.queueDepths().values().forEach(depth -> assertEquals(0, depth.intValue()));
+    }
+
+    @Test
+    void failure() {
+        val pipeline = new IngestPipeline(store, () -> query -> {
+            throw new IllegalStateException("analyzer failed");
+        }, new AdaptiveBatchSize(10, 10, 10, 1000));
+        val sources = new ArrayList<IngestPipeline.Source>();
+        for (int i = 0; i < 100; i++) {
+            sources.add(lines("doc", 10000));
+        }
+        val e = assertThrows(RuntimeException.class, () -> pipeline.run(sources));
+        assertEquals("analyzer failed", e.getCause().getMessage());
+    }
+
+    @Test
+    void failureAfterRead() {
+        //analyzers hold a batch each and the read queue is full, when they
+        //fail, after readers are done: nobody would take the ends of reads
+        val processors = Runtime.getRuntime().availableProcessors();
+        val lines = IngestPipeline.LINES_PER_BATCH * 3 * processors;
+        val read = new CountDownLatch(1);
+        val pipeline = new IngestPipeline(store, () -> query -> {
+            await(read);
+            throw new IllegalStateException("analyzer failed");
+        }, new AdaptiveBatchSize(10, 10, 10, 1000));
+        IngestPipeline.Source source = consumer -> {
+            lines("doc", lines).parse(consumer);
+            read.countDown();
+        };
+        val e = assertTimeoutPreemptively(Duration.ofSeconds(30),
+                () -> assertThrows(RuntimeException.class, () -> pipeline.run(Collections.singletonList(source))));
+        assertEquals("analyzer failed", e.getCause().getMessage());
+    }
+
+    @SneakyThrows
+    private static void await(CountDownLatch latch) {
+        latch.await();
+    }
+}
@@ -0,0 +1,51 @@
+package ru.poplavkov.cluster;
+
+import lombok.val;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LinkGraphTest {
+
+    @Test
+    void of() {
+        val links = new LongIntHashMap();
+        links.add(Links.link(5, 20), 1);
+        links.add(Links.link(-1, 10), 2);
+        links.add(Links.link(5, 0), 3);
+        links.add(Links.link(7, 20), 4);
+        links.add(Links.link(5, 10), 5);
+        val graph = LinkGraph.of(links);
+        assertEquals(5, graph.size());
+        assertEquals(3, graph.queryRows());
+        assertEquals(3, graph.documentRows());
+
+        val row = graph.queryRow(5);
+        assertEquals(1, row);
+        assertEquals(5, graph.queryId(row));
+        assertEquals(3, graph.queryEnd(row) - graph.queryStart(row));
+        assertEquals(0, graph.document(graph.queryStart(row)));
+        assertEquals(3, graph.queryCount(graph.queryStart(row)));
+        assertEquals(20, graph.document(graph.queryEnd(row) - 1));
+        assertTrue(graph.queryRow(6) < 0);
+
+        val document = graph.documentRow(20);
+        assertEquals(2, graph.documentEnd(document) - graph.documentStart(document));
+        assertEquals(5, graph.queryId(graph.query(graph.documentStart(document))));
+        assertEquals(1, graph.documentCount(graph.documentStart(document)));
+        assertEquals(7, graph.queryId(graph.query(graph.documentStart(document) + 1)));
+        assertEquals(4, graph.documentCount(graph.documentStart(document) + 1));
+
+        val copy = new LongIntHashMap();
+        graph.addTo(copy);
+        assertEquals(5, copy.size());
+        assertEquals(2, copy.get(Links.link(-1, 10)));
+    }
+
+    @Test
+    void empty() {
+        assertEquals(0, LinkGraph.EMPTY.size());
+        assertTrue(LinkGraph.EMPTY.queryRow(1) < 0);
+    }
+}
@@ -0,0 +1,165 @@
+package ru.poplavkov.cluster;
+
+import io.vavr.Tuple2;
+import lombok.SneakyThrows;
+import lombok.val;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MemoryStoreTest {
+    private MemoryStore store;
+
+    @BeforeEach
+    void init() {
+        store = new MemoryStore();
+    }
+
+    @Test
+    void insertAndSelect() {
+        store.insert("ab", "ef", 1);
+        store.insert("ab", "ef", 1);
+        store.insert("ab", "gh", 10);
+        store.insert("cd", "gh", 1);
+        store.insert("cd", "gh", 1);
+        store.insert("cd", "gh", 1);
+        store.insert("cd", "ij", 4);
+        store.compact();
+
+        val map1 = store.selectSetOfDocuments("ab");
+        assertEquals(2, map1.get("other").intValue());
+        assertEquals(10, map1.get("gh").intValue());
+
+        val map2 = store.selectSetOfQueries("gh");
+        assertEquals(10, map2.get("ab").intValue());
+        assertEquals(3, map2.get("cd").intValue());
+        assertTrue(store.selectSetOfQueries("ef").isEmpty());
+    }
+
+    @Test
+    void insertAllAndLoad() {
+        Map<Tuple2<String, String>, Integer> map = new HashMap<>();
+        map.put(new Tuple2<>("query1", "doc1"), 10);
+        map.put(new Tuple2<>("query1", "doc2"), 20);
+        map.put(new Tuple2<>("query2", "doc1"), 30);
+        store.insertAll(map);
+        val links = new LongIntHashMap();
+        links.add(Links.link(store.getQueries().idOf("query1"), store.getDocuments().idOf("doc2")), 5);
+        links.add(Links.link(store.getQueries().idOf("query2"), store.getDocuments().idOf("doc2")), 40);
+        store.load(links, 0);
+        store.compact();
+
+        val map1 = store.selectSetOfDocuments("query1");
+        assertEquals(10, map1.get("doc1").intValue());
+        assertEquals(25, map1.get("doc2").intValue());
+
+        val map2 = store.selectSetOfQueries("doc2");
+        assertEquals(25, map2.get("query1").intValue());
+        assertEquals(40, map2.get("query2").intValue());
+    }
+
+    @Test
+    void compactMergesQueriesOfOneDocument() {
+        store.insert("a", "x", 1);
+        store.insert("b", "x", 2);
+        store.insert("c", "x", 3);
+        store.insert("c", "y", 4);
+        store.insert("d", "z", 5);
+        store.compact();
+
+        //a and b have only x, d has only 'other' and is removed
+        val clusters = store.selectClusters();
+        assertEquals(1, clusters.size());
+        val names = new ArrayList<>(clusters.get(0));
+        Collections.sort(names);
+        assertEquals(Arrays.asList("a", "b"), names);
+
+        val queries = store.selectSetOfQueries("x");
+        assertEquals(2, queries.size());
+        assertEquals(3, queries.get("a;b").intValue());
+        assertEquals(3, queries.get("c").intValue());
+        assertEquals(Collections.singletonMap("other", 4), filter(store.selectSetOfDocuments("c")));
+        assertTrue(store.selectSetOfDocuments("d").isEmpty());
+        //a member resolves to the merged query
+        assertEquals(3, store.selectSetOfDocuments("a").get("x").intValue());
+
+        val sets = store.selectSetsOfDocuments(Arrays.asList("a", "c", "d"));
+        assertEquals(3, sets.size());
+        assertEquals(store.selectSetOfDocuments("c"), sets.get("c"));
+        assertEquals(queries, store.selectSetsOfQueries(Collections.singleton("x")).get("x"));
+    }
+
+    @Test
+    void compactTwice() {
+        store.insert("c", "d2", 1);
+        store.insert("e", "d2", 1);
+        store.insert("q", "d2", 1);
+        store.insert("q", "d3", 1);
+        store.insert("r", "d3", 1);
+        store.compact();
+        store.insert("g", "d2", 1);
+        store.compact();
+
+        //merged c;e is merged again with g, by its members
+        val queries = store.selectSetOfQueries("d2");
+        assertEquals(2, queries.size());
+        assertEquals(3, queries.get("c;e;g").intValue());
+        assertEquals(1, queries.get("q").intValue());
+        assertEquals(3, store.selectSetOfDocuments("e").get("d2").intValue());
+
+        val clusters = store.selectClusters();
+        assertEquals(1, clusters.size());
+        assertEquals(Arrays.asList("c", "e", "g"), clusters.get(0));
+    }
+
+    private static Map<String, Integer> filter(Map<String, Integer> documents) {
+        documents.remove("x");
+        return documents;
+    }
+
+    @Test
+    void labelComponents() {
+        store.insert("a", "x", 1);
+        store.insert("a", "u", 1);
+        store.insert("b", "x", 1);
+        store.insert("b", "v", 1);
+        store.insert("c", "y", 1);
+        store.insert("c", "v", 1);
+        store.insert("d", "y", 1);
+        store.insert("d", "w", 1);
+        store.insert("e", "z", 1);
+        store.insert("e", "t", 1);
+        store.insert("f", "z", 1);
+        store.insert("f", "s", 1);
+        store.compact();
+        assertEquals(2, store.labelComponents().length);
+    }
+
+    @SneakyThrows
+    @Test
+    void cluster() {
+        new Preprocessor(store).readAndStore("src/test/resources/test.txt");
+        for (val workers : new int[]{1, 2}) {
+            val clusterizator = new Clusterizator(store, 0.001f, workers);
+            clusterizator.cluster();
+            val clusters = new HashSet<List<String>>();
+            for (val cluster : clusterizator.getClusters()) {
+                val names = new ArrayList<>(cluster);
+                Collections.sort(names);
+                clusters.add(names);
+            }
+            assertEquals(new HashSet<>(Arrays.asList(
+                    Arrays.asList("car", "ferrari"), Arrays.asList("cat", "kitti"))), clusters);
+        }
+    }
+}
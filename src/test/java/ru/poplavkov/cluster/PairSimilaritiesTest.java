@@ -0,0 +1,230 @@
+package ru.poplavkov.cluster;
+
+import lombok.val;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PairSimilaritiesTest {
+
+    @Test
+    void compute() {
+        val links = new LongIntHashMap();
+        links.add(Links.link(1, 10), 2);
+        links.add(Links.link(1, 20), 3);
+        links.add(Links.link(1, Links.OTHER), 5);
+        links.add(Links.link(2, 10), 4);
+        links.add(Links.link(2, 20), 1);
+        links.add(Links.link(3, 20), 6);
+        links.add(Links.link(3, Links.OTHER), 7);
+        links.add(Links.link(2, Links.OTHER), 9);
+        val pairs = PairSimilarities.compute(LinkGraph.of(links));
+        assertEquals(3, pairs.size());
+
+        val expected = new HashMap<Long, Float>();
+        expected.put(Links.link(1, 2), (2 + 4 + 3 + 1) / (float) (10 + 14));
+        expected.put(Links.link(1, 3), (3 + 6) / (float) (10 + 13));
+        expected.put(Links.link(2, 3), (1 + 6) / (float) (14 + 13));
+        for (int pair = 0; pair < pairs.size(); pair++) {
+            assertTrue(pairs.first(pair) < pairs.second(pair));
+            assertEquals(expected.get(Links.link(pairs.first(pair), pairs.second(pair))),
+                    pairs.res(pair));
+        }
+    }
+
+    @Test
+    void parallel() {
+        val random = new Random(17);
+        val links = new LongIntHashMap();
+        for (int i = 0; i < 5_000; i++) {
+            links.add(Links.link(random.nextInt(1000) + 1, random.nextInt(300)), random.nextInt(5) + 1);
+        }
+        val graph = LinkGraph.of(links);
+        val pairs = PairSimilarities.compute(graph);
+
+        //brute force self-join of links, as SQL would do
+        val sums = new LongIntHashMap();
+        val totals = new HashMap<Integer, Integer>();
+        links.forEach((link1, count1) -> {
+            totals.merge(Links.query(link1), count1, Integer::sum);
+            links.forEach((link2, count2) -> {
+                if (Links.document(link1) != Links.OTHER
+                        && Links.document(link1) == Links.document(link2)
+                        && Links.query(link1) < Links.query(link2)) {
+                    sums.add(Links.link(Links.query(link1), Links.query(link2)), count1 + count2);
+                }
+            });
+        });
+        assertEquals(sums.size(), pairs.size());
+        for (int pair = 0; pair < pairs.size(); pair++) {
+            val count1 = totals.get(pairs.first(pair));
+            val count2 = totals.get(pairs.second(pair));
+            assertEquals(count1, pairs.cou1(pair));
+            assertEquals(count2, pairs.cou2(pair));
+            val sum = sums.get(Links.link(pairs.first(pair), pairs.second(pair)));
+            assertEquals((float) ((double) sum / (count1 + count2)), pairs.res(pair));
+        }
+    }
+
+    private static LongIntHashMap randomLinks(long seed) {
+        val random = new Random(seed);
+        val links = new LongIntHashMap();
+        for (int i = 0; i < 5_000; i++) {
+            links.add(Links.link(random.nextInt(800) + 1, random.nextInt(400)), random.nextInt(20) + 1);
+        }
+        //hubs, shared by most queries
+        for (int query = 1; query <= 800; query += 2) {
+            links.add(Links.link(query, 1000 + query % 3), random.nextInt(50) + 1);
+        }
+        return links;
+    }
+
+    static Map<Long, Float> toMap(PairSimilarities pairs) {
+        val map = new HashMap<Long, Float>();
+        for (int pair = 0; pair < pairs.size(); pair++) {
+            assertTrue(pairs.first(pair) < pairs.second(pair));
+            assertNull(map.put(Links.link(pairs.first(pair), pairs.second(pair)), pairs.res(pair)));
+        }
+        return map;
+    }
+
+    @Test
+    void prefixPruning() {
+        for (val seed : new long[]{1, 2, 3}) {
+            val graph = LinkGraph.of(randomLinks(seed));
+            val all = toMap(PairSimilarities.compute(graph));
+            for (val threshold : new float[]{0.001f, 0.05f, 0.2f, 0.5f, 0.9f}) {
+                val expected = new HashMap<Long, Float>();
+                all.forEach((pair, res) -> {
+                    if (res >= threshold) {
+                        expected.put(pair, res);
+                    }
+                });
+                val pruned = PairSimilarities.compute(graph, threshold,
+                        new CandidatePruning(CandidatePruning.Mode.PREFIX, 0));
+                assertEquals(expected, toMap(pruned));
+            }
+        }
+    }
+
+    @Test
+    void topNeighbours() {
+        val graph = LinkGraph.of(randomLinks(4));
+        val all = PairSimilarities.compute(graph);
+        val top = toMap(PairSimilarities.compute(graph, 0, new CandidatePruning(CandidatePruning.Mode.NONE, 3)));
+        assertTrue(top.size() < all.size());
+
+        //a pair is kept if fewer than 3 pairs of one of its queries are better
+        val pairsOf = new HashMap<Integer, List<Integer>>();
+        for (int pair = 0; pair < all.size(); pair++) {
+            pairsOf.computeIfAbsent(all.first(pair), q -> new ArrayList<>()).add(pair);
+            pairsOf.computeIfAbsent(all.second(pair), q -> new ArrayList<>()).add(pair);
+        }
+        val best = new HashSet<Integer>();
+        for (val pairs : pairsOf.values()) {
+            pairs.sort((a, b) -> all.res(a) != all.res(b)
+                    ? Float.compare(all.res(b), all.res(a)) : Integer.compare(a, b));
+            best.addAll(pairs.subList(0, Math.min(3, pairs.size())));
+        }
+        for (int pair = 0; pair < all.size(); pair++) {
+            assertEquals(best.contains(pair),
+                    top.containsKey(Links.link(all.first(pair), all.second(pair))));
+        }
+    }
+
+    /**
+     * Queries of topics: a query clicks a few documents of its topic and
+     * sometimes a popular one.
+     */
+    static LongIntHashMap topicLinks(int queries, long seed) {
+        val random = new Random(seed);
+        val links = new LongIntHashMap();
+        for (int query = 1; query <= queries; query++) {
+            val topic = random.nextInt(queries / 20);
+            val documents = 2 + random.nextInt(4);
+            for (int i = 0; i < documents; i++) {
+                links.add(Links.link(query, 100 + topic * 8 + random.nextInt(8)), random.nextInt(20) + 1);
+            }
+            if (random.nextInt(4) == 0) {
+                links.add(Links.link(query, 1 + random.nextInt(3)), random.nextInt(5) + 1);
+            }
+        }
+        return links;
+    }
+
+    /**
+     * @return share of pairs of {@code exact} not less than threshold,
+     * which are found by {@code approximate} with the same similarity
+     */
+    static double recall(PairSimilarities exact, PairSimilarities approximate, float threshold) {
+        val found = toMap(approximate);
+        int relevant = 0;
+        int recalled = 0;
+        for (int pair = 0; pair < exact.size(); pair++) {
+            if (exact.res(pair) >= threshold) {
+                relevant++;
+                if (Float.valueOf(exact.res(pair))
+                        .equals(found.get(Links.link(exact.first(pair), exact.second(pair))))) {
+                    recalled++;
+                }
+            }
+        }
+        return relevant == 0 ? 1 : (double) recalled / relevant;
+    }
+
+    @Test
+    void minHash() {
+        val graph = LinkGraph.of(topicLinks(4_000, 5));
+        val exact = PairSimilarities.compute(graph);
+        val approximate = PairSimilarities.compute(graph, 0.2f,
+                new CandidatePruning(CandidatePruning.Mode.MINHASH, 0, 20, 1, 1_000, 100));
+        assertTrue(approximate.size() < exact.size());
+        assertTrue(recall(exact, approximate, 0.2f) > 0.9);
+
+        //fewer bands trade recall for speed
+        val fast = PairSimilarities.compute(graph, 0.2f,
+                new CandidatePruning(CandidatePruning.Mode.MINHASH, 0, 10, 1, 1_000, 100));
+        assertTrue(fast.size() < approximate.size());
+        assertTrue(recall(exact, fast, 0.2f) < recall(exact, approximate, 0.2f));
+
+        //small components are computed exactly
+        val small = PairSimilarities.compute(graph, 0.2f,
+                new CandidatePruning(CandidatePruning.Mode.MINHASH, 0, 4, 4, 10_000, 1_000));
+        assertEquals(toMap(exact), toMap(small));
+    }
+
+    @Test
+    void pruningOf() {
+        val properties = new Properties();
+        assertEquals(CandidatePruning.Mode.NONE, CandidatePruning.of(properties).getMode());
+        assertEquals(0, CandidatePruning.of(properties).getTopNeighbours());
+        properties.setProperty("pruning", "prefix");
+        properties.setProperty("topNeighbours", "10");
+        assertEquals(CandidatePruning.Mode.PREFIX, CandidatePruning.of(properties).getMode());
+        assertEquals(10, CandidatePruning.of(properties).getTopNeighbours());
+        properties.setProperty("pruning", "minhash");
+        properties.setProperty("minHashBands", "8");
+        assertEquals(CandidatePruning.Mode.MINHASH, CandidatePruning.of(properties).getMode());
+        assertEquals(8, CandidatePruning.of(properties).getMinHashBands());
+        //a band of no rows or no bands would give no candidates at all
+        properties.setProperty("minHashBands", "0");
+        properties.setProperty("minHashRows", "-2");
+        assertEquals(1, CandidatePruning.of(properties).getMinHashBands());
+        assertEquals(1, CandidatePruning.of(properties).getMinHashRows());
+    }
+
+    @Test
+    void empty() {
+        assertEquals(0, PairSimilarities.compute(LinkGraph.EMPTY).size());
+    }
+}
@@ -2,25 +2,36 @@ package ru.poplavkov.cluster;
 
 import lombok.SneakyThrows;
 import lombok.val;
-import org.junit.jupiter.api.AfterAll;
-import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.io.FileNotFoundException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.zip.GZIPOutputStream;
+
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 class PreprocessorTest {
-    private static Store store;
+    private Store store;
 
-    @BeforeAll
-    static void init() {
+    @BeforeEach
+    void init() {
         store = new Store("src/main/resources/db");
         store.createDB();
         store.createTables();
     }
 
     @SneakyThrows
-    @AfterAll
-    static void cancel() {
+    @AfterEach
+    void cancel() {
         store.dropTables();
         store.dropDB();
         store.close();
@@ -36,4 +47,62 @@ class PreprocessorTest {
         assertEquals(1, map.get("cat").intValue());
     }
 
-}
\ No newline at end of file
+    @SneakyThrows
+    @Test
+    void readAndStoreDirectory() {
+        val directory = Files.createTempDirectory("logs");
+        try {
+            Files.write(directory.resolve("part-1.txt"),
+                    "query\tclickURL\ncar\twww.car.com\nferrari\twww.car.com\ncat\twww.pets.org\n"
+                            .getBytes(StandardCharsets.UTF_8));
+            try (OutputStream out = new GZIPOutputStream(
+                    Files.newOutputStream(directory.resolve("part-2.txt.gz")))) {
+                out.write("AnonID\tQuery\tClickURL\n1\tkitty\twww.cats.ru\n2\tkitty\twww.pets.org\n3\tcar\twww.car.com\n"
+                        .getBytes(StandardCharsets.UTF_8));
+            }
+
+            new Preprocessor(store).readAndStore(directory.toString());
+            val pets = store.selectSetOfQueries("www.pets.org");
+            assertEquals(1, pets.get("kitti").intValue());
+            assertEquals(1, pets.get("cat").intValue());
+            val kitty = store.selectSetOfDocuments("kitti");
+            assertEquals(1, kitty.get("other").intValue());
+            //car and ferrari have one document only and are merged by compaction
+            val clusters = store.selectClusters();
+            assertEquals(1, clusters.size());
+            val cars = new ArrayList<>(clusters.get(0));
+            Collections.sort(cars);
+            assertEquals(Arrays.asList("car", "ferrari"), cars);
+        } finally {
+            for (val file : Files.list(directory).toArray(Path[]::new)) {
+                Files.delete(file);
+            }
+            Files.delete(directory);
+        }
+    }
+
+    @SneakyThrows
+    @Test
+    void resolve() {
+        val directory = Files.createTempDirectory("logs");
+        try {
+            for (val name : Arrays.asList("b-02.txt", "b-01.txt.gz", "a.txt")) {
+                Files.write(directory.resolve(name), new byte[0]);
+            }
+            assertEquals(Arrays.asList(directory.resolve("a.txt"),
+                    directory.resolve("b-01.txt.gz"), directory.resolve("b-02.txt")),
+                    Preprocessor.resolve(directory.toString()));
+            assertEquals(Arrays.asList(directory.resolve("b-01.txt.gz"), directory.resolve("b-02.txt")),
+                    Preprocessor.resolve(directory.resolve("b-*").toString()));
+            assertEquals(Arrays.asList(directory.resolve("a.txt")),
+                    Preprocessor.resolve(directory.resolve("a.txt").toString()));
+            assertThrows(FileNotFoundException.class,
+                    () -> Preprocessor.resolve(directory.resolve("c-*").toString()));
+        } finally {
+            for (val file : Files.list(directory).toArray(Path[]::new)) {
+                Files.delete(file);
+            }
+            Files.delete(directory);
+        }
+    }
+}
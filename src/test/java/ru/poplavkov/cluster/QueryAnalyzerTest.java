@@ -0,0 +1,73 @@
+package ru.poplavkov.cluster;
+
+import lombok.SneakyThrows;
+import lombok.val;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class QueryAnalyzerTest {
+    private final QueryAnalyzer analyzer = new QueryAnalyzer();
+
+    /**
+     * Preparation as it was done by {@code Preprocessor} before
+     * {@code QueryAnalyzer}, with regular expressions.
+     */
+    @SneakyThrows
+    private static String reference(String str) {
+        val stopWordsSorted = Files.readAllLines(Paths.get("src/main/resources/stopWordsSortedList.txt"))
+                .toArray(new String[0]);
+        val normalized = str.toLowerCase()
+                .replaceAll("\\p{Punct}", " ")
+                .replaceAll("\\s+", " ")
+                .trim();
+        val stemmer = new Stemmer();
+        val stringBuilder = Arrays.stream(normalized.split("\\s"))
+                .filter(s -> s.length() > 1)
+                .map(stemmer::stem)
+                .filter(s -> Arrays.binarySearch(stopWordsSorted, s) < 0)
+                .collect(StringBuilder::new,
+                        (sb, s) -> sb.append(s).append(" "),
+                        StringBuilder::append);
+        if (stringBuilder.length() > 0) {
+            stringBuilder.deleteCharAt(stringBuilder.length() - 1);
+        }
+        return stringBuilder.toString();
+    }
+
+    @Test
+    void analyze() {
+        assertEquals("meet run cat", analyzer.analyze("Meetings, RUNNING\tcats!"));
+        assertEquals("kitti", analyzer.analyze("  the kitty  "));
+        assertEquals("", analyzer.analyze("a b c"));
+        assertEquals("", analyzer.analyze(""));
+        assertEquals("googl", analyzer.analyze("www.google.com"));
+    }
+
+    @Test
+    void sameAsRegex() {
+        val queries = new String[]{
+                "Meetings, RUNNING\tcats!",
+                "how to   make a website???",
+                "www.google.com/search?q=hello+world",
+                "it's-not\u000Bthe_end;of the \"world\"",
+                "caf\u00e9 M\u00dcNCHEN x y zz",
+                "generalization relational conditional",
+                "1999 ford f-150 parts",
+                ".,;:!?",
+                "   ",
+                "a"
+        };
+        val cached = new QueryAnalyzer(new BoundedCache<>(4));
+        for (int i = 0; i < 3; i++) {
+            for (val query : queries) {
+                assertEquals(reference(query), analyzer.analyze(query), query);
+                assertEquals(reference(query), cached.analyze(query), query);
+            }
+        }
+    }
+}
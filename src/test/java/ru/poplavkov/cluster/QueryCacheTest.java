@@ -0,0 +1,53 @@
+package ru.poplavkov.cluster;
+
+import lombok.SneakyThrows;
+import lombok.val;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class QueryCacheTest {
+
+    @Test
+    void analyze() {
+        val cache = new QueryCache(10);
+        val calls = new AtomicInteger();
+        val analyzer = new QueryAnalyzer();
+        for (int i = 0; i < 3; i++) {
+            assertEquals("cat", cache.analyze("Cats!", q -> {
+                calls.incrementAndGet();
+                return analyzer.analyze(q);
+            }));
+            assertEquals("", cache.analyze("the", q -> {
+                calls.incrementAndGet();
+                return analyzer.analyze(q);
+            }));
+        }
+        assertEquals(2, calls.get());
+        assertEquals(4, cache.getCache().hits());
+    }
+
+    @SneakyThrows
+    @Test
+    void saveAndLoad() {
+        val file = Files.createTempFile("queries", ".tsv");
+        try {
+            val cache = new QueryCache(10);
+            cache.analyze("Meetings", q -> "meet");
+            cache.analyze("a b", q -> "");
+            cache.analyze("tab\tinside", q -> "tab insid");
+            cache.save(file);
+
+            val loaded = new QueryCache(10);
+            loaded.load(file);
+            assertEquals(2, loaded.getCache().size());
+            assertEquals("meet", loaded.analyze("Meetings", q -> "wrong"));
+            assertEquals("", loaded.analyze("a b", q -> "wrong"));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package ru.poplavkov.cluster;
+
+import lombok.val;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+class QueryComponentsTest {
+
+    @Test
+    void components() {
+        val components = new QueryComponents();
+        //1 - 2 - 3 through documents 10 and 11, -1 - 4 through 12, 5 alone
+        components.add(1, 10);
+        components.add(2, 10);
+        components.add(-1, 12);
+        components.add(2, 11);
+        components.add(5, 13);
+        components.add(3, 11);
+        components.add(4, 12);
+        components.add(1, 14);
+        assertEquals(6, components.size());
+
+        val queries = new int[components.size()];
+        val labels = new int[components.size()];
+        val count = components.labels(2, queries, labels);
+        assertEquals(5, count);
+        val byQuery = new HashMap<Integer, Integer>();
+        for (int i = 0; i < count; i++) {
+            byQuery.put(queries[i], labels[i]);
+        }
+        assertEquals(byQuery.get(1), byQuery.get(2));
+        assertEquals(byQuery.get(1), byQuery.get(3));
+        assertEquals(byQuery.get(-1), byQuery.get(4));
+        assertNotEquals(byQuery.get(1), byQuery.get(4));
+
+        assertArrayEquals(new int[]{byQuery.get(1), byQuery.get(4)}, components.components(2));
+        assertEquals(3, components.components(1).length);
+    }
+}
@@ -24,4 +24,27 @@ class StemmerTest {
         assertEquals("run", stemmer.stem(s2));
         assertEquals("cat", stemmer.stem(s3));
     }
-}
\ No newline at end of file
+
+    @Test
+    void stemRange() {
+        val buf = "xxgeneralizationsxx".toCharArray();
+        val len = stemmer.stem(buf, 2, 15);
+        assertEquals("gener", new String(buf, 2, len));
+        assertEquals('x', buf[17]);
+
+        val stemmed = stemmer.stem(new StringBuilder("[relational]"), 1, 10);
+        assertEquals(stemmed, stemmer.getResultLength());
+        assertEquals("relat", new String(stemmer.getResultBuffer(), 0, stemmed));
+        assertEquals("relat", stemmer.toString());
+    }
+
+    @Test
+    void longWord() {
+        val word = new StringBuilder();
+        for (int i = 0; i < 30; i++) {
+            word.append("ab");
+        }
+        assertEquals(word.toString(), stemmer.stem(word.toString()));
+        assertEquals("meet", stemmer.stem("meetings"));
+    }
+}
@@ -7,10 +7,15 @@ import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class StoreTest {
     private static Store store;
@@ -78,4 +83,94 @@ class StoreTest {
         assertEquals(25, map2.get(q1).intValue());
         assertEquals(40, map2.get(q2).intValue());
     }
-}
\ No newline at end of file
+
+    @Test
+    void load() {
+        val q1 = store.getQueries().idOf("copy query1");
+        val q2 = store.getQueries().idOf("copy query2");
+        val d1 = store.getDocuments().idOf("copy doc1");
+        val d2 = store.getDocuments().idOf("copy doc2");
+
+        val links = new LongIntHashMap();
+        links.add(Links.link(q1, d1), 10);
+        links.add(Links.link(q1, d2), 20);
+        links.add(Links.link(q2, d1), 30);
+        store.load(links, 0);
+        val more = new LongIntHashMap();
+        more.add(Links.link(q1, d2), 5);
+        more.add(Links.link(q2, d2), 40);
+        store.load(more, 1);
+        store.compact();
+
+        val map1 = store.selectSetOfDocuments("copy query1");
+        assertEquals(10, map1.get("copy doc1").intValue());
+        assertEquals(25, map1.get("copy doc2").intValue());
+
+        val map2 = store.selectSetOfQueries("copy doc2");
+        assertEquals(25, map2.get("copy query1").intValue());
+        assertEquals(40, map2.get("copy query2").intValue());
+    }
+
+    @Test
+    void compactTwice() {
+        store.insert("twice c", "twice d2", 1);
+        store.insert("twice e", "twice d2", 1);
+        store.insert("twice q", "twice d2", 1);
+        store.insert("twice q", "twice d3", 1);
+        store.insert("twice r", "twice d3", 1);
+        store.compact();
+        store.insert("twice g", "twice d2", 1);
+        store.compact();
+
+        //merged c;e is merged again with g, by its members
+        val queries = store.selectSetOfQueries("twice d2");
+        assertEquals(2, queries.size());
+        assertEquals(3, queries.get("twice c;twice e;twice g").intValue());
+        assertEquals(1, queries.get("twice q").intValue());
+        assertEquals(3, store.selectSetOfDocuments("twice e").get("twice d2").intValue());
+
+        //other tests share the tables, so only clusters of this one are checked
+        val clusters = store.selectClusters().stream()
+                .filter(cluster -> cluster.get(0).startsWith("twice"))
+                .collect(Collectors.toList());
+        assertEquals(1, clusters.size());
+        assertEquals(Arrays.asList("twice c", "twice e", "twice g"), clusters.get(0));
+    }
+
+    @Test
+    void selectSets() {
+        store.insert("batch query1", "batch doc1", 2);
+        store.insert("batch query1", "batch doc2", 1);
+        store.insert("batch query2", "batch doc1", 3);
+        store.insert("batch query2", "batch doc2", 1);
+        store.compact();
+
+        val documents = store.selectSetsOfDocuments(
+                Arrays.asList("batch query1", "batch query2", "unknown", "batch query1"));
+        assertEquals(3, documents.size());
+        assertEquals(2, documents.get("batch query1").get("batch doc1").intValue());
+        assertEquals(3, documents.get("batch query2").get("batch doc1").intValue());
+        assertTrue(documents.get("unknown").isEmpty());
+        val queries = store.selectSetsOfQueries(Arrays.asList("batch doc1", "batch doc2"));
+        assertEquals(2, queries.get("batch doc1").size());
+        assertEquals(1, queries.get("batch doc2").get("batch query2").intValue());
+
+        //sets are cached after compaction
+        val cache = store.getDocumentsCache();
+        val hits = cache.hits();
+        assertSame(documents.get("batch query2"), store.selectSetOfDocuments("batch query2"));
+        assertEquals(hits + 1, cache.hits());
+
+        //and not between a write and the next compaction
+        store.insert("batch query2", "batch doc2", 4);
+        store.selectSetOfDocuments("batch query2");
+        assertEquals(hits + 1, cache.hits());
+        store.compact();
+        assertEquals(0, cache.size());
+        assertEquals(5, store.selectSetOfDocuments("batch query2").get("batch doc2").intValue());
+        assertEquals(5, store.selectSetsOfQueries(Collections.singleton("batch doc2"))
+                .get("batch doc2").get("batch query2").intValue());
+        store.selectSetOfDocuments("batch query2");
+        assertEquals(hits + 2, cache.hits());
+    }
+}
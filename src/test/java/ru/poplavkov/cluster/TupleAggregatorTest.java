@@ -0,0 +1,52 @@
+package ru.poplavkov.cluster;
+
+import lombok.val;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TupleAggregatorTest {
+
+    @Test
+    void addAndFlush() {
+        val batches = new ArrayList<LongIntHashMap>();
+        val aggregator = new TupleAggregator(10, map -> {
+            synchronized (batches) {
+                batches.add(map);
+            }
+        });
+        IntStream.range(0, 10_000)
+                .parallel()
+                .forEach(i -> aggregator.add(i % 50, i % 5));
+        val flushedBeforeEnd = batches.size();
+        aggregator.flush();
+
+        for (int i = 0; i < flushedBeforeEnd; i++) {
+            assertEquals(10, batches.get(i).size());
+        }
+        val total = total(batches);
+        assertEquals(50, total.size());
+        val counts = new ArrayList<Integer>();
+        total.forEach((link, count) -> counts.add(count));
+        assertTrue(counts.stream().allMatch(count -> count == 200));
+        assertEquals(200, total.get(Links.link(7, 2)));
+    }
+
+    @Test
+    void emptyFlush() {
+        val batches = new ArrayList<LongIntHashMap>();
+        new TupleAggregator(10, batches::add).flush();
+        assertEquals(0, batches.size());
+    }
+
+    private static LongIntHashMap total(List<LongIntHashMap> batches) {
+        val total = new LongIntHashMap();
+        batches.forEach(total::addAll);
+        return total;
+    }
+}
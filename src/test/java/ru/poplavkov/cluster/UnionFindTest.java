@@ -0,0 +1,47 @@
+package ru.poplavkov.cluster;
+
+import lombok.val;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UnionFindTest {
+
+    @Test
+    void union() {
+        val unionFind = new UnionFind(2);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i, unionFind.add());
+        }
+        assertEquals(10, unionFind.count());
+        assertTrue(unionFind.union(0, 1));
+        assertTrue(unionFind.union(2, 3));
+        assertTrue(unionFind.union(1, 3));
+        assertFalse(unionFind.union(0, 2));
+        assertTrue(unionFind.union(8, 9));
+
+        assertEquals(unionFind.find(0), unionFind.find(3));
+        assertNotEquals(unionFind.find(0), unionFind.find(8));
+        assertEquals(4, unionFind.size(2));
+        assertEquals(2, unionFind.size(9));
+        assertEquals(1, unionFind.size(5));
+        assertEquals(5, unionFind.find(5));
+    }
+
+    @Test
+    void chain() {
+        val unionFind = new UnionFind();
+        val count = 100_000;
+        for (int i = 0; i < count; i++) {
+            unionFind.add();
+        }
+        for (int i = 1; i < count; i++) {
+            unionFind.union(i, i - 1);
+        }
+        assertEquals(count, unionFind.size(0));
+        assertEquals(unionFind.find(0), unionFind.find(count - 1));
+    }
+}